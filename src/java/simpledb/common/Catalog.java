@@ -1,9 +1,21 @@
 package simpledb.common;
 
 import simpledb.common.Type;
+import simpledb.index.BTreeBulkLoader;
+import simpledb.index.BTreeIndexFile;
+import simpledb.index.BitmapIndex;
+import simpledb.index.HashIndexFile;
+import simpledb.index.SecondaryIndex;
+import simpledb.storage.ColumnarFile;
+import simpledb.storage.CompressedHeapFile;
+import simpledb.storage.BufferPool;
 import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
 import simpledb.storage.HeapFile;
+import simpledb.storage.Page;
 import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -12,6 +24,7 @@ import java.io.IOException;
 import java.sql.Array;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -30,6 +43,7 @@ public class Catalog {
         private DbFile dbFile;
         private String name;
         private String pkeyField;
+        private final List<SecondaryIndex> indexes = new CopyOnWriteArrayList<>(); // 表上的二级索引
 
         public Table(DbFile dbFile, String name, String pkeyField) {
             this.dbFile = dbFile;
@@ -61,6 +75,10 @@ public class Catalog {
             this.pkeyField = pkeyField;
         }
 
+        public List<SecondaryIndex> getIndexes() {
+            return indexes;
+        }
+
         public String toString() {
             return "Table{" +
                     "dbFile=" + dbFile +
@@ -98,6 +116,9 @@ public class Catalog {
             }
             if (tmp.getName().equals(name) ||  tmp.getDbFile().getId() == file.getId()) {
                 this.tables.set(i, table);
+                if (tmp.getDbFile() != file) {
+                    close(tmp.getDbFile());
+                }
                 return;
             }
         }
@@ -175,6 +196,39 @@ public class Catalog {
         return table.getDbFile();
     }
 
+    /**
+     * Add a secondary index on a table. An index stored in pages is also
+     * added as a table of its own under the given name, so that its pages
+     * can be read through the BufferPool; an index kept in memory is only
+     * listed with its table. The BufferPool keeps the index up to date
+     * when tuples are inserted into or deleted from the table.
+     * @param index the index; index.getBaseTableId() must be a HeapFile in the catalog
+     * @param name the name of the index as a table, unused for indexes kept in memory
+     * @throws NoSuchElementException if the base table doesn't exist
+     */
+    public void addIndex(SecondaryIndex index, String name) {
+        Table table = getTableById(index.getBaseTableId());
+        if (table == null) {
+            throw new NoSuchElementException();
+        }
+        if (!(table.getDbFile() instanceof HeapFile)) {
+            throw new IllegalArgumentException("secondary indexes need a HeapFile as the base table");
+        }
+        if (index instanceof DbFile) {
+            addTable((DbFile) index, name);
+        }
+        table.getIndexes().add(index);
+    }
+
+    /**
+     * Returns the secondary indexes on the specified table, or an empty list
+     * if it has none.
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+        Table table = getTableById(tableid);
+        return table == null ? Collections.emptyList() : table.getIndexes();
+    }
+
     public String getPrimaryKey(int tableid) {
         // some code goes here
         Table table = getTableById(tableid);
@@ -199,11 +253,63 @@ public class Catalog {
         return null;
     }
     
+    /**
+     * Add an entry to a new, empty index for every tuple of its table.
+     * A B+ tree index is bulk loaded instead of built one insert at a time.
+     * Other indexes are built by a series of transactions, each committed
+     * once half of the BufferPool is dirty, so that an index on a table
+     * larger than the BufferPool can be built under NO STEAL.
+     */
+    private void buildIndex(SecondaryIndex index) {
+        BufferPool bufferPool = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        try {
+            if (index instanceof BTreeIndexFile) {
+                ((BTreeIndexFile) index).build(tid, BTreeBulkLoader.DEFAULT_FILL_FACTOR);
+                bufferPool.transactionComplete(tid);
+                return;
+            }
+            // 基表用单独的只读事务扫描，提交一批索引项不会影响扫描
+            TransactionId scanTid = new TransactionId();
+            DbFileIterator it = getDatabaseFile(index.getBaseTableId()).iterator(scanTid);
+            it.open();
+            while (it.hasNext()) {
+                for (Page page : index.insertEntry(tid, it.next())) {
+                    page.markDirty(true, tid);
+                }
+                if (bufferPool.getDirtyPageCount() >= bufferPool.getNumPages() / 2) {
+                    bufferPool.transactionComplete(tid);
+                    tid = new TransactionId();
+                }
+            }
+            it.close();
+            bufferPool.transactionComplete(scanTid);
+            bufferPool.transactionComplete(tid);
+        } catch (DbException | TransactionAbortedException | IOException e) {
+            e.printStackTrace();
+            System.exit(0);
+        }
+    }
+
     /** Delete all tables from the catalog */
     public void clear() {
         // some code goes here
+        for (Table table : tables) {
+            close(table.getDbFile());
+        }
         tables.clear();
     }
+
+    /**
+     * 关闭不再登记在 catalog 中的表的文件，关闭失败不影响删除表
+     */
+    private static void close(DbFile file) {
+        try {
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
@@ -216,7 +322,7 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(catalogFile));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [annotation ...]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -224,6 +330,7 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<>();
                 ArrayList<Type> types = new ArrayList<>();
                 String primaryKey = "";
+                Map<Integer, String> indexFields = new LinkedHashMap<>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -238,18 +345,83 @@ public class Catalog {
                     if (els2.length == 3) {
                         if (els2[2].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[2].trim().equals("hash") || els2[2].trim().equals("btree")
+                                || els2[2].trim().equals("bitmap"))
+                            indexFields.put(names.size() - 1, els2[2].trim());
                         else {
                             System.out.println("Unknown annotation " + els2[2]);
                             System.exit(0);
                         }
                     }
                 }
+                // table annotations follow the field list, e.g. name (field type, ...) mmap
+                boolean memoryMapped = false;
+                boolean compressed = false;
+                boolean columnar = false;
+                HeapFile.Layout layout = HeapFile.Layout.FIXED;
+                String annotations = line.substring(line.indexOf(")") + 1).trim();
+                for (String a : annotations.split("\\s+")) {
+                    if (a.isEmpty())
+                        continue;
+                    if (a.equals("mmap"))
+                        memoryMapped = true;
+                    else if (a.equals("slotted"))
+                        layout = HeapFile.Layout.SLOTTED;
+                    else if (a.equals("compressed"))
+                        compressed = true;
+                    else if (a.equals("columnar"))
+                        columnar = true;
+                    else {
+                        System.out.println("Unknown table annotation " + a);
+                        System.exit(0);
+                    }
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                if (compressed && memoryMapped) {
+                    System.out.println("Table " + name + " cannot be both compressed and mmap");
+                    System.exit(0);
+                }
+                if (columnar && (compressed || memoryMapped || layout != HeapFile.Layout.FIXED)) {
+                    System.out.println("Table " + name + " is columnar and cannot have other storage annotations");
+                    System.exit(0);
+                }
+                File tabFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf;
+                if (columnar)
+                    tabHf = new ColumnarFile(tabFile, t);
+                else if (compressed)
+                    tabHf = new CompressedHeapFile(tabFile, t, layout);
+                else
+                    tabHf = new HeapFile(tabFile, t, memoryMapped, layout);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                // 字段注解 hash/btree/bitmap 表示在该字段上建二级索引，索引文件为 name_field_hash.dat 等；
+                // 位图索引只在内存中，每次加载都重建
+                for (Map.Entry<Integer, String> e : indexFields.entrySet()) {
+                    int field = e.getKey();
+                    String indexName = name + "_" + namesAr[field] + "_" + e.getValue();
+                    File indexFile = new File(baseFolder + "/" + indexName + ".dat");
+                    boolean build = indexFile.length() == 0;
+                    if (!(tabHf instanceof HeapFile)) {
+                        System.out.println("Index " + indexName + " needs a heap table");
+                        System.exit(0);
+                    }
+                    SecondaryIndex index;
+                    if (e.getValue().equals("hash"))
+                        index = new HashIndexFile(indexFile, tabHf.getId(), field, typeAr[field]);
+                    else if (e.getValue().equals("btree"))
+                        index = new BTreeIndexFile(indexFile, tabHf.getId(), field, typeAr[field]);
+                    else {
+                        index = new BitmapIndex(tabHf.getId(), field, typeAr[field]);
+                        build = true;
+                    }
+                    addIndex(index, indexName);
+                    if (build)
+                        buildIndex(index);
+                    System.out.println("Added " + e.getValue() + " index : " + indexName);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -1,6 +1,7 @@
 package simpledb.common;
 
 import simpledb.storage.BufferPool;
+import simpledb.storage.EvictionPolicy;
 import simpledb.storage.LogFile;
 
 import java.io.*;
@@ -58,11 +59,21 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(pages, EvictionPolicy.Type.CLOCK);
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * that uses the given eviction policy and return it
+     */
+    public static BufferPool resetBufferPool(int pages, EvictionPolicy.Type policy) {
+        // 停掉旧 buffer pool 的后台线程，并写回等待写回的页
+        _instance.get()._bufferpool.shutdown();
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), new BufferPool(pages, policy));
         } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
         }
@@ -72,6 +83,8 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
+        _instance.get()._bufferpool.shutdown();
+        _instance.get()._catalog.clear();
         _instance.set(new Database());
     }
 
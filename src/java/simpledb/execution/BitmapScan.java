@@ -0,0 +1,155 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.index.BitmapIndex;
+import simpledb.index.CompressedBitmap;
+import simpledb.storage.HeapPage;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * BitmapScan is an access method that finds the tuples of a table that
+ * satisfy a conjunction of predicates, each on a field with a BitmapIndex.
+ * It ANDs the bitmaps the indexes return for their predicates, and then
+ * fetches the tuples at the remaining positions in position order, that
+ * is page by page from the start of the table, skipping the pages that
+ * hold none of them.
+ */
+public class BitmapScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final List<BitmapIndex> indexes;
+    private final List<IndexPredicate> predicates;
+    private final String tableAlias;
+    private Iterator<Integer> positions;
+    private Tuple next;
+
+    /**
+     * Creates a scan of the tuples that satisfy all of the predicates.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param indexes
+     *            the indexes, all on the same table
+     * @param predicates
+     *            the predicates, the i-th one on the field of the i-th index
+     * @param tableAlias
+     *            the alias of the table, used as the prefix of the field
+     *            names like in SeqScan
+     */
+    public BitmapScan(TransactionId tid, List<BitmapIndex> indexes, List<IndexPredicate> predicates,
+                      String tableAlias) {
+        if (indexes.isEmpty() || indexes.size() != predicates.size()) {
+            throw new IllegalArgumentException("need one predicate for each index");
+        }
+        this.tid = tid;
+        this.indexes = indexes;
+        this.predicates = predicates;
+        this.tableAlias = tableAlias;
+    }
+
+    public List<BitmapIndex> getIndexes() {
+        return indexes;
+    }
+
+    public List<IndexPredicate> getPredicates() {
+        return predicates;
+    }
+
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        CompressedBitmap matches = indexes.get(0).lookup(predicates.get(0));
+        for (int i = 1; i < indexes.size() && !matches.isEmpty(); i++) {
+            matches = matches.and(indexes.get(i).lookup(predicates.get(i)));
+        }
+        positions = matches.iterator();
+        next = null;
+    }
+
+    /**
+     * Returns the TupleDesc of the table, with field names prefixed with
+     * the alias like in SeqScan.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc tupleDesc = Database.getCatalog().getTupleDesc(indexes.get(0).getBaseTableId());
+        Type[] types = new Type[tupleDesc.numFields()];
+        String[] fieldNames = new String[tupleDesc.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = tupleDesc.getFieldType(i);
+            fieldNames[i] = tableAlias + "." + tupleDesc.getFieldName(i);
+        }
+        return new TupleDesc(types, fieldNames);
+    }
+
+    private boolean matches(Tuple t) {
+        for (int i = 0; i < indexes.size(); i++) {
+            IndexPredicate p = predicates.get(i);
+            if (!t.getField(indexes.get(i).getKeyField()).compare(p.getOp(), p.getField())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 取出下一个位置上的元组；位图中可能有过时的位，取出后清掉并再检查条件
+     */
+    private Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (positions.hasNext()) {
+            RecordId rid = indexes.get(0).getRecordId(positions.next());
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+            Tuple t = page.getTuple(rid.getTupleNumber());
+            if (t != null && matches(t)) {
+                return t;
+            }
+            for (BitmapIndex index : indexes) {
+                index.refresh(page, rid.getTupleNumber());
+            }
+        }
+        return null;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (positions == null) {
+            throw new IllegalStateException("Operator not yet open");
+        }
+        if (next == null) {
+            next = fetchNext();
+        }
+        return next != null;
+    }
+
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    public void close() {
+        positions = null;
+        next = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+}
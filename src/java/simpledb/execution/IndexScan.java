@@ -0,0 +1,145 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.index.SecondaryIndex;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapPage;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.NoSuchElementException;
+
+/**
+ * IndexScan is an access method that looks up the tuples of a table that
+ * satisfy an IndexPredicate in a SecondaryIndex on the table, and then
+ * fetches each of them from its page of the table by its RecordId.
+ */
+public class IndexScan implements IndexOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final SecondaryIndex index;
+    private IndexPredicate ipred;
+    private final String tableAlias;
+    private DbFileIterator entries;
+    private Tuple next;
+
+    /**
+     * Creates an index scan over the table of the given index as a part of
+     * the specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to look the tuples up in
+     * @param ipred
+     *            the predicate on the indexed field that tuples must satisfy
+     * @param tableAlias
+     *            the alias of the table, used as the prefix of the field
+     *            names like in SeqScan
+     */
+    public IndexScan(TransactionId tid, SecondaryIndex index, IndexPredicate ipred, String tableAlias) {
+        this.tid = tid;
+        this.index = index;
+        this.ipred = ipred;
+        this.tableAlias = tableAlias;
+    }
+
+    public SecondaryIndex getIndex() {
+        return index;
+    }
+
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        entries = index.indexIterator(tid, ipred);
+        entries.open();
+        next = null;
+    }
+
+    public void open(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+        this.ipred = ipred;
+        open();
+    }
+
+    /**
+     * Returns the TupleDesc of the table, with field names prefixed with
+     * the alias like in SeqScan.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc tupleDesc = Database.getCatalog().getTupleDesc(index.getBaseTableId());
+        Type[] types = new Type[tupleDesc.numFields()];
+        String[] fieldNames = new String[tupleDesc.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = tupleDesc.getFieldType(i);
+            fieldNames[i] = tableAlias + "." + tupleDesc.getFieldName(i);
+        }
+        return new TupleDesc(types, fieldNames);
+    }
+
+    /**
+     * 按索引项中的 RecordId 到表的页中取出元组
+     */
+    private Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (entries.hasNext()) {
+            RecordId rid = index.getRecordId(entries.next());
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+            Tuple t = page.getTuple(rid.getTupleNumber());
+            // 有的索引（如 BitmapIndex）可能指向已不再匹配的元组，取出后再检查一次
+            if (t != null && t.getField(index.getKeyField()).compare(ipred.getOp(), ipred.getField())) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (entries == null) {
+            throw new IllegalStateException("Operator not yet open");
+        }
+        if (next == null) {
+            next = fetchNext();
+        }
+        return next != null;
+    }
+
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    public void close() {
+        if (entries != null) {
+            entries.close();
+        }
+        entries = null;
+        next = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void rewind(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+        close();
+        open(ipred);
+    }
+}
@@ -1,12 +1,14 @@
 package simpledb.execution;
 
 import simpledb.common.Database;
+import simpledb.storage.ColumnarFile;
 import simpledb.storage.DbFile;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -25,6 +27,8 @@ public class SeqScan implements OpIterator {
     private int tableId;
     private String tableAlias;
     private DbFileIterator dbFileIterator;
+    private int[] projection; // 需要读出的字段，null 表示全部
+    private final List<Predicate> predicates = new ArrayList<>(); // 下推的过滤条件
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -89,10 +93,41 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Tell the scan which fields of the table the rest of the plan uses.
+     * Tables stored by column then only read and decode those fields, and
+     * leave the other fields of the returned tuples null; other tables
+     * return all fields as usual. The TupleDesc of the scan is unchanged.
+     *
+     * @param fields the indexes of the fields that are used, or null for all fields
+     */
+    public void setProjection(int[] fields) {
+        this.projection = fields;
+    }
+
+    /**
+     * Push a predicate that a Filter above this scan applies down to the
+     * scan, so that it can skip the pages whose min/max summaries show that
+     * none of their tuples satisfy it. The scan may still return tuples
+     * that do not satisfy the predicate; the Filter removes them.
+     *
+     * @param p a predicate over the fields of this scan
+     */
+    public void addPredicate(Predicate p) {
+        predicates.add(p);
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
         DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
-        DbFileIterator iterator = dbFile.iterator(tid);
+        DbFileIterator iterator;
+        if (dbFile instanceof ColumnarFile) {
+            iterator = ((ColumnarFile) dbFile).iterator(tid, projection, predicates);
+        } else if (dbFile instanceof HeapFile && !predicates.isEmpty()) {
+            iterator = ((HeapFile) dbFile).iterator(tid, predicates);
+        } else {
+            iterator = dbFile.iterator(tid);
+        }
         this.dbFileIterator = iterator;
         iterator.open();
     }
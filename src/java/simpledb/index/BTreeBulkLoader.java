@@ -0,0 +1,593 @@
+package simpledb.index;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * BTreeBulkLoader builds a BTreeFile from tuples in any order without going
+ * through insertTuple. The tuples are sorted with an external merge sort:
+ * every runSize tuples are sorted in memory and spilled to a temporary file
+ * as a run, and the runs are then merged k ways through a priority queue,
+ * so only one run has to fit in memory however large the table is.
+ * <p>
+ * Once all tuples are added, their number fixes the shape of the whole tree.
+ * Leaves get page numbers 1..L, each internal level follows the level below
+ * it and the root is the last page, so every page is written exactly once,
+ * in page order, with its parent and sibling pointers already set. Pages are
+ * filled up to the fill factor, except that the last two pages of a level
+ * share what is left. The key that separates every page of a level from the
+ * page before it is spilled as well, to build the level above.
+ * <p>
+ * Compact internal pages (see {@link BTreeInternalPage#isCompact}) hold as
+ * many entries as fit in their bytes, so the shape of their levels depends on
+ * the separators. For these the merged runs are read once more before the
+ * leaves are written, only to spill the separators of the leaves, and the
+ * internal levels are laid out from them.
+ * <p>
+ * Pages are written straight to the file, not through the BufferPool, so
+ * the file must be empty and must not be used before finish returns.
+ *
+ * @see BTreeFileEncoder
+ */
+public class BTreeBulkLoader {
+
+	/** The default fill factor, which packs every page. */
+	public static final double DEFAULT_FILL_FACTOR = 1.0;
+
+	/** The default number of tuples sorted in memory at a time. */
+	public static final int DEFAULT_RUN_SIZE = 100000;
+
+	private final BTreeFile bf;
+	private final TupleDesc td;
+	private final int keyField;
+	private final double fillFactor;
+	private final int runSize;
+
+	private final List<Tuple> buffer = new ArrayList<>();
+	private final List<File> runs = new ArrayList<>();
+	private long count = 0;
+	private boolean finished = false;
+
+	/**
+	 * Constructs a loader that packs every page.
+	 *
+	 * @param bf the empty BTreeFile to load, which must be in the catalog
+	 */
+	public BTreeBulkLoader(BTreeFile bf) throws DbException {
+		this(bf, DEFAULT_FILL_FACTOR, DEFAULT_RUN_SIZE);
+	}
+
+	/**
+	 * Constructs a loader.
+	 *
+	 * @param bf the empty BTreeFile to load, which must be in the catalog
+	 * @param fillFactor the fraction of each page to fill, between 0.5 and 1,
+	 *        leaving room for later inserts before pages split
+	 * @param runSize the number of tuples to sort in memory at a time
+	 * @throws DbException if the file is not empty
+	 */
+	public BTreeBulkLoader(BTreeFile bf, double fillFactor, int runSize) throws DbException {
+		if (fillFactor < 0.5 || fillFactor > 1.0) {
+			throw new IllegalArgumentException("fill factor must be between 0.5 and 1: " + fillFactor);
+		}
+		if (runSize < 1) {
+			throw new IllegalArgumentException("run size must be positive: " + runSize);
+		}
+		if (bf.getFile().length() > 0) {
+			throw new DbException("can only bulk load an empty B+ tree file");
+		}
+		this.bf = bf;
+		this.td = bf.getTupleDesc();
+		this.keyField = bf.keyField();
+		this.fillFactor = fillFactor;
+		this.runSize = runSize;
+	}
+
+	/**
+	 * Add a tuple to the file. Its fields are copied when its run is spilled,
+	 * so the tuple must not be changed afterwards.
+	 */
+	public void add(Tuple t) throws IOException {
+		if (finished) {
+			throw new IllegalStateException("bulk load already finished");
+		}
+		if (!t.getTupleDesc().equals(td)) {
+			throw new IllegalArgumentException("tuple does not match the B+ tree's TupleDesc");
+		}
+		buffer.add(t);
+		count++;
+		if (buffer.size() >= runSize) {
+			spill();
+		}
+	}
+
+	/**
+	 * Add all the tuples of an open iterator, and finish the load.
+	 *
+	 * @return the number of tuples loaded
+	 */
+	public long load(DbFileIterator it)
+			throws DbException, IOException, TransactionAbortedException {
+		try {
+			while (it.hasNext()) {
+				add(it.next());
+			}
+		} catch (IOException | DbException | TransactionAbortedException | RuntimeException e) {
+			deleteRuns();
+			throw e;
+		}
+		return finish();
+	}
+
+	/**
+	 * Sort the tuples added so far and write out the pages of the tree.
+	 *
+	 * @return the number of tuples loaded
+	 */
+	public long finish() throws DbException, IOException {
+		if (finished) {
+			throw new IllegalStateException("bulk load already finished");
+		}
+		finished = true;
+		try {
+			write();
+		} finally {
+			deleteRuns();
+		}
+		return count;
+	}
+
+	private void deleteRuns() {
+		for (File f : runs) {
+			f.delete();
+		}
+		runs.clear();
+		buffer.clear();
+	}
+
+	/**
+	 * 将缓冲区中的元组排序后写入一个临时文件
+	 */
+	private void spill() throws IOException {
+		buffer.sort(new BTreeFileEncoder.TupleComparator(keyField));
+		File f = File.createTempFile("btreerun", ".dat");
+		f.deleteOnExit();
+		runs.add(f);
+		try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)))) {
+			for (Tuple t : buffer) {
+				for (int i = 0; i < td.numFields(); i++) {
+					t.getField(i).serialize(dos);
+				}
+			}
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * A sorted run, read one tuple at a time, either from its file or, when
+	 * all tuples fit in a single run, from memory.
+	 */
+	private class Run {
+		private final DataInputStream in;
+		private final Iterator<Tuple> it;
+		private long remaining;
+		Tuple head;
+
+		Run(File f, long size) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+			this.it = null;
+			this.remaining = size;
+			advance();
+		}
+
+		Run(List<Tuple> tuples) throws IOException {
+			this.in = null;
+			this.it = tuples.iterator();
+			this.remaining = tuples.size();
+			advance();
+		}
+
+		void advance() throws IOException {
+			if (remaining == 0) {
+				head = null;
+				if (in != null) {
+					in.close();
+				}
+				return;
+			}
+			remaining--;
+			if (it != null) {
+				head = it.next();
+				return;
+			}
+			Tuple t = new Tuple(td);
+			try {
+				for (int i = 0; i < td.numFields(); i++) {
+					t.setField(i, td.getFieldType(i).parse(in));
+				}
+			} catch (ParseException e) {
+				throw new IOException("corrupt sort run", e);
+			}
+			head = t;
+		}
+	}
+
+	/**
+	 * Merges the sorted runs into one stream of tuples in key order.
+	 */
+	private class Merger {
+		private final PriorityQueue<Run> queue;
+
+		Merger() throws IOException {
+			Comparator<Tuple> cmp = new BTreeFileEncoder.TupleComparator(keyField);
+			queue = new PriorityQueue<>(Math.max(1, runs.size()), (a, b) -> cmp.compare(a.head, b.head));
+			if (runs.isEmpty()) {
+				// 所有元组都在内存中，不需要写临时文件
+				buffer.sort(cmp);
+				queue.add(new Run(buffer));
+				return;
+			}
+			if (!buffer.isEmpty()) {
+				spill();
+			}
+			for (int i = 0; i < runs.size(); i++) {
+				// 除最后一个外每个 run 都有 runSize 个元组
+				long size = i < runs.size() - 1 ? runSize : count - (long) runSize * (runs.size() - 1);
+				queue.add(new Run(runs.get(i), size));
+			}
+		}
+
+		Tuple next() throws IOException {
+			Run r = queue.poll();
+			if (r == null) {
+				return null;
+			}
+			Tuple t = r.head;
+			r.advance();
+			if (r.head != null) {
+				queue.add(r);
+			}
+			return t;
+		}
+	}
+
+	/**
+	 * The pages of one level of the tree: items are the tuples of the leaves,
+	 * or the children of the internal pages, and the pages are numbered from
+	 * first. All pages hold per items except the last two, which share the
+	 * rest evenly as in BTreeFileEncoder: the tuples for leaves, and the keys
+	 * for internal pages, with the middle key pushed up. If even halves would
+	 * be less than half full, the rest goes on a single page instead. A level
+	 * of compact pages has the number of items of every page given instead.
+	 */
+	private static class Level {
+		final int first;
+		final int per;
+		final long[] starts; // 每页第一个 item 的下标，只有按字节排布的层才有
+		int pages;
+		int secondToLast;
+		int last;
+
+		Level(int first, long items, int per, int min, boolean internal) {
+			this.first = first;
+			this.per = per;
+			this.starts = null;
+			this.pages = (int) Math.max(1, (items + per - 1) / per);
+			this.last = (int) (items - (long) (pages - 1) * per);
+			this.secondToLast = per;
+			if (pages > 1 && last < per) {
+				int total = per + last;
+				if (total / 2 < min) {
+					// 平分后不到半满，并入前一页
+					pages--;
+					last = total;
+				} else {
+					secondToLast = internal ? (total + 1) / 2 : total / 2;
+					last = total - secondToLast;
+				}
+			}
+		}
+
+		Level(int first, List<Integer> sizes) {
+			this.first = first;
+			this.per = 0;
+			this.pages = sizes.size();
+			this.starts = new long[pages];
+			for (int i = 1; i < pages; i++) {
+				starts[i] = starts[i - 1] + sizes.get(i - 1);
+			}
+			this.last = sizes.get(pages - 1);
+		}
+
+		/** @return the number of items on the i-th page */
+		int size(int i) {
+			if (starts != null) {
+				return i == pages - 1 ? last : (int) (starts[i + 1] - starts[i]);
+			}
+			if (i == pages - 1) {
+				return last;
+			}
+			return i == pages - 2 ? secondToLast : per;
+		}
+
+		/** @return the index of the page that holds the j-th item */
+		int pageOf(long j) {
+			if (pages == 1) {
+				return 0;
+			}
+			if (starts != null) {
+				int i = Arrays.binarySearch(starts, j);
+				return i >= 0 ? i : -i - 2;
+			}
+			long start = (long) (pages - 2) * per;
+			if (j < start) {
+				return (int) (j / per);
+			}
+			return j < start + secondToLast ? pages - 2 : pages - 1;
+		}
+	}
+
+	/**
+	 * Lay out the levels of the tree and write its pages bottom up. With no
+	 * tuples, the tree is a single empty leaf.
+	 */
+	private void write() throws DbException, IOException {
+		int tableid = bf.getId();
+		int pageSize = BufferPool.getPageSize();
+		Type keyType = td.getFieldType(keyField);
+		Type[] typeAr = new Type[td.numFields()];
+		for (int i = 0; i < typeAr.length; i++) {
+			typeAr[i] = td.getFieldType(i);
+		}
+
+		// 从空页得到每页能放的元组和索引项个数
+		int maxTuples = new BTreeLeafPage(new BTreePageId(tableid, 1, BTreePageId.LEAF),
+				BTreeLeafPage.createEmptyPageData(), keyField).getMaxTuples();
+		int maxEntries = new BTreeInternalPage(new BTreePageId(tableid, 1, BTreePageId.INTERNAL),
+				BTreeInternalPage.createEmptyPageData(), keyField).getMaxEntries();
+		int perLeaf = Math.max(1, (int) (maxTuples * fillFactor));
+		int perInternal = Math.max(2, (int) (maxEntries * fillFactor) + 1);
+
+		List<Level> levels = new ArrayList<>();
+		levels.add(new Level(1, count, perLeaf, maxTuples / 2, false));
+		// keys.get(k) 存第 k 层每一页与前一页之间的分隔 key
+		List<File> keys = new ArrayList<>();
+		try {
+			if (BTreeInternalPage.isCompact(keyType)) {
+				if (levels.get(0).pages > 1) {
+					keys.add(writeLeafKeys(levels.get(0)));
+				}
+				while (levels.get(levels.size() - 1).pages > 1) {
+					levels.add(layoutCompactLevel(levels.get(levels.size() - 1), keys, keyType, pageSize));
+				}
+				if (levels.size() > 1) {
+					// the separators of the pages of the root are not needed
+					keys.remove(keys.size() - 1).delete();
+				}
+			}
+			while (levels.get(levels.size() - 1).pages > 1) {
+				Level below = levels.get(levels.size() - 1);
+				levels.add(new Level(below.first + below.pages, below.pages, perInternal,
+						maxEntries / 2 + 1, true));
+			}
+			Level top = levels.get(levels.size() - 1);
+			int rootCategory = levels.size() > 1 ? BTreePageId.INTERNAL : BTreePageId.LEAF;
+			BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+			bf.writePage(new BTreeRootPtrPage(rootPtrId,
+					BTreeFileEncoder.convertToRootPtrPage(top.first, rootCategory, 0)));
+
+			for (int k = 0; k < levels.size(); k++) {
+				// 定长 key 的分隔 key 在写这一层时顺便写出
+				DataOutputStream dos = null;
+				if (keys.size() == k && k < levels.size() - 1) {
+					keys.add(newKeyFile());
+					dos = keyFile(keys.get(k));
+				}
+				try {
+					if (k == 0) {
+						writeLeaves(levels, typeAr, pageSize, dos);
+					} else {
+						writeInternalLevel(levels, k, keys.get(k - 1), dos, keyType, pageSize);
+						keys.get(k - 1).delete();
+					}
+				} finally {
+					if (dos != null) {
+						dos.close();
+					}
+				}
+			}
+		} catch (ParseException e) {
+			throw new IOException("corrupt key file", e);
+		} finally {
+			for (File f : keys) {
+				f.delete();
+			}
+		}
+	}
+
+	private static File newKeyFile() throws IOException {
+		File f = File.createTempFile("btreekeys", ".dat");
+		f.deleteOnExit();
+		return f;
+	}
+
+	private BTreePageId parentOf(List<Level> levels, int k, int i) {
+		if (k == levels.size() - 1) {
+			return BTreeRootPtrPage.getId(bf.getId());
+		}
+		Level up = levels.get(k + 1);
+		return new BTreePageId(bf.getId(), up.first + up.pageOf(i), BTreePageId.INTERNAL);
+	}
+
+	private static DataOutputStream keyFile(File f) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+	}
+
+	/**
+	 * Read the merged runs to write the key that separates every leaf from
+	 * the leaf before it, which for the first leaf is its first key.
+	 *
+	 * @return the temporary file with the keys
+	 */
+	private File writeLeafKeys(Level leaves) throws IOException {
+		File keys = newKeyFile();
+		try (DataOutputStream dos = keyFile(keys)) {
+			Merger merger = new Merger();
+			Field prev = null;
+			for (int i = 0; i < leaves.pages; i++) {
+				for (int j = 0; j < leaves.size(i); j++) {
+					Field f = merger.next().getField(keyField);
+					if (j == 0) {
+						separator(prev, f).serialize(dos);
+					}
+					prev = f;
+				}
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * @return the key copied up into the parent for a leaf whose first key is
+	 *         first, after a leaf whose last key is prev, or first if there is
+	 *         no leaf before it
+	 */
+	private static Field separator(Field prev, Field first) {
+		return prev == null ? first : BTreeInternalPage.shortestSeparator(prev, first);
+	}
+
+	/**
+	 * Lay out a level of compact internal pages over the pages of the level
+	 * below: each page takes children while its entries fit in the fill
+	 * factor of a page, except that the last page never has a single child.
+	 *
+	 * @param below the level of the children
+	 * @param keys the files with the separators of the pages of every level
+	 *        up to below, to which the file for the new level is added
+	 * @return the new level
+	 */
+	private Level layoutCompactLevel(Level below, List<File> keys, Type keyType, int pageSize)
+			throws IOException, ParseException {
+		File belowKeys = keys.get(keys.size() - 1);
+		int budget = (int) (pageSize * fillFactor);
+		List<Integer> sizes = new ArrayList<>();
+		File levelKeys = newKeyFile();
+		keys.add(levelKeys);
+		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(belowKeys)));
+				DataOutputStream dos = keyFile(levelKeys)) {
+			Field prev = keyType.parse(dis);
+			prev.serialize(dos);
+			Field first = null;
+			int children = 1;
+			int keyBytes = 0;
+			for (int j = 1; j < below.pages; j++) {
+				Field key = keyType.parse(dis);
+				int len = ((StringField) key).getValue().length();
+				int n = children;
+				int size = BTreeInternalPage.compactSize(n, keyBytes + len,
+						first == null ? 0 : BTreeInternalPage.commonPrefix(first, key));
+				boolean lastChild = j == below.pages - 1;
+				if (first == null || size <= budget || (lastChild && size <= pageSize)) {
+					if (first == null) {
+						first = key;
+					}
+					children++;
+					keyBytes += len;
+				} else if (lastChild && children > 2) {
+					// 最后一个孩子单独成页不合法，把这一页的最后一个孩子一起移过去
+					sizes.add(children - 1);
+					prev.serialize(dos);
+					children = 2;
+				} else {
+					sizes.add(children);
+					key.serialize(dos);
+					first = null;
+					children = 1;
+					keyBytes = 0;
+				}
+				prev = key;
+			}
+			sizes.add(children);
+		}
+		return new Level(below.first + below.pages, sizes);
+	}
+
+	/**
+	 * Write the leaves from the merged runs, and the key that separates
+	 * every leaf from the leaf before it to dos if it is not null.
+	 */
+	private void writeLeaves(List<Level> levels, Type[] typeAr, int pageSize, DataOutputStream dos)
+			throws DbException, IOException {
+		int tableid = bf.getId();
+		Level leaves = levels.get(0);
+		Merger merger = new Merger();
+		Field prev = null;
+		for (int i = 0; i < leaves.pages; i++) {
+			List<Tuple> tuples = new ArrayList<>(leaves.size(i));
+			for (int j = 0; j < leaves.size(i); j++) {
+				tuples.add(merger.next());
+			}
+			if (dos != null) {
+				separator(prev, tuples.get(0).getField(keyField)).serialize(dos);
+				prev = tuples.get(tuples.size() - 1).getField(keyField);
+			}
+			BTreePageId pid = new BTreePageId(tableid, leaves.first + i, BTreePageId.LEAF);
+			BTreeLeafPage page = new BTreeLeafPage(pid,
+					BTreeFileEncoder.convertToLeafPage(tuples, pageSize, typeAr.length, typeAr, keyField), keyField);
+			page.setParentId(parentOf(levels, 0, i));
+			if (i > 0) {
+				page.setLeftSiblingId(new BTreePageId(tableid, pid.getPageNumber() - 1, BTreePageId.LEAF));
+			}
+			if (i < leaves.pages - 1) {
+				page.setRightSiblingId(new BTreePageId(tableid, pid.getPageNumber() + 1, BTreePageId.LEAF));
+			}
+			bf.writePage(page);
+		}
+	}
+
+	/**
+	 * Write the k-th level of internal pages from the separators of the
+	 * pages of the level below, and the separators of the pages of this
+	 * level to dos if it is not null.
+	 */
+	private void writeInternalLevel(List<Level> levels, int k, File below, DataOutputStream dos,
+			Type keyType, int pageSize) throws DbException, IOException, ParseException {
+		int tableid = bf.getId();
+		Level level = levels.get(k);
+		Level children = levels.get(k - 1);
+		int childCategory = k == 1 ? BTreePageId.LEAF : BTreePageId.INTERNAL;
+		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(below)))) {
+			int child = children.first;
+			for (int i = 0; i < level.pages; i++) {
+				// 第一个孩子前的分隔 key 推到上一层，其余孩子前的分隔 key 留在这一页
+				Field min = keyType.parse(dis);
+				if (dos != null) {
+					min.serialize(dos);
+				}
+				List<BTreeEntry> entries = new ArrayList<>();
+				for (int j = 1; j < level.size(i); j++, child++) {
+					entries.add(new BTreeEntry(keyType.parse(dis),
+							new BTreePageId(tableid, child, childCategory),
+							new BTreePageId(tableid, child + 1, childCategory)));
+				}
+				child++;
+				BTreePageId pid = new BTreePageId(tableid, level.first + i, BTreePageId.INTERNAL);
+				BTreeInternalPage page = new BTreeInternalPage(pid,
+						BTreeFileEncoder.convertToInternalPage(entries, pageSize, keyType, childCategory), keyField);
+				page.setParentId(parentOf(levels, k, i));
+				bf.writePage(page);
+			}
+		}
+	}
+}
@@ -32,6 +32,7 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private final int keyField;
+	private final DbFileChannel channel;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -46,6 +47,7 @@ public class BTreeFile implements DbFile {
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.channel = new DbFileChannel(f);
 	}
 
 	/**
@@ -77,6 +79,11 @@ public class BTreeFile implements DbFile {
 		return td;
 	}
 
+	// see DbFile.java for javadocs
+	public void close() throws IOException {
+		channel.close();
+	}
+
 	/**
 	 * Read a page from the file on disk. This should not be called directly
 	 * but should be called from the BufferPool via getPage()
@@ -87,49 +94,50 @@ public class BTreeFile implements DbFile {
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
-            if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-                byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BTreeRootPtrPage.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-                }
-                Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                return new BTreeRootPtrPage(id, pageBuf);
-            } else {
-                byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BufferPool.getPageSize() + " bytes from BTreeFile");
-                }
-                Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
-                } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
-                } else { // id.pgcateg() == BTreePageId.HEADER
-                    return new BTreeHeaderPage(id, pageBuf);
-                }
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        // Close the file on success or error
-        // Ignore failures closing the file
-    }
+		try {
+			if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+				byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
+				int retval = channel.read(pageBuf, 0);
+				if (retval == -1) {
+					throw new IllegalArgumentException("Read past end of table");
+				}
+				if (retval < BTreeRootPtrPage.getPageSize()) {
+					throw new IllegalArgumentException("Unable to read "
+							+ BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
+				}
+				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+				return new BTreeRootPtrPage(id, pageBuf);
+			} else {
+				byte[] pageBuf = new byte[BufferPool.getPageSize()];
+				int retval = channel.read(pageBuf, pageOffset(id.getPageNumber()));
+				if (retval == -1) {
+					throw new IllegalArgumentException("Read past end of table");
+				}
+				if (retval < BufferPool.getPageSize()) {
+					throw new IllegalArgumentException("Unable to read "
+							+ BufferPool.getPageSize() + " bytes from BTreeFile");
+				}
+				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+				if (id.pgcateg() == BTreePageId.INTERNAL) {
+					return new BTreeInternalPage(id, pageBuf, keyField);
+				} else if (id.pgcateg() == BTreePageId.LEAF) {
+					return new BTreeLeafPage(id, pageBuf, keyField);
+				} else { // id.pgcateg() == BTreePageId.HEADER
+					return new BTreeHeaderPage(id, pageBuf);
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Returns the offset of a page in the file. Page 0 is the root pointer
+	 * page; the other pages follow it, numbered from 1.
+	 */
+	private static long pageOffset(int pageNo) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pageNo - 1) * BufferPool.getPageSize();
+	}
 
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
@@ -141,15 +149,11 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) page.getId();
 		
 		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
+			channel.write(data, 0);
 		}
 		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+			channel.write(data, pageOffset(id.getPageNumber()));
 		}
 	}
 	
@@ -158,7 +162,11 @@ public class BTreeFile implements DbFile {
 	 */
 	public int numPages() {
 		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		try {
+			return (int) ((channel.size() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 	}
 
 	/**
@@ -170,7 +178,7 @@ public class BTreeFile implements DbFile {
 
 	/**
 	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
-	 * the left-most page possibly containing the key field f. It locks all internal
+	 * the left-most page possibly containing the key field f. It locks the internal
 	 * nodes along the path to the leaf node with READ_ONLY permission, and locks the 
 	 * leaf node with permission perm.
 	 * 
@@ -182,37 +190,180 @@ public class BTreeFile implements DbFile {
 	 * @param perm - the permissions with which to lock the leaf page
 	 * @param f - the field to search for
 	 * @return the left-most leaf page possibly containing the key field f
+	 * @see #findLeafPage(TransactionId, Map, BTreePageId, Permissions, Field, boolean, BTreePageId)
 	 * 
 	 */
 	private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
                                        Field f)
 					throws DbException, TransactionAbortedException {
-		// some code goes here
-        return null;
+		return findLeafPage(tid, dirtypages, pid, perm, f, false, null);
 	}
-	
+
 	/**
-	 * Convenience method to find a leaf page when there is no dirtypages HashMap.
-	 * Used by the BTreeFile iterator.
-	 * @see #findLeafPage(TransactionId, Map, BTreePageId, Permissions, Field)
+	 * Find the leaf page like {@link #findLeafPage(TransactionId, Map, BTreePageId, Permissions, Field)},
+	 * crabbing down the tree: the read lock on a page that was locked only to be searched is 
+	 * released as soon as its child is locked, so only the leaf stays locked until the transaction 
+	 * completes. Readers and writers on different leaves then no longer wait for each other on the 
+	 * internal pages they share, and writers do not have to wait for readers to commit before they
+	 * split a page. A page that is locked is never changed under the lock of another transaction, 
+	 * and the parent of a page cannot change while the page is locked, since moving it to another 
+	 * parent needs a write lock on it.
+	 * 
+	 * Writers descend optimistically in the same way and only write-lock the leaf; if it has to be 
+	 * split, the parent is write-locked afterwards through the parent pointer of the leaf.
+	 * 
+	 * Such a read lock is a latch: the descent never waits while it holds one. A transaction that
+	 * holds the child locked until it completes may have to write-lock the parent to split the child,
+	 * so waiting for the child with the parent latched would close a cycle. If the child cannot be
+	 * locked at once, the latch is released first and null is returned once the child is locked; the
+	 * child may have been split or merged in the meantime, so the caller has to start again from 
+	 * the root.
 	 * 
 	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
 	 * @param pid - the current page being searched
+	 * @param perm - the permissions with which to lock the leaf page
 	 * @param f - the field to search for
-	 * @return the left-most leaf page possibly containing the key field f
+	 * @param last - whether to find the right-most leaf page possibly containing a key less than or
+	 * equal to f instead
+	 * @param latch - the page this descent locked only to find pid, to be released once pid is 
+	 * locked, or null; a page the transaction had locked before the descent is never passed here
+	 * @return the leaf page, or null if the descent had to wait and must start again
+	 */
+	private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
+                                       Field f, boolean last, BTreePageId latch)
+					throws DbException, TransactionAbortedException {
+		// some code goes here
+		boolean leaf = pid.pgcateg() == BTreePageId.LEAF;
+		// 内部节点只加读锁，锁住孩子后再放开
+		Permissions p = leaf ? perm : Permissions.READ_ONLY;
+		boolean held = isLocked(tid, dirtypages, pid);
+		if(!lockWithoutWaiting(tid, dirtypages, pid, p, held, latch)) {
+			return null;
+		}
+		Page page = getPage(tid, dirtypages, pid, p);
+		releaseLatch(tid, dirtypages, latch);
+		if(leaf) {
+			return (BTreeLeafPage) page;
+		}
+		// 沿第一个 key >= f 的项的左孩子向下，否则走最后一项的右孩子；last 时沿最后一个 key <= f 的项的右孩子向下
+		BTreeInternalPage internal = (BTreeInternalPage) page;
+		BTreePageId next = last ? internal.findLastChild(f) : internal.findChild(f);
+		if(next == null) {
+			throw new DbException("internal page " + pid + " has no entries");
+		}
+		return findLeafPage(tid, dirtypages, next, perm, f, last, held ? null : pid);
+	}
+
+	/**
+	 * Find the leaf page for the key field f starting from the root pointer page, which is
+	 * released like the internal pages on the way down, and start again whenever the descent
+	 * had to wait for a page.
+	 * @see #findLeafPage(TransactionId, Map, BTreePageId, Permissions, Field, boolean, BTreePageId)
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param perm - the permissions with which to lock the leaf page
+	 * @param f - the field to search for, or null for the left-most or right-most leaf page
+	 * @param last - whether to find the right-most leaf page possibly containing a key less than or
+	 * equal to f instead of the left-most one possibly containing f
+	 * @return the leaf page
+	 */
+	private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, Permissions perm,
+                                       Field f, boolean last)
+					throws DbException, TransactionAbortedException {
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+		while(true) {
+			boolean held = isLocked(tid, dirtypages, rootPtrId);
+			BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId, Permissions.READ_ONLY);
+			BTreeLeafPage leaf = findLeafPage(tid, dirtypages, rootPtr.getRootId(), perm, f, last,
+					held ? null : rootPtrId);
+			if(leaf != null) {
+				return leaf;
+			}
+		}
+	}
+
+	/**
+	 * Find the left-most leaf page possibly containing the key field f, crabbing down the tree
+	 * from the root pointer page. Used by the BTreeFile iterators.
+	 * @see #findLeafPage(TransactionId, Map, Permissions, Field, boolean)
+	 * 
+	 * @param tid - the transaction id
+	 * @param f - the field to search for, or null for the left-most leaf page
+	 * @return the left-most leaf page possibly containing the key field f, locked READ_ONLY
 	 * 
 	 */
-	BTreeLeafPage findLeafPage(TransactionId tid, BTreePageId pid,
-                               Field f)
+	BTreeLeafPage findLeafPage(TransactionId tid, Field f)
 					throws DbException, TransactionAbortedException {
-		return findLeafPage(tid, new HashMap<>(), pid, Permissions.READ_ONLY, f);
+		return findLeafPage(tid, new HashMap<>(), Permissions.READ_ONLY, f, false);
+	}
+
+	/**
+	 * Find the right-most leaf page possibly containing a key less than or equal to f, 
+	 * crabbing down the tree from the root pointer page like {@link #findLeafPage(TransactionId, Field)}.
+	 * Used by the iterators that scan the file in descending order.
+	 * 
+	 * @param tid - the transaction id
+	 * @param f - the field to search for, or null for the right-most leaf page
+	 * @return the right-most leaf page possibly containing a key less than or equal to f, locked READ_ONLY
+	 */
+	BTreeLeafPage findLastLeafPage(TransactionId tid, Field f)
+					throws DbException, TransactionAbortedException {
+		return findLeafPage(tid, new HashMap<>(), Permissions.READ_ONLY, f, true);
+	}
+
+	/**
+	 * @return true if the transaction already has a lock on the page, so that a descent
+	 * through it must not release it
+	 */
+	private boolean isLocked(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid) {
+		return dirtypages.containsKey(pid) || Database.getBufferPool().holdsLock(tid, pid);
+	}
+
+	/**
+	 * Lock the page a descent moves to while it holds the latch on the parent, without waiting
+	 * for the lock as long as the latch is held. If the lock cannot be granted at once, the latch
+	 * is released and the lock waited for without it. A leaf is kept locked, since the descent 
+	 * started again will most likely end there; an internal page is released again unless the 
+	 * transaction held it before.
+	 * 
+	 * @param held - whether the transaction had locked pid before this descent
+	 * @param latch - the page this descent locked only to find pid, or null if there is none
+	 * @return true if the page was locked while the latch was still held
+	 */
+	private boolean lockWithoutWaiting(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid,
+			Permissions perm, boolean held, BTreePageId latch) throws DbException, TransactionAbortedException {
+		if(latch == null || dirtypages.containsKey(pid) || Database.getBufferPool().tryLockPage(tid, pid, perm)) {
+			return true;
+		}
+		releaseLatch(tid, dirtypages, latch);
+		getPage(tid, dirtypages, pid, perm);
+		if(pid.pgcateg() != BTreePageId.LEAF && !held) {
+			releaseLatch(tid, dirtypages, pid);
+		}
+		return false;
+	}
+
+	/**
+	 * Release the read lock a descent took on a page only to search it, unless the page has been
+	 * locked for writing since. The latch is the transaction's own page lock released before the
+	 * transaction completes, which is why only locks the descent took itself may be passed here:
+	 * releasing one the transaction held before would give up a lock two-phase locking still
+	 * relies on.
+	 */
+	private void releaseLatch(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId latch) {
+		if(latch != null && !dirtypages.containsKey(latch)) {
+			Database.getBufferPool().unsafeReleasePage(tid, latch);
+		}
 	}
 
 	/**
 	 * Split a leaf page to make room for new tuples and recursively split the parent node
 	 * as needed to accommodate a new entry. The new entry should have a key matching the key field
-	 * of the first tuple in the right-hand page (the key is "copied up"), and child pointers 
-	 * pointing to the two leaf pages resulting from the split.  Update sibling pointers and parent 
+	 * of the first tuple in the right-hand page (the key is "copied up"), shortened as far as it
+	 * still separates the two pages (see {@link BTreeInternalPage#shortestSeparator}), and child 
+	 * pointers pointing to the two leaf pages resulting from the split.  Update sibling pointers and parent 
 	 * pointers as needed.  
 	 * 
 	 * Return the leaf page into which a new tuple with key field "field" should be inserted.
@@ -239,8 +390,37 @@ public class BTreeFile implements DbFile {
 		// the new entry.  getParentWithEmtpySlots() will be useful here.  Don't forget to update
 		// the sibling pointers of all the affected leaf pages.  Return the page into which a 
 		// tuple with the given key field should be inserted.
-        return null;
-		
+		BTreeLeafPage newPage = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
+		List<Tuple> moved = new ArrayList<>();
+		Iterator<Tuple> it = page.reverseIterator();
+		int numToMove = page.getNumTuples() / 2;
+		while(it.hasNext() && moved.size() < numToMove) {
+			moved.add(it.next());
+		}
+		for(Tuple t : moved) {
+			page.deleteTuple(t);
+			newPage.insertTuple(t);
+		}
+
+		// the new page goes between the page and its old right sibling
+		BTreePageId oldRightId = page.getRightSiblingId();
+		if(oldRightId != null) {
+			BTreeLeafPage oldRight = (BTreeLeafPage) getPage(tid, dirtypages, oldRightId, Permissions.READ_WRITE);
+			oldRight.setLeftSiblingId(newPage.getId());
+		}
+		newPage.setRightSiblingId(oldRightId);
+		newPage.setLeftSiblingId(page.getId());
+		page.setRightSiblingId(newPage.getId());
+
+		// copy the shortest key that separates the two pages up into the parent
+		Field middle = BTreeInternalPage.shortestSeparator(page.reverseIterator().next().getField(keyField),
+				newPage.iterator().next().getField(keyField));
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), middle);
+		parent.insertEntry(new BTreeEntry(middle, page.getId(), newPage.getId()));
+		page.setParentId(parent.getId());
+		newPage.setParentId(parent.getId());
+
+		return field.compare(Op.GREATER_THAN, middle) ? newPage : page;
 	}
 	
 	/**
@@ -277,7 +457,64 @@ public class BTreeFile implements DbFile {
 		// the parent pointers of all the children moving to the new page.  updateParentPointers()
 		// will be useful here.  Return the page into which an entry with the given key field
 		// should be inserted.
-		return null;
+		BTreeEntry middle = split(tid, dirtypages, page);
+		BTreePageId target = field.compare(Op.GREATER_THAN, middle.getKey()) ? middle.getRightChild() : page.getId();
+		return (BTreeInternalPage) getPage(tid, dirtypages, target, Permissions.READ_WRITE);
+	}
+
+	/**
+	 * Split an internal page as described in {@link #splitInternalPage}.
+	 * @return the entry pushed up to the parent, whose left child is the page and whose right
+	 * child is the new page
+	 */
+	private BTreeEntry split(TransactionId tid, Map<PageId, Page> dirtypages, BTreeInternalPage page)
+			throws DbException, IOException, TransactionAbortedException {
+		BTreeInternalPage newPage = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
+		List<BTreeEntry> moved = new ArrayList<>();
+		Iterator<BTreeEntry> it = page.reverseIterator();
+		int numToMove = page.getNumEntriesToSplit();
+		while(it.hasNext() && moved.size() < numToMove) {
+			moved.add(it.next());
+		}
+		BTreeEntry middle = it.next();
+		for(BTreeEntry e : moved) {
+			page.deleteKeyAndRightChild(e);
+			newPage.insertEntry(e);
+		}
+		updateParentPointers(tid, dirtypages, newPage);
+
+		// push the middle key up into the parent
+		page.deleteKeyAndRightChild(middle);
+		middle.setLeftChild(page.getId());
+		middle.setRightChild(newPage.getId());
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), middle.getKey());
+		parent.insertEntry(middle);
+		page.setParentId(parent.getId());
+		newPage.setParentId(parent.getId());
+		return middle;
+	}
+
+	/**
+	 * Split an internal page whose entries no longer fit in a page, and the pages resulting
+	 * from the split as long as they do not fit either. This can only happen to a compact page
+	 * (see {@link BTreeInternalPage#isCompact}) after a key on it is replaced by a longer
+	 * key, or entries are moved to it from a sibling.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param page - the internal page to check
+	 * @throws DbException
+	 * @throws IOException
+	 * @throws TransactionAbortedException
+	 */
+	private void splitIfOverfull(TransactionId tid, Map<PageId, Page> dirtypages, BTreeInternalPage page)
+			throws DbException, IOException, TransactionAbortedException {
+		if(page.isOverfull()) {
+			BTreeEntry middle = split(tid, dirtypages, page);
+			splitIfOverfull(tid, dirtypages, page);
+			splitIfOverfull(tid, dirtypages,
+					(BTreeInternalPage) getPage(tid, dirtypages, middle.getRightChild(), Permissions.READ_WRITE));
+		}
 	}
 	
 	/**
@@ -290,7 +527,7 @@ public class BTreeFile implements DbFile {
 	 * @param parentId - the id of the parent. May be an internal page or the RootPtr page
 	 * @param field - the key of the entry which will be inserted. Needed in case the parent must be split
 	 * to accommodate the new entry
-	 * @return the parent page, guaranteed to have at least one empty slot
+	 * @return the parent page, guaranteed to have room for an entry with the key field
 	 * @see #splitInternalPage(TransactionId, Map, BTreeInternalPage, Field)
 	 * 
 	 * @throws DbException
@@ -323,8 +560,9 @@ public class BTreeFile implements DbFile {
 					Permissions.READ_WRITE);
 		}
 
-		// split the parent if needed
-		if(parent.getNumEmptySlots() == 0) {
+		// split the parent if needed. A compact page may still not have room for a long key
+		// after it is split once, so keep splitting the half the key goes to
+		while(!parent.hasRoomFor(field)) {
 			parent = splitInternalPage(tid, dirtypages, parent, field);
 		}
 
@@ -348,7 +586,12 @@ public class BTreeFile implements DbFile {
 		BTreePage p = (BTreePage) getPage(tid, dirtypages, child, Permissions.READ_ONLY);
 
 		if(!p.getParentId().equals(pid)) {
-			p = (BTreePage) getPage(tid, dirtypages, child, Permissions.READ_WRITE);
+			// 分裂时要改父指针的子节点可能有几百个，不 pin 它们；
+			// 修改后的页留在 dirtypages 里，即使被淘汰也不会丢失
+			if(!dirtypages.containsKey(child)) {
+				p = (BTreePage) Database.getBufferPool().getPage(tid, child, Permissions.READ_WRITE);
+				dirtypages.put(child, p);
+			}
 			p.setParentId(pid);
 		}
 
@@ -384,7 +627,8 @@ public class BTreeFile implements DbFile {
 	 * Method to encapsulate the process of locking/fetching a page.  First the method checks the local 
 	 * cache ("dirtypages"), and if it can't find the requested page there, it fetches it from the buffer pool.  
 	 * It also adds pages to the dirtypages cache if they are fetched with read-write permission, since 
-	 * presumably they will soon be dirtied by this transaction.
+	 * presumably they will soon be dirtied by this transaction. Those pages are pinned in the buffer
+	 * pool until the insert or delete that fetched them returns; see {@link #unpinPages}.
 	 * 
 	 * This method is needed to ensure that page updates are not lost if the same pages are
 	 * accessed multiple times.
@@ -405,14 +649,32 @@ public class BTreeFile implements DbFile {
 			return dirtypages.get(pid);
 		}
 		else {
-			Page p = Database.getBufferPool().getPage(tid, pid, perm);
+			Page p;
 			if(perm == Permissions.READ_WRITE) {
+				p = Database.getBufferPool().pinPage(tid, pid, perm);
 				dirtypages.put(pid, p);
 			}
+			else {
+				p = Database.getBufferPool().getPage(tid, pid, perm);
+			}
 			return p;
 		}
 	}
 
+	/**
+	 * Drop the pins taken by {@link #getPage(TransactionId, Map, BTreePageId, Permissions)} on the
+	 * pages in the dirtypages cache. Pages that were not fetched through the buffer pool are
+	 * ignored by unpinPage.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the pages fetched with read-write permission by the current operation
+	 */
+	private void unpinPages(TransactionId tid, Map<PageId, Page> dirtypages) {
+		for(PageId pid : dirtypages.keySet()) {
+			Database.getBufferPool().unpinPage(tid, pid);
+		}
+	}
+
 	/**
 	 * Insert a tuple into this BTreeFile, keeping the tuples in sorted order. 
 	 * May cause pages to split if the page where tuple t belongs is full.
@@ -426,28 +688,35 @@ public class BTreeFile implements DbFile {
 	public List<Page> insertTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
 		Map<PageId, Page> dirtypages = new HashMap<>();
+		try {
+			// get a read lock on the root pointer page and use it to locate the root page
+			BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+			boolean held = isLocked(tid, dirtypages, rootPtrId);
+			BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
+
+			if(rootPtr.getRootId() == null) { // the root has just been created, so set the root pointer to point to it		
+				rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId, Permissions.READ_WRITE);
+				rootPtr.setRootId(new BTreePageId(tableid, numPages(), BTreePageId.LEAF));
+			}
+			else if(!held) {
+				// 下降时重新加读锁，这样它可以像内部节点一样被放开
+				releaseLatch(tid, dirtypages, rootPtrId);
+			}
 
-		// get a read lock on the root pointer page and use it to locate the root page
-		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-		BTreePageId rootId = rootPtr.getRootId();
+			// find and lock the left-most leaf page corresponding to the key field,
+			// and split the leaf page if there are no more slots available
+			BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, Permissions.READ_WRITE, t.getField(keyField), false);
+			if(leafPage.getNumEmptySlots() == 0) {
+				leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));	
+			}
 
-		if(rootId == null) { // the root has just been created, so set the root pointer to point to it		
-			rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
-			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
-			rootPtr.setRootId(rootId);
-		}
+			// insert the tuple into the leaf page
+			leafPage.insertTuple(t);
 
-		// find and lock the left-most leaf page corresponding to the key field,
-		// and split the leaf page if there are no more slots available
-		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
-		if(leafPage.getNumEmptySlots() == 0) {
-			leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));	
+			return new ArrayList<>(dirtypages.values());
+		} finally {
+			unpinPages(tid, dirtypages);
 		}
-
-		// insert the tuple into the leaf page
-		leafPage.insertTuple(t);
-
-        return new ArrayList<>(dirtypages.values());
 	}
 	
 	/**
@@ -534,6 +803,7 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				stealFromLeafPage(page, leftSibling, parent, leftEntry, false);				
+				splitIfOverfull(tid, dirtypages, parent);
 			}
 		}
 		else if(rightSiblingId != null) {	
@@ -545,6 +815,7 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				stealFromLeafPage(page, rightSibling, parent, rightEntry, true);				
+				splitIfOverfull(tid, dirtypages, parent);
 			}
 		}
 	}
@@ -552,7 +823,7 @@ public class BTreeFile implements DbFile {
 	/**
 	 * Steal tuples from a sibling and copy them to the given page so that both pages are at least
 	 * half full.  Update the parent's entry so that the key matches the key field of the first
-	 * tuple in the right-hand page.
+	 * tuple in the right-hand page, shortened as in {@link #splitLeafPage}.
 	 * 
 	 * @param page - the leaf page which is less than half full
 	 * @param sibling - the sibling which has tuples to spare
@@ -569,6 +840,23 @@ public class BTreeFile implements DbFile {
         // Move some of the tuples from the sibling to the page so
 		// that the tuples are evenly distributed. Be sure to update
 		// the corresponding parent entry.
+		int numToMove = (sibling.getNumTuples() - page.getNumTuples()) / 2;
+		Iterator<Tuple> it = isRightSibling ? sibling.iterator() : sibling.reverseIterator();
+		List<Tuple> moved = new ArrayList<>();
+		while(it.hasNext() && moved.size() < numToMove) {
+			moved.add(it.next());
+		}
+		for(Tuple t : moved) {
+			sibling.deleteTuple(t);
+			page.insertTuple(t);
+		}
+
+		// the parent key separates the last key of the left-hand page from the first key of the right-hand page
+		BTreeLeafPage leftPage = isRightSibling ? page : sibling;
+		BTreeLeafPage rightPage = isRightSibling ? sibling : page;
+		entry.setKey(BTreeInternalPage.shortestSeparator(leftPage.reverseIterator().next().getField(keyField),
+				rightPage.iterator().next().getField(keyField)));
+		parent.updateEntry(entry);
 	}
 
 	/**
@@ -598,27 +886,31 @@ public class BTreeFile implements DbFile {
 		if(leftEntry != null) leftSiblingId = leftEntry.getLeftChild();
 		if(rightEntry != null) rightSiblingId = rightEntry.getRightChild();
 		
-		int maxEmptySlots = page.getMaxEntries() - page.getMaxEntries()/2; // ceiling
 		if(leftSiblingId != null) {
 			BTreeInternalPage leftSibling = (BTreeInternalPage) getPage(tid, dirtypages, leftSiblingId, Permissions.READ_WRITE);
 			// if the left sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if(leftSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(page.canMergeWith(leftSibling, leftEntry.getKey())) {
 				mergeInternalPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
 			}
 			else {
 				stealFromLeftInternalPage(tid, dirtypages, page, leftSibling, parent, leftEntry);
+				// 字节数不均时 key 轮转可能让父节点或本页装不下
+				splitIfOverfull(tid, dirtypages, parent);
+				splitIfOverfull(tid, dirtypages, page);
 			}
 		}
 		else if(rightSiblingId != null) {
 			BTreeInternalPage rightSibling = (BTreeInternalPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
 			// if the right sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if(rightSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(page.canMergeWith(rightSibling, rightEntry.getKey())) {
 				mergeInternalPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
 			}
 			else {
 				stealFromRightInternalPage(tid, dirtypages, page, rightSibling, parent, rightEntry);
+				splitIfOverfull(tid, dirtypages, parent);
+				splitIfOverfull(tid, dirtypages, page);
 			}
 		}
 	}
@@ -648,6 +940,25 @@ public class BTreeFile implements DbFile {
 		// that the entries are evenly distributed. Be sure to update
 		// the corresponding parent entry. Be sure to update the parent
 		// pointers of all children in the entries that were moved.
+		int numToMove = page.getNumEntriesToSteal(leftSibling, false);
+		List<BTreeEntry> moved = new ArrayList<>();
+		Iterator<BTreeEntry> it = leftSibling.reverseIterator();
+		while(it.hasNext() && moved.size() < numToMove) {
+			moved.add(it.next());
+		}
+
+		// 每次把父节点的 key 拉下来放到 page 的最左边，再把左兄弟的最后一个 key 推上去
+		Field key = parentEntry.getKey();
+		BTreePageId firstChild = page.iterator().next().getLeftChild();
+		for(BTreeEntry e : moved) {
+			leftSibling.deleteKeyAndRightChild(e);
+			page.insertEntry(new BTreeEntry(key, e.getRightChild(), firstChild));
+			key = e.getKey();
+			firstChild = e.getRightChild();
+		}
+		parentEntry.setKey(key);
+		parent.updateEntry(parentEntry);
+		updateParentPointers(tid, dirtypages, page);
 	}
 	
 	/**
@@ -675,6 +986,25 @@ public class BTreeFile implements DbFile {
 		// that the entries are evenly distributed. Be sure to update
 		// the corresponding parent entry. Be sure to update the parent
 		// pointers of all children in the entries that were moved.
+		int numToMove = page.getNumEntriesToSteal(rightSibling, true);
+		List<BTreeEntry> moved = new ArrayList<>();
+		Iterator<BTreeEntry> it = rightSibling.iterator();
+		while(it.hasNext() && moved.size() < numToMove) {
+			moved.add(it.next());
+		}
+
+		// 与从左边借相反：父节点的 key 拉到 page 的最右边，右兄弟的第一个 key 推上去
+		Field key = parentEntry.getKey();
+		BTreePageId lastChild = page.reverseIterator().next().getRightChild();
+		for(BTreeEntry e : moved) {
+			rightSibling.deleteKeyAndLeftChild(e);
+			page.insertEntry(new BTreeEntry(key, lastChild, e.getLeftChild()));
+			key = e.getKey();
+			lastChild = e.getLeftChild();
+		}
+		parentEntry.setKey(key);
+		parent.updateEntry(parentEntry);
+		updateParentPointers(tid, dirtypages, page);
 	}
 	
 	/**
@@ -705,6 +1035,25 @@ public class BTreeFile implements DbFile {
 		// the sibling pointers, and make the right page available for reuse.
 		// Delete the entry in the parent corresponding to the two pages that are merging -
 		// deleteParentEntry() will be useful here
+		List<Tuple> moved = new ArrayList<>();
+		Iterator<Tuple> it = rightPage.iterator();
+		while(it.hasNext()) {
+			moved.add(it.next());
+		}
+		for(Tuple t : moved) {
+			rightPage.deleteTuple(t);
+			leftPage.insertTuple(t);
+		}
+
+		BTreePageId rightSiblingId = rightPage.getRightSiblingId();
+		if(rightSiblingId != null) {
+			BTreeLeafPage rightSibling = (BTreeLeafPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
+			rightSibling.setLeftSiblingId(leftPage.getId());
+		}
+		leftPage.setRightSiblingId(rightSiblingId);
+
+		setEmptyPage(tid, dirtypages, rightPage.getId().getPageNumber());
+		deleteParentEntry(tid, dirtypages, leftPage, parent, parentEntry);
 	}
 
 	/**
@@ -738,6 +1087,24 @@ public class BTreeFile implements DbFile {
 		// and make the right page available for reuse
 		// Delete the entry in the parent corresponding to the two pages that are merging -
 		// deleteParentEntry() will be useful here
+		List<BTreeEntry> moved = new ArrayList<>();
+		Iterator<BTreeEntry> it = rightPage.iterator();
+		while(it.hasNext()) {
+			moved.add(it.next());
+		}
+
+		// pull the parent key down between the last child of the left page
+		// and the first child of the right page
+		BTreePageId lastChild = leftPage.reverseIterator().next().getRightChild();
+		leftPage.insertEntry(new BTreeEntry(parentEntry.getKey(), lastChild, moved.get(0).getLeftChild()));
+		for(BTreeEntry e : moved) {
+			rightPage.deleteKeyAndLeftChild(e);
+			leftPage.insertEntry(e);
+		}
+		updateParentPointers(tid, dirtypages, leftPage);
+
+		setEmptyPage(tid, dirtypages, rightPage.getId().getPageNumber());
+		deleteParentEntry(tid, dirtypages, leftPage, parent, parentEntry);
 	}
 	
 	/**
@@ -766,7 +1133,6 @@ public class BTreeFile implements DbFile {
 		// the parent is below minimum occupancy, get some tuples from its siblings
 		// or merge with one of the siblings
 		parent.deleteKeyAndRightChild(parentEntry);
-		int maxEmptySlots = parent.getMaxEntries() - parent.getMaxEntries()/2; // ceiling
 		if(parent.getNumEmptySlots() == parent.getMaxEntries()) {
 			// This was the last entry in the parent.
 			// In this case, the parent (root node) should be deleted, and the merged 
@@ -782,7 +1148,7 @@ public class BTreeFile implements DbFile {
 			// release the parent page for reuse
 			setEmptyPage(tid, dirtypages, parent.getId().getPageNumber());
 		}
-		else if(parent.getNumEmptySlots() > maxEmptySlots) { 
+		else if(parent.isLessThanHalfFull()) { 
 			handleMinOccupancyPage(tid, dirtypages, parent);
 		}
 	}
@@ -801,20 +1167,23 @@ public class BTreeFile implements DbFile {
 	public List<Page> deleteTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
 		Map<PageId, Page> dirtypages = new HashMap<>();
+		try {
+			BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().getPageNumber(),
+					BTreePageId.LEAF);
+			BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
+			page.deleteTuple(t);
+
+			// if the page is below minimum occupancy, get some tuples from its siblings
+			// or merge with one of the siblings
+			int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
+			if(page.getNumEmptySlots() > maxEmptySlots) { 
+				handleMinOccupancyPage(tid, dirtypages, page);
+			}
 
-		BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().getPageNumber(),
-				BTreePageId.LEAF);
-		BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
-		page.deleteTuple(t);
-
-		// if the page is below minimum occupancy, get some tuples from its siblings
-		// or merge with one of the siblings
-		int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
-		if(page.getNumEmptySlots() > maxEmptySlots) { 
-			handleMinOccupancyPage(tid, dirtypages, page);
+			return new ArrayList<>(dirtypages.values());
+		} finally {
+			unpinPages(tid, dirtypages);
 		}
-
-        return new ArrayList<>(dirtypages.values());
 	}
 
 	/**
@@ -830,15 +1199,12 @@ public class BTreeFile implements DbFile {
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, Map<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
 		synchronized(this) {
-			if(f.length() == 0) {
+			if(channel.size() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				channel.write(emptyRootPtrData, 0);
+				channel.write(emptyLeafData, emptyRootPtrData.length);
 			}
 		}
 
@@ -894,11 +1260,8 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				channel.write(emptyData, channel.size());
 				emptyPageNo = numPages();
 			}
 		}
@@ -929,10 +1292,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		channel.write(BTreePage.createEmptyPageData(), pageOffset(emptyPageNo));
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1038,7 +1398,52 @@ public class BTreeFile implements DbFile {
 	 * @return an iterator for the filtered tuples
 	 */
 	public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
-		return new BTreeSearchIterator(this, tid, ipred);
+		return indexIterator(tid, ipred, false);
+	}
+
+	/**
+	 * Get the tuples matching an IndexPredicate like {@link #indexIterator(TransactionId, IndexPredicate)},
+	 * in ascending or descending order of key.
+	 * 
+	 * @param tid - the transaction id
+	 * @param ipred - the index predicate value to filter on
+	 * @param descending - whether to return the tuples in descending order of key
+	 * @return an iterator for the filtered tuples
+	 */
+	public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred, boolean descending) {
+		return new BTreeSearchIterator(this, tid, ipred, descending);
+	}
+
+	/**
+	 * Get the tuples whose keys lie between two bounds, in ascending or descending order of 
+	 * key. The scan starts at the leaf page holding the first key of the range in the order 
+	 * of the scan, so a descending scan of the keys less than some key starts from that key 
+	 * instead of reading everything below it from the left-most leaf. This method will acquire 
+	 * a read lock on the affected pages of the file, and may block until the lock can be acquired.
+	 * 
+	 * @param tid - the transaction id
+	 * @param low - the lower bound of the keys, or null if there is none
+	 * @param lowInclusive - whether the tuples with key equal to low are in the range
+	 * @param high - the upper bound of the keys, or null if there is none
+	 * @param highInclusive - whether the tuples with key equal to high are in the range
+	 * @param descending - whether to return the tuples in descending order of key, following
+	 * the left sibling pointers of the leaf pages
+	 * @return an iterator for the tuples in the range
+	 */
+	public DbFileIterator rangeIterator(TransactionId tid, Field low, boolean lowInclusive,
+			Field high, boolean highInclusive, boolean descending) {
+		return new BTreeSearchIterator(this, tid, low, lowInclusive, high, highInclusive, descending);
+	}
+
+	/**
+	 * Get an iterator for all tuples in this B+ tree file in descending order of key, 
+	 * starting from the right-most leaf page.
+	 * 
+	 * @param tid - the transaction id
+	 * @return an iterator for all the tuples in this file, from the greatest key down
+	 */
+	public DbFileIterator reverseIterator(TransactionId tid) {
+		return rangeIterator(tid, null, false, null, false, true);
 	}
 
 	/**
@@ -1080,13 +1485,26 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 * Open this iterator by getting an iterator on the first leaf page
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		curp = f.findLeafPage(tid, root, null);
+		curp = moveTo(f.findLeafPage(tid, null).getId());
 		it = curp.iterator();
 	}
 
+	/**
+	 * Unpin the page the iterator was on and pin the given leaf page, so that
+	 * only the page being read is held in the buffer pool
+	 */
+	private BTreeLeafPage moveTo(BTreePageId pid) throws DbException, TransactionAbortedException {
+		unpinCurrent();
+		curp = null;
+		return (BTreeLeafPage) Database.getBufferPool().pinPage(tid, pid, Permissions.READ_ONLY);
+	}
+
+	private void unpinCurrent() {
+		if (curp != null) {
+			Database.getBufferPool().unpinPage(tid, curp.getId());
+		}
+	}
+
 	/**
 	 * Read the next tuple either from the current page if it has more tuples or
 	 * from the next page by following the right sibling pointer.
@@ -1101,11 +1519,11 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		while (it == null && curp != null) {
 			BTreePageId nextp = curp.getRightSiblingId();
 			if(nextp == null) {
+				unpinCurrent();
 				curp = null;
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+				curp = moveTo(nextp);
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1130,6 +1548,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 */
 	public void close() {
 		super.close();
+		unpinCurrent();
 		it = null;
 		curp = null;
 	}
@@ -1137,7 +1556,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 /**
  * Helper class that implements the DbFileIterator for search tuples on a
- * B+ Tree File
+ * B+ Tree File: the tuples whose keys lie in a range, read in ascending order
+ * along the right sibling pointers or in descending order along the left ones
  */
 class BTreeSearchIterator extends AbstractDbFileIterator {
 
@@ -1146,43 +1566,121 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
 	final TransactionId tid;
 	final BTreeFile f;
-	final IndexPredicate ipred;
+	final boolean descending;
+	Field low = null;
+	boolean lowInclusive = false;
+	Field high = null;
+	boolean highInclusive = false;
+	// 不能表示成范围的谓词（如 NOT_EQUALS），扫描全部元组再过滤
+	IndexPredicate filter = null;
 
 	/**
 	 * Constructor for this iterator
 	 * @param f - the BTreeFile containing the tuples
 	 * @param tid - the transaction id
 	 * @param ipred - the predicate to filter on
+	 * @param descending - whether to return the tuples in descending order of key
 	 */
-	public BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred) {
+	public BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred, boolean descending) {
 		this.f = f;
 		this.tid = tid;
-		this.ipred = ipred;
+		this.descending = descending;
+		Field v = ipred.getField();
+		switch(ipred.getOp()) {
+		case EQUALS:
+			low = high = v;
+			lowInclusive = highInclusive = true;
+			break;
+		case GREATER_THAN:
+		case GREATER_THAN_OR_EQ:
+			low = v;
+			lowInclusive = ipred.getOp() == Op.GREATER_THAN_OR_EQ;
+			break;
+		case LESS_THAN:
+		case LESS_THAN_OR_EQ:
+			high = v;
+			highInclusive = ipred.getOp() == Op.LESS_THAN_OR_EQ;
+			break;
+		default:
+			filter = ipred;
+		}
 	}
 
 	/**
-	 * Open this iterator by getting an iterator on the first leaf page applicable
-	 * for the given predicate operation
+	 * Constructor for this iterator
+	 * @param f - the BTreeFile containing the tuples
+	 * @param tid - the transaction id
+	 * @param low - the lower bound of the keys, or null if there is none
+	 * @param lowInclusive - whether keys equal to low are in the range
+	 * @param high - the upper bound of the keys, or null if there is none
+	 * @param highInclusive - whether keys equal to high are in the range
+	 * @param descending - whether to return the tuples in descending order of key
+	 */
+	public BTreeSearchIterator(BTreeFile f, TransactionId tid, Field low, boolean lowInclusive,
+			Field high, boolean highInclusive, boolean descending) {
+		this.f = f;
+		this.tid = tid;
+		this.low = low;
+		this.lowInclusive = lowInclusive;
+		this.high = high;
+		this.highInclusive = highInclusive;
+		this.descending = descending;
+	}
+
+	/**
+	 * Open this iterator by getting an iterator on the leaf page holding the first
+	 * key of the range in the order of the scan
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN 
-				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, ipred.getField());
+		// 在第一页上二分查找起点，跳过范围外的元组
+		if(!descending) {
+			curp = moveTo(f.findLeafPage(tid, low).getId());
+			it = low == null ? curp.iterator() : curp.iterator(low);
 		}
 		else {
-			curp = f.findLeafPage(tid, root, null);
+			curp = moveTo(f.findLastLeafPage(tid, high).getId());
+			it = high == null ? curp.reverseIterator() : curp.reverseIterator(high);
 		}
-		it = curp.iterator();
 	}
 
 	/**
-	 * Read the next tuple either from the current page if it has more tuples matching
-	 * the predicate or from the next page by following the right sibling pointer.
+	 * Unpin the page the iterator was on and pin the given leaf page, so that
+	 * only the page being read is held in the buffer pool
+	 */
+	private BTreeLeafPage moveTo(BTreePageId pid) throws DbException, TransactionAbortedException {
+		unpinCurrent();
+		curp = null;
+		return (BTreeLeafPage) Database.getBufferPool().pinPage(tid, pid, Permissions.READ_ONLY);
+	}
+
+	private void unpinCurrent() {
+		if (curp != null) {
+			Database.getBufferPool().unpinPage(tid, curp.getId());
+		}
+	}
+
+	/**
+	 * @return true if the key is less than the lower bound of the range
+	 */
+	private boolean belowLow(Field key) {
+		return low != null && key.compare(lowInclusive ? Op.LESS_THAN : Op.LESS_THAN_OR_EQ, low);
+	}
+
+	/**
+	 * @return true if the key is greater than the upper bound of the range
+	 */
+	private boolean aboveHigh(Field key) {
+		return high != null && key.compare(highInclusive ? Op.GREATER_THAN : Op.GREATER_THAN_OR_EQ, high);
+	}
+
+	/**
+	 * Read the next tuple either from the current page if it has more tuples in
+	 * the range or from the next page by following the right sibling pointer, or
+	 * the left one for a descending scan. The scan ends at the first tuple past
+	 * the end of the range, so the page holding it stays locked and no tuple can
+	 * be inserted into the range until the transaction completes.
 	 * 
-	 * @return the next tuple matching the predicate, or null if none exists
+	 * @return the next tuple in the range, or null if none exists
 	 */
 	@Override
 	protected Tuple readNext() throws TransactionAbortedException, DbException,
@@ -1191,31 +1689,29 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
 			while (it.hasNext()) {
 				Tuple t = it.next();
-				if (t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField())) {
-					return t;
-				}
-				else if(ipred.getOp() == Op.LESS_THAN || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
-					// if the predicate was not satisfied and the operation is less than, we have
-					// hit the end
+				Field key = t.getField(f.keyField());
+				if(descending ? belowLow(key) : aboveHigh(key)) {
+					// we have hit the end of the range
+					it = null;
 					return null;
 				}
-				else if(ipred.getOp() == Op.EQUALS && 
-						t.getField(f.keyField()).compare(Op.GREATER_THAN, ipred.getField())) {
-					// if the tuple is now greater than the field passed in and the operation
-					// is equals, we have reached the end
-					return null;
+				// skip the keys before the start of the range, such as those equal to an exclusive bound
+				if(descending ? aboveHigh(key) : belowLow(key)) {
+					continue;
+				}
+				if(filter == null || key.compare(filter.getOp(), filter.getField())) {
+					return t;
 				}
 			}
 
-			BTreePageId nextp = curp.getRightSiblingId();
-			// if there are no more pages to the right, end the iteration
+			BTreePageId nextp = descending ? curp.getLeftSiblingId() : curp.getRightSiblingId();
+			// if there are no more pages in the direction of the scan, end the iteration
 			if(nextp == null) {
 				return null;
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
-				it = curp.iterator();
+				curp = moveTo(nextp);
+				it = descending ? curp.reverseIterator() : curp.iterator();
 			}
 		}
 
@@ -1235,6 +1731,8 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 */
 	public void close() {
 		super.close();
+		unpinCurrent();
 		it = null;
+		curp = null;
 	}
 }
@@ -0,0 +1,122 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * BTreeIndexFile is a secondary index on one field of a HeapFile, stored as
+ * a B+ tree whose tuples are (key, page, slot) entries pointing into the
+ * table. Unlike a BTreeFile that holds the table itself, any number of
+ * them can be built on the same table, one per indexed field, and they
+ * answer range predicates as well as equality predicates.
+ * <p>
+ * The entries are sorted on the key only, so the entries of a duplicate
+ * key are in no particular order and a delete searches them for the one
+ * with the RecordId of the deleted tuple.
+ *
+ * @see BTreeFile
+ * @see simpledb.execution.IndexScan
+ */
+public class BTreeIndexFile extends BTreeFile implements SecondaryIndex {
+
+	private final int baseTableId;
+	private final int keyField;
+
+	/**
+	 * Constructs a B+ tree index backed by the specified file.
+	 *
+	 * @param f the file that stores the on-disk backing store for this index
+	 * @param baseTableId the id of the HeapFile the index points into
+	 * @param keyField the index of the indexed field in the base table
+	 * @param keyType the type of the indexed field
+	 */
+	public BTreeIndexFile(File f, int baseTableId, int keyField, Type keyType) {
+		super(f, 0, SecondaryIndex.getEntryDesc(keyType));
+		this.baseTableId = baseTableId;
+		this.keyField = keyField;
+	}
+
+	public int getBaseTableId() {
+		return baseTableId;
+	}
+
+	public int getKeyField() {
+		return keyField;
+	}
+
+	public boolean supports(Predicate.Op op) {
+		return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+	}
+
+	private Tuple entry(Tuple t) {
+		RecordId rid = t.getRecordId();
+		Tuple entry = new Tuple(getTupleDesc());
+		entry.setField(0, t.getField(keyField));
+		entry.setField(1, new IntField(rid.getPageId().getPageNumber()));
+		entry.setField(2, new IntField(rid.getTupleNumber()));
+		return entry;
+	}
+
+	/**
+	 * Build this empty index from its table with a BTreeBulkLoader, which
+	 * sorts the entries and writes the pages directly instead of inserting
+	 * the entries one at a time. The index must not be used until it returns.
+	 *
+	 * @param tid the transaction that scans the table
+	 * @param fillFactor the fraction of each page to fill, between 0.5 and 1
+	 * @return the number of entries added
+	 */
+	public long build(TransactionId tid, double fillFactor)
+			throws DbException, IOException, TransactionAbortedException {
+		BTreeBulkLoader loader = new BTreeBulkLoader(this, fillFactor, BTreeBulkLoader.DEFAULT_RUN_SIZE);
+		DbFileIterator it = Database.getCatalog().getDatabaseFile(baseTableId).iterator(tid);
+		it.open();
+		try {
+			while (it.hasNext()) {
+				loader.add(entry(it.next()));
+			}
+		} finally {
+			it.close();
+		}
+		return loader.finish();
+	}
+
+	public List<Page> insertEntry(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		return insertTuple(tid, entry(t));
+	}
+
+	public List<Page> deleteEntry(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		RecordId rid = t.getRecordId();
+		// 在相同 key 的索引项中找到指向这个元组的那一项
+		DbFileIterator it = indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, t.getField(keyField)));
+		Tuple found = null;
+		try {
+			it.open();
+			while (found == null && it.hasNext()) {
+				Tuple e = it.next();
+				if (((IntField) e.getField(1)).getValue() == rid.getPageId().getPageNumber()
+						&& ((IntField) e.getField(2)).getValue() == rid.getTupleNumber()) {
+					found = e;
+				}
+			}
+		} finally {
+			it.close();
+		}
+		if (found == null) {
+			throw new DbException("no index entry for " + t.getField(keyField));
+		}
+		return deleteTuple(tid, found);
+	}
+}
@@ -13,6 +13,7 @@ import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.RecordId;
+import simpledb.storage.StringField;
 
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and 
@@ -23,10 +24,18 @@ import simpledb.storage.RecordId;
  *
  */
 public class BTreeInternalPage extends BTreePage {
+	/**
+	 * Bytes at the start of a compact page: the parent pointer, the child page category,
+	 * the number of children and the length of the prefix shared by the keys
+	 */
+	static final int COMPACT_HEADER_SIZE = INDEX_SIZE + 1 + 2 + 1;
+
 	private final byte[] header;
 	private final Field[] keys;
 	private final int[] children;
 	private final int numSlots;
+	// 已用槽位的缓存，头部被修改时作废
+	private volatile int[] usedSlots;
 	
 	private int childCategory; // either leaf or internal
 
@@ -43,7 +52,94 @@ public class BTreeInternalPage extends BTreePage {
 
         assert null == upperBound || null == prev || (prev.compare(Op.LESS_THAN_OR_EQ, upperBound));
 
-        assert !checkOccupancy || depth <= 0 || (getNumEntries() >= getMaxEntries() / 2);
+        assert !isOverfull();
+        // compact 页按字节分裂和借用，只保证非根节点至少有一个 key
+        assert !checkOccupancy || depth <= 0 || (isCompact() ? getNumEntries() > 0 : getNumEntries() >= getMaxEntries() / 2);
+	}
+
+	/**
+	 * Internal pages of an index on a variable-length key type are compact: instead of
+	 * fixed-size slots they store the prefix shared by all of their keys once, then only
+	 * the rest of each key. Together with the short separators that leaf splits copy up
+	 * (see {@link #shortestSeparator}), many more entries fit on a page than keys of the
+	 * full declared length would allow. Pages of other key types keep the slotted format.
+	 * @param keyType - the type of the key field of the index
+	 * @return true if internal pages of an index on this key type are compact
+	 */
+	public static boolean isCompact(Type keyType) {
+		return keyType == Type.STRING_TYPE;
+	}
+
+	private boolean isCompact() {
+		return isCompact(td.getFieldType(keyField));
+	}
+
+	/**
+	 * Returns the shortest key that separates two adjacent keys, to be copied up into an
+	 * internal page when a leaf page is split: it is greater than left and less than or
+	 * equal to right, so every key of the left page stays less than it and every key of
+	 * the right page greater than or equal to it. For strings this is the shortest prefix
+	 * of right that is greater than left; other keys are not shortened.
+	 * @param left - the last key on the left of the separator
+	 * @param right - the first key on the right of the separator
+	 * @return the separator
+	 */
+	public static Field shortestSeparator(Field left, Field right) {
+		if(!(left instanceof StringField) || !(right instanceof StringField)) {
+			return right;
+		}
+		String r = ((StringField) right).getValue();
+		int len = commonPrefix(left, right) + 1;
+		if(len >= r.length()) {
+			return right;
+		}
+		return new StringField(r.substring(0, len), Type.STRING_LEN);
+	}
+
+	/**
+	 * Returns the length of the longest common prefix of two string keys
+	 */
+	static int commonPrefix(Field a, Field b) {
+		String x = ((StringField) a).getValue();
+		String y = ((StringField) b).getValue();
+		int n = Math.min(x.length(), y.length());
+		int i = 0;
+		while(i < n && x.charAt(i) == y.charAt(i)) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Returns the number of bytes a compact page takes to store the given keys, with
+	 * one child pointer more than there are keys. The keys need not be sorted.
+	 * @param keys - the keys of the page
+	 * @return the size of the page in bytes
+	 */
+	static int compactSize(List<Field> keys) {
+		Field first = null;
+		Field last = null;
+		int keyBytes = 0;
+		for(Field k : keys) {
+			if(first == null || k.compare(Op.LESS_THAN, first)) {
+				first = k;
+			}
+			if(last == null || k.compare(Op.GREATER_THAN, last)) {
+				last = k;
+			}
+			keyBytes += ((StringField) k).getValue().length();
+		}
+		int n = keys.size();
+		return compactSize(n, keyBytes, n > 1 ? commonPrefix(first, last) : 0);
+	}
+
+	/**
+	 * Returns the number of bytes a compact page takes to store numKeys keys of keyBytes
+	 * bytes in total that share a prefix of the given length
+	 */
+	static int compactSize(int numKeys, int keyBytes, int prefix) {
+		// 每个 key 一个长度字节加上去掉公共前缀后的部分，公共前缀只存一次
+		return COMPACT_HEADER_SIZE + INDEX_SIZE * (numKeys + 1) + numKeys + keyBytes - (numKeys - 1) * prefix;
 	}
 	
 	/**
@@ -62,6 +158,8 @@ public class BTreeInternalPage extends BTreePage {
 	 * <p>
 	 *      ceiling((no. entry slots + 1) / 8)
 	 * <p>
+	 * Pages of an index on string keys use the compact format instead, see
+	 * {@link #isCompact(Type)} and {@link #readCompactEntries}.
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
@@ -86,14 +184,22 @@ public class BTreeInternalPage extends BTreePage {
 		// read the child page category
 		childCategory = dis.readByte();
 
-		// allocate and read the header slots of this page
 		header = new byte[getHeaderSize()];
+		keys = new Field[numSlots];
+		children = new int[numSlots];
+		if(isCompact()) {
+			readCompactEntries(dis);
+			dis.close();
+			setBeforeImage();
+			return;
+		}
+
+		// read the header slots of this page
 		for (int i=0; i<header.length; i++)
 			header[i] = dis.readByte();
 
-		keys = new Field[numSlots];
 		try{
-			// allocate and read the keys of this page
+			// read the keys of this page
 			// start from 1 because the first key slot is not used
 			// since a node with m keys has m+1 pointers
 			keys[0] = null;
@@ -103,9 +209,8 @@ public class BTreeInternalPage extends BTreePage {
 			e.printStackTrace();
 		}
 
-		children = new int[numSlots];
 		try{
-			// allocate and read the child pointers of this page
+			// read the child pointers of this page
 			for (int i=0; i<children.length; i++)
 				children[i] = readNextChild(dis,i);
 		}catch(NoSuchElementException e){
@@ -116,10 +221,60 @@ public class BTreeInternalPage extends BTreePage {
 		setBeforeImage();
 	}
 
+	/**
+	 * Read the entries of a compact page, which are stored as the number of children, the
+	 * prefix shared by all keys (its length, then its bytes), the child pointers, and the
+	 * rest of each key after the prefix (its length, then its bytes). The entries are put
+	 * in the first slots of the page.
+	 */
+	private void readCompactEntries(DataInputStream dis) throws IOException {
+		int numChildren = dis.readShort();
+		byte[] prefix = new byte[dis.readUnsignedByte()];
+		dis.readFully(prefix);
+		for (int i=0; i<numChildren; i++) {
+			children[i] = dis.readInt();
+			markSlotUsed(i, true);
+		}
+		for (int i=1; i<numChildren; i++) {
+			int len = dis.readUnsignedByte();
+			byte[] key = Arrays.copyOf(prefix, prefix.length + len);
+			dis.readFully(key, prefix.length, len);
+			keys[i] = new StringField(new String(key), Type.STRING_LEN);
+		}
+	}
+
+	/**
+	 * Write the entries of a compact page in the format read by {@link #readCompactEntries}.
+	 * @param dos - the stream to write to
+	 * @param keys - the keys of the page in sorted order
+	 * @param children - the child page numbers of the page, one more than there are keys
+	 */
+	static void writeCompactEntries(DataOutputStream dos, List<Field> keys, List<Integer> children) throws IOException {
+		int prefix = keys.size() > 1 ? commonPrefix(keys.get(0), keys.get(keys.size() - 1)) : 0;
+		dos.writeShort(children.size());
+		dos.writeByte(prefix);
+		if(prefix > 0) {
+			dos.writeBytes(((StringField) keys.get(0)).getValue().substring(0, prefix));
+		}
+		for (int child : children) {
+			dos.writeInt(child);
+		}
+		for (Field k : keys) {
+			String s = ((StringField) k).getValue();
+			dos.writeByte(s.length() - prefix);
+			dos.writeBytes(s.substring(prefix));
+		}
+	}
+
 	/** 
 	 * Retrieve the maximum number of entries this page can hold. (The number of keys)
+	 * A compact page has room for this many entries only if their keys are short.
  	 */
 	public int getMaxEntries() {        
+		if(isCompact()) {
+			// 最短的项只有孩子指针和长度字节
+			return (BufferPool.getPageSize() - COMPACT_HEADER_SIZE - INDEX_SIZE) / (INDEX_SIZE + 1);
+		}
 		int keySize = td.getFieldType(keyField).getLen();
 		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
 		// extraBits are: one parent pointer, 1 byte for child page category, 
@@ -144,12 +299,7 @@ public class BTreeInternalPage extends BTreePage {
         -- used by recovery */
 	public BTreeInternalPage getBeforeImage(){
 		try {
-			byte[] oldDataRef = null;
-			synchronized(oldDataLock)
-			{
-				oldDataRef = oldData;
-			}
-			return new BTreeInternalPage(pid,oldDataRef,keyField);
+			return new BTreeInternalPage(pid,getBeforeImageData(),keyField);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -158,13 +308,6 @@ public class BTreeInternalPage extends BTreePage {
 		return null;
 	}
 
-	public void setBeforeImage() {
-		synchronized(oldDataLock)
-		{
-			oldData = getPageData().clone();
-		}
-	}
-
 	/**
 	 * Read keys from the source file.
 	 */
@@ -256,6 +399,51 @@ public class BTreeInternalPage extends BTreePage {
 			e.printStackTrace();
 		}
 
+		if(isCompact()) {
+			if(getCompactSize() > len) {
+				throw new IllegalStateException("internal page " + pid + " is larger than a page");
+			}
+			List<Field> pageKeys = new ArrayList<>();
+			List<Integer> pageChildren = new ArrayList<>();
+			for (int i=0; i<numSlots; i++) {
+				if(isSlotUsed(i)) {
+					if(i > 0)
+						pageKeys.add(keys[i]);
+					pageChildren.add(children[i]);
+				}
+			}
+			try {
+				writeCompactEntries(dos, pageKeys, pageChildren);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		else {
+			writeSlots(dos);
+		}
+
+		// padding
+		int zerolen = len - dos.size();
+		byte[] zeroes = new byte[zerolen];
+		try {
+			dos.write(zeroes, 0, zerolen);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		try {
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Write the header, key slots and child pointer slots of a page that is not compact
+	 */
+	private void writeSlots(DataOutputStream dos) {
 		// create the header of the page
         for (byte b : header) {
             try {
@@ -317,24 +505,6 @@ public class BTreeInternalPage extends BTreePage {
 				e.printStackTrace();
 			}
 		}
-
-		// padding
-		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
-				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
-		byte[] zeroes = new byte[zerolen];
-		try {
-			dos.write(zeroes, 0, zerolen);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			dos.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		return baos.toByteArray();
 	}
 
 	/**
@@ -356,6 +526,7 @@ public class BTreeInternalPage extends BTreePage {
 			throw new DbException("tried to delete entry on invalid page or table");
 		if (!isSlotUsed(rid.getTupleNumber()))
 			throw new DbException("tried to delete null entry.");
+		beforeModify();
 		if(deleteRightChild) {
 			markSlotUsed(rid.getTupleNumber(), false);
 		}
@@ -413,6 +584,7 @@ public class BTreeInternalPage extends BTreePage {
 			throw new DbException("tried to update entry on invalid page or table");
 		if (!isSlotUsed(rid.getTupleNumber()))
 			throw new DbException("tried to update null entry.");
+		beforeModify();
 		
 		for(int i = rid.getTupleNumber() + 1; i < numSlots; i++) {
 			if(isSlotUsed(i)) {
@@ -451,6 +623,7 @@ public class BTreeInternalPage extends BTreePage {
 		if(e.getLeftChild().getTableId() != pid.getTableId() || e.getRightChild().getTableId() != pid.getTableId())
 			throw new DbException("table id mismatch in insertEntry");
 
+		beforeModify();
 		if(childCategory == 0) {
 			if(e.getLeftChild().pgcateg() != e.getRightChild().pgcateg())
 				throw new DbException("child page category mismatch in insertEntry");
@@ -483,37 +656,25 @@ public class BTreeInternalPage extends BTreePage {
 		if (emptySlot == -1)
 			throw new DbException("called insertEntry on page with no empty slots.");        
 
-		// find the child pointer matching the left or right child in this entry
+		// find the child pointer matching the left or right child in this entry; it
+		// must lie between the last key less than the new key and the first key greater
+		// than it, so only the slots in that range are checked
+		int[] used = getUsedSlots();
+		int from = search(used, e.getKey(), Op.GREATER_THAN_OR_EQ) - 1;
+		int to = search(used, e.getKey(), Op.GREATER_THAN) - 1;
 		int lessOrEqKey = -1;
-		for (int i=0; i<numSlots; i++) {
-			if(isSlotUsed(i)) {
-				if(children[i] == e.getLeftChild().getPageNumber() || children[i] == e.getRightChild().getPageNumber()) {
-					if(i > 0 && keys[i].compare(Op.GREATER_THAN, e.getKey())) {
-						throw new DbException("attempt to insert invalid entry with left child " + 
-								e.getLeftChild().getPageNumber() + ", right child " +
-								e.getRightChild().getPageNumber() + " and key " + e.getKey() +
-								" HINT: one of these children must match an existing child on the page" +
-								" and this key must be correctly ordered in between that child's" +
-								" left and right keys");
-					}
-					lessOrEqKey = i;
-					if(children[i] == e.getRightChild().getPageNumber()) {
-						children[i] = e.getLeftChild().getPageNumber();
-					}
-				}
-				else if(lessOrEqKey != -1) {
-					// validate that the next key is greater than or equal to the one we are inserting
-					if(keys[i].compare(Op.LESS_THAN, e.getKey())) {
-						throw new DbException("attempt to insert invalid entry with left child " + 
-								e.getLeftChild().getPageNumber() + ", right child " +
-								e.getRightChild().getPageNumber() + " and key " + e.getKey() +
-								" HINT: one of these children must match an existing child on the page" +
-								" and this key must be correctly ordered in between that child's" +
-								" left and right keys");
-					}
-					break;
+		for (int j=from; j<=to; j++) {
+			int i = used[j];
+			if(children[i] == e.getLeftChild().getPageNumber() || children[i] == e.getRightChild().getPageNumber()) {
+				lessOrEqKey = i;
+				if(children[i] == e.getRightChild().getPageNumber()) {
+					children[i] = e.getLeftChild().getPageNumber();
 				}
 			}
+			else if(lessOrEqKey != -1) {
+				// 与逐个扫描时一样，连续匹配的槽中取最后一个
+				break;
+			}
 		}
 
 		if(lessOrEqKey == -1) {
@@ -582,6 +743,148 @@ public class BTreeInternalPage extends BTreePage {
 		return cnt;
 	}
 
+	/**
+	 * Returns the keys on this page in sorted order
+	 */
+	private List<Field> getKeys() {
+		List<Field> res = new ArrayList<>();
+		for (int i=1; i<numSlots; i++)
+			if(isSlotUsed(i))
+				res.add(keys[i]);
+		return res;
+	}
+
+	/**
+	 * Returns the number of bytes this compact page takes
+	 */
+	private int getCompactSize() {
+		return compactSize(getKeys());
+	}
+
+	/**
+	 * Returns true if an entry with the given key can be inserted into this page. A compact
+	 * page also needs the bytes of the key, and of the keys whose prefix gets shorter.
+	 * @param key - the key of the entry to insert
+	 */
+	public boolean hasRoomFor(Field key) {
+		if(getNumEmptySlots() == 0) {
+			return false;
+		}
+		if(!isCompact()) {
+			return true;
+		}
+		List<Field> pageKeys = getKeys();
+		pageKeys.add(key);
+		return compactSize(pageKeys) <= BufferPool.getPageSize();
+	}
+
+	/**
+	 * Returns true if the entries on this page no longer fit in a page, which may happen for
+	 * a short while on a compact page when a key is replaced by a longer one, or entries
+	 * are moved to it from a sibling. The page then has to be split before it is written.
+	 */
+	public boolean isOverfull() {
+		return isCompact() && getCompactSize() > BufferPool.getPageSize();
+	}
+
+	/**
+	 * Returns true if this page is below minimum occupancy: it holds less than half of the
+	 * entries it can hold or, for a compact page, takes less than half of the page.
+	 */
+	public boolean isLessThanHalfFull() {
+		if(isCompact()) {
+			return getCompactSize() < BufferPool.getPageSize() / 2;
+		}
+		int maxEmptySlots = getMaxEntries() - getMaxEntries()/2; // ceiling
+		return getNumEmptySlots() > maxEmptySlots;
+	}
+
+	/**
+	 * Returns true if the entries of this page, those of its sibling and the key between
+	 * them in the parent fit on one page, so that the two pages can be merged. Pages with
+	 * fixed-size keys can be merged when the sibling is at minimum occupancy.
+	 * @param sibling - the left or right sibling of this page
+	 * @param key - the key of the parent entry pointing to the two pages
+	 */
+	public boolean canMergeWith(BTreeInternalPage sibling, Field key) {
+		if(!isCompact()) {
+			int maxEmptySlots = sibling.getMaxEntries() - sibling.getMaxEntries()/2; // ceiling
+			return sibling.getNumEmptySlots() >= maxEmptySlots;
+		}
+		List<Field> merged = getKeys();
+		merged.addAll(sibling.getKeys());
+		merged.add(key);
+		return compactSize(merged) <= BufferPool.getPageSize();
+	}
+
+	/**
+	 * Returns the number of entries to move from the end of this page to a new page when it
+	 * is split, so that both pages hold about the same number of entries or, for a compact
+	 * page, the same number of bytes. The entry before them is pushed up to the parent.
+	 */
+	public int getNumEntriesToSplit() {
+		if(!isCompact()) {
+			return getNumEntries() / 2;
+		}
+		List<Field> pageKeys = getKeys();
+		int n = pageKeys.size();
+		if(n < 3) {
+			return n / 2;
+		}
+		int[] sizes = entrySizes(pageKeys);
+		int total = 0;
+		for (int size : sizes)
+			total += size;
+		int moved = 0;
+		int numToMove = 0;
+		// 至少给左边留下一个 key，再加上推到父节点的那个
+		for (int i=n-1; i>1 && moved * 2 < total; i--) {
+			moved += sizes[i];
+			numToMove++;
+		}
+		return numToMove;
+	}
+
+	/**
+	 * Returns the number of entries to move from a sibling to this page, which is below
+	 * minimum occupancy, so that both pages hold about the same number of entries or, for a
+	 * compact page, the same number of bytes. At least one entry is moved from a compact page.
+	 * @param sibling - the sibling to take the entries from
+	 * @param isRightSibling - whether the entries are taken from the start of a right sibling,
+	 *        or the end of a left sibling
+	 */
+	public int getNumEntriesToSteal(BTreeInternalPage sibling, boolean isRightSibling) {
+		if(!isCompact()) {
+			return (sibling.getNumEntries() - getNumEntries()) / 2;
+		}
+		List<Field> siblingKeys = sibling.getKeys();
+		if(!isRightSibling) {
+			Collections.reverse(siblingKeys);
+		}
+		int[] sizes = entrySizes(siblingKeys);
+		int size = getCompactSize();
+		int siblingSize = sibling.getCompactSize();
+		int numToMove = 0;
+		while(numToMove < siblingKeys.size() - 1 && (numToMove == 0 || size < siblingSize)) {
+			size += sizes[numToMove];
+			siblingSize -= sizes[numToMove];
+			numToMove++;
+		}
+		return numToMove;
+	}
+
+	/**
+	 * Returns the bytes each of the given keys takes with its child pointer on a compact page
+	 * that holds all of them
+	 */
+	private static int[] entrySizes(List<Field> pageKeys) {
+		int prefix = commonPrefix(pageKeys.get(0), pageKeys.get(pageKeys.size() - 1));
+		int[] sizes = new int[pageKeys.size()];
+		for (int i=0; i<sizes.length; i++)
+			sizes[i] = INDEX_SIZE + 1 + ((StringField) pageKeys.get(i)).getValue().length() - prefix;
+		return sizes;
+	}
+
 	/**
 	 * Returns true if associated slot on this page is filled.
 	 */
@@ -595,6 +898,7 @@ public class BTreeInternalPage extends BTreePage {
 	 * Abstraction to fill or clear a slot on this page.
 	 */
 	private void markSlotUsed(int i, boolean value) {
+		usedSlots = null;
 		int headerbit = i % 8;
 		int headerbyte = (i - headerbit) / 8;
 
@@ -605,6 +909,84 @@ public class BTreeInternalPage extends BTreePage {
 			header[headerbyte] &= (0xFF ^ (1 << headerbit));
 	}
 
+	/**
+	 * Find the child to descend into when searching for the left-most leaf that may
+	 * hold the key f: the left child of the first entry whose key is greater than or
+	 * equal to f, or the right child of the last entry if there is none. The keys of
+	 * the used slots are sorted, so the entry is found by binary search.
+	 * @param f - the key to search for, or null for the left-most child
+	 * @return the id of the child, or null if this page has no entries
+	 */
+	public BTreePageId findChild(Field f) {
+		return findChild(f, Op.GREATER_THAN_OR_EQ, false);
+	}
+
+	/**
+	 * Find the child to descend into when searching for the right-most leaf that may
+	 * hold the key f: the right child of the last entry whose key is less than or equal
+	 * to f, or the left child of the first entry if there is none.
+	 * @param f - the key to search for, or null for the right-most child
+	 * @return the id of the child, or null if this page has no entries
+	 */
+	public BTreePageId findLastChild(Field f) {
+		return findChild(f, Op.GREATER_THAN, true);
+	}
+
+	/**
+	 * Returns the left child of the first entry whose key satisfies "key op f", or the
+	 * right child of the last entry if there is none
+	 * @param last - whether to return the right-most child rather than the left-most if f is null
+	 */
+	private BTreePageId findChild(Field f, Op op, boolean last) {
+		int[] used = getUsedSlots();
+		int n = used.length;
+		if(n < 2) {
+			return null;
+		}
+		int lo = f == null ? (last ? n : 1) : search(used, f, op);
+		int child = lo == n ? used[n - 1] : used[lo - 1];
+		return new BTreePageId(pid.getTableId(), children[child], childCategory);
+	}
+
+	/**
+	 * @return the used slots of this page in ascending order; used[0] holds only the
+	 * left-most child pointer. The array is cached until the header changes and must
+	 * not be modified by the caller.
+	 */
+	private int[] getUsedSlots() {
+		int[] used = usedSlots;
+		if(used == null) {
+			used = new int[numSlots];
+			int n = 0;
+			for (int i=0; i<numSlots; i++) {
+				if(isSlotUsed(i))
+					used[n++] = i;
+			}
+			used = Arrays.copyOf(used, n);
+			usedSlots = used;
+		}
+		return used;
+	}
+
+	/**
+	 * Binary search the keys in the given slots, skipping used[0] which has no key,
+	 * for the first one that satisfies "key op f", where op is GREATER_THAN_OR_EQ or
+	 * GREATER_THAN.
+	 * @param used - the used slots, as returned by getUsedSlots
+	 * @return the position in used of that key, or used.length if there is none
+	 */
+	private int search(int[] used, Field f, Op op) {
+		int lo = 1, hi = used.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(keys[used[mid]].compare(op, f))
+				hi = mid;
+			else
+				lo = mid + 1;
+		}
+		return lo;
+	}
+
 	/**
 	 * @return an iterator over all entries on this page (calling remove on this iterator throws an UnsupportedOperationException)
 	 * (note that this iterator shouldn't return entries in empty slots!)
@@ -765,7 +1147,10 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
 			while (true) {
 				int entry = curEntry--;
 				Field key = p.getKey(entry);
-				BTreePageId childId = p.getChildId(entry - 1);
+				// 左孩子在前一个被使用的槽里，删除后中间可能有空槽
+				BTreePageId childId = null;
+				for (int i=entry-1; key != null && childId == null && i >= 0; i--)
+					childId = p.getChildId(i);
 				if(key != null && childId != null) {
 					nextToReturn = new BTreeEntry(key, childId, nextChildId);
 					nextToReturn.setRecordId(new RecordId(p.pid, entry));
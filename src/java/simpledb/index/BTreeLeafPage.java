@@ -23,6 +23,8 @@ public class BTreeLeafPage extends BTreePage {
 	private final byte[] header;
 	private final Tuple[] tuples;
 	private final int numSlots;
+	// 已用槽位的缓存，头部被修改时作废
+	private volatile int[] usedSlots;
 	
 	private int leftSibling; // leaf node or 0
 	private int rightSibling; // leaf node or 0
@@ -135,12 +137,7 @@ public class BTreeLeafPage extends BTreePage {
         -- used by recovery */
 	public BTreeLeafPage getBeforeImage(){
 		try {
-			byte[] oldDataRef = null;
-			synchronized(oldDataLock)
-			{
-				oldDataRef = oldData;
-			}
-			return new BTreeLeafPage(pid,oldDataRef,keyField);
+			return new BTreeLeafPage(pid,getBeforeImageData(),keyField);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -149,13 +146,6 @@ public class BTreeLeafPage extends BTreePage {
 		return null;
 	}
 
-	public void setBeforeImage() {
-		synchronized(oldDataLock)
-		{
-			oldData = getPageData().clone();
-		}
-	}
-
 	/**
 	 * Read tuples from the source file.
 	 */
@@ -297,6 +287,7 @@ public class BTreeLeafPage extends BTreePage {
 			throw new DbException("tried to delete tuple on invalid page or table");
 		if (!isSlotUsed(rid.getTupleNumber()))
 			throw new DbException("tried to delete null tuple.");
+		beforeModify();
 		markSlotUsed(rid.getTupleNumber(), false);
 		t.setRecordId(null);
 	}
@@ -326,16 +317,11 @@ public class BTreeLeafPage extends BTreePage {
 			throw new DbException("called addTuple on page with no empty slots.");
 
 		// find the last key less than or equal to the key being inserted
-		int lessOrEqKey = -1;
-		Field key = t.getField(keyField);
-		for (int i=0; i<numSlots; i++) {
-			if(isSlotUsed(i)) {
-				if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
-					lessOrEqKey = i;
-				else
-					break;	
-			}
-		}
+		int[] used = getUsedSlots();
+		int greater = search(used, t.getField(keyField), Predicate.Op.GREATER_THAN);
+		int lessOrEqKey = greater == 0 ? -1 : used[greater - 1];
+
+		beforeModify();
 
 		// shift records back or forward to fill empty slot and make room for new record
 		// while keeping records in sorted order
@@ -361,6 +347,44 @@ public class BTreeLeafPage extends BTreePage {
 		tuples[goodSlot] = t;
 	}
 
+	/**
+	 * @return the used slots of this page in ascending order, which hold the tuples
+	 * in sorted order. The array is cached until the header changes and must not be
+	 * modified by the caller.
+	 */
+	private int[] getUsedSlots() {
+		int[] used = usedSlots;
+		if(used == null) {
+			used = new int[numSlots];
+			int n = 0;
+			for (int i=0; i<numSlots; i++) {
+				if(isSlotUsed(i))
+					used[n++] = i;
+			}
+			used = Arrays.copyOf(used, n);
+			usedSlots = used;
+		}
+		return used;
+	}
+
+	/**
+	 * Binary search the tuples in the given slots for the first one whose key
+	 * satisfies "key op f", where op is GREATER_THAN_OR_EQ or GREATER_THAN.
+	 * @param used - the used slots, as returned by getUsedSlots
+	 * @return the position in used of that tuple, or used.length if there is none
+	 */
+	private int search(int[] used, Field f, Predicate.Op op) {
+		int lo = 0, hi = used.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(tuples[used[mid]].getField(keyField).compare(op, f))
+				hi = mid;
+			else
+				lo = mid + 1;
+		}
+		return lo;
+	}
+
 	/**
 	 * Move a record from one slot to another slot, and update the corresponding
 	 * headers and RecordId
@@ -403,6 +427,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * @throws DbException if the id is not valid
 	 */
 	public void setLeftSiblingId(BTreePageId id) throws DbException {
+		beforeModify();
 		if(id == null) {
 			leftSibling = 0;
 		}
@@ -423,6 +448,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * @throws DbException if the id is not valid
 	 */
 	public void setRightSiblingId(BTreePageId id) throws DbException {
+		beforeModify();
 		if(id == null) {
 			rightSibling = 0;
 		}
@@ -468,6 +494,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * Abstraction to fill or clear a slot on this page.
 	 */
 	private void markSlotUsed(int i, boolean value) {
+		usedSlots = null;
 		int headerbit = i % 8;
 		int headerbyte = (i - headerbit) / 8;
 
@@ -486,6 +513,17 @@ public class BTreeLeafPage extends BTreePage {
 		return new BTreeLeafPageIterator(this);
 	}
 
+	/**
+	 * @return an iterator over the tuples on this page whose key is greater than or equal
+	 * to f, found by binary search (calling remove on this iterator throws an
+	 * UnsupportedOperationException)
+	 */
+	public Iterator<Tuple> iterator(Field f) {
+		int[] used = getUsedSlots();
+		int first = search(used, f, Predicate.Op.GREATER_THAN_OR_EQ);
+		return new BTreeLeafPageIterator(this, first == used.length ? numSlots : used[first]);
+	}
+
 	/**
 	 * @return a reverse iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
 	 * (note that this iterator shouldn't return tuples in empty slots!)
@@ -494,6 +532,17 @@ public class BTreeLeafPage extends BTreePage {
 		return new BTreeLeafPageReverseIterator(this);
 	}
 
+	/**
+	 * @return a reverse iterator over the tuples on this page whose key is less than or
+	 * equal to f, found by binary search (calling remove on this iterator throws an
+	 * UnsupportedOperationException)
+	 */
+	public Iterator<Tuple> reverseIterator(Field f) {
+		int[] used = getUsedSlots();
+		int last = search(used, f, Predicate.Op.GREATER_THAN) - 1;
+		return new BTreeLeafPageReverseIterator(this, last < 0 ? -1 : used[last]);
+	}
+
 	/**
 	 * protected method used by the iterator to get the ith tuple out of this page
 	 * @param i - the index of the tuple
@@ -532,6 +581,11 @@ class BTreeLeafPageIterator implements Iterator<Tuple> {
 		this.p = p;
 	}
 
+	public BTreeLeafPageIterator(BTreeLeafPage p, int firstSlot) {
+		this.p = p;
+		this.curTuple = firstSlot;
+	}
+
 	public boolean hasNext() {
 		if (nextToReturn != null)
 			return true;
@@ -581,6 +635,11 @@ class BTreeLeafPageReverseIterator implements Iterator<Tuple> {
 		this.curTuple = p.getMaxTuples() - 1;
 	}
 
+	public BTreeLeafPageReverseIterator(BTreeLeafPage p, int lastSlot) {
+		this.p = p;
+		this.curTuple = lastSlot;
+	}
+
 	public boolean hasNext() {
 		if (nextToReturn != null)
 			return true;
@@ -28,8 +28,8 @@ public abstract class BTreePage implements Page {
 	protected final int keyField;
 
 	protected int parent; // parent is always internal node or 0 for root node
-	protected byte[] oldData;
-	protected final Byte oldDataLock= (byte) 0;
+	protected byte[] oldData; // null while the page is unchanged since setBeforeImage
+	private final Object oldDataLock = new Object();
 
 	/**
 	 * Create a BTreeInternalPage from a set of bytes of data read from disk.
@@ -92,6 +92,43 @@ public abstract class BTreePage implements Page {
 		return new BTreePageId(pid.getTableId(), parent, BTreePageId.INTERNAL);
 	}
 
+	/**
+	 * Record the current contents of the page as its before image. Nothing
+	 * is copied yet: the page data is only captured by the first change
+	 * after this call (see beforeModify), so a page that is flushed without
+	 * being changed again never pays for a copy.
+	 */
+	public void setBeforeImage() {
+		synchronized(oldDataLock)
+		{
+			oldData = null;
+		}
+	}
+
+	/**
+	 * Must be called before every change to the contents of the page, so
+	 * that the before image is captured before it is lost.
+	 */
+	protected void beforeModify() {
+		synchronized(oldDataLock)
+		{
+			if (oldData == null) {
+				oldData = getPageData();
+			}
+		}
+	}
+
+	/**
+	 * @return the data of the before image of this page, which is the
+	 * current data if the page has not changed since setBeforeImage
+	 */
+	protected byte[] getBeforeImageData() {
+		synchronized(oldDataLock)
+		{
+			return oldData != null ? oldData : getPageData();
+		}
+	}
+
 	/**
 	 * Set the parent id
 	 * @param id - the id of the parent of this page
@@ -107,6 +144,7 @@ public abstract class BTreePage implements Page {
 		if(id.pgcateg() != BTreePageId.INTERNAL && id.pgcateg() != BTreePageId.ROOT_PTR) {
 			throw new DbException("parent must be an internal node or root pointer");
 		}
+		beforeModify();
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 			parent = 0;
 		}
@@ -25,6 +25,7 @@ public class BTreeScan implements OpIterator {
 	private final TransactionId tid;
 	private TupleDesc myTd;
 	private IndexPredicate ipred = null;
+	private final boolean descending;
 	private transient DbFileIterator it;
 	private String tablename;
 	private String alias;
@@ -49,8 +50,21 @@ public class BTreeScan implements OpIterator {
 	 *            in sorted order
 	 */
 	public BTreeScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate ipred) {
+		this(tid, tableid, tableAlias, ipred, false);
+	}
+
+	/**
+	 * Creates a B+ tree scan like {@link #BTreeScan(TransactionId, int, String, IndexPredicate)}
+	 * that may read the tuples in descending order of key instead, as for ORDER BY ... DESC
+	 * or a query for the last few tuples before some key.
+	 * 
+	 * @param descending
+	 *            whether to return the tuples in descending order of key
+	 */
+	public BTreeScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate ipred, boolean descending) {
 		this.tid = tid;
 		this.ipred = ipred;
+		this.descending = descending;
 		reset(tableid,tableAlias);
 	}
 
@@ -87,11 +101,14 @@ public class BTreeScan implements OpIterator {
 		this.isOpen=false;
 		this.alias = tableAlias;
 		this.tablename = Database.getCatalog().getTableName(tableid);
-		if(ipred == null) {
+		if(ipred == null && !descending) {
 			this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
 		}
+		else if(ipred == null) {
+			this.it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).reverseIterator(tid);
+		}
 		else {
-			this.it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, ipred);
+			this.it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, ipred, descending);
 		}
 		myTd = Database.getCatalog().getTupleDesc(tableid);
 		String[] newNames = new String[myTd.numFields()];
@@ -0,0 +1,213 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+/**
+ * BitmapIndex is a secondary index on a low-cardinality field of a
+ * HeapFile, such as a status or a category. It keeps one CompressedBitmap
+ * per distinct value of the field, holding the positions of the tuples with
+ * that value, where the tuple in slot s of page p is at position
+ * p * HeapFile.getMaxSlotsPerPage() + s. A predicate is answered by OR-ing
+ * the bitmaps of the values that satisfy it, whatever its operator, and
+ * the predicates of a conjunction by AND-ing the results, so the tuples
+ * matching all of them are found without reading any page of the table.
+ * <p>
+ * Like the ZoneMap of a HeapFile, the bitmaps are kept in memory and must
+ * be rebuilt from the table when the database is loaded, and they may hold
+ * more positions than there are matching tuples, never fewer: inserts set
+ * bits right away, while deletes, which may still be rolled back, leave
+ * them set. A bit that no longer matches is cleared by refresh the next
+ * time the tuple is fetched from a page holding only committed changes.
+ * Readers must therefore check the tuples they fetch.
+ *
+ * @see simpledb.execution.BitmapScan
+ * @Threadsafe
+ */
+public class BitmapIndex implements SecondaryIndex {
+
+	private final TupleDesc td;
+	private final int baseTableId;
+	private final int keyField;
+	private final int slotsPerPage;
+	private final Map<Field, CompressedBitmap> bitmaps = new HashMap<>();
+
+	/**
+	 * Constructs an empty bitmap index on a field of a table. Entries must
+	 * be added for the tuples the table already holds, e.g. with
+	 * insertEntry while scanning it.
+	 *
+	 * @param baseTableId the id of the HeapFile the index points into
+	 * @param keyField the index of the indexed field in the base table
+	 * @param keyType the type of the indexed field
+	 */
+	public BitmapIndex(int baseTableId, int keyField, Type keyType) {
+		this.td = SecondaryIndex.getEntryDesc(keyType);
+		this.baseTableId = baseTableId;
+		this.keyField = keyField;
+		this.slotsPerPage = ((HeapFile) Database.getCatalog().getDatabaseFile(baseTableId)).getMaxSlotsPerPage();
+	}
+
+	public TupleDesc getTupleDesc() {
+		return td;
+	}
+
+	public int getBaseTableId() {
+		return baseTableId;
+	}
+
+	public int getKeyField() {
+		return keyField;
+	}
+
+	public boolean supports(Predicate.Op op) {
+		return true;
+	}
+
+	/**
+	 * @return the position of the tuple in the given slot of the given page
+	 */
+	public int getPosition(int pageNo, int slot) {
+		return pageNo * slotsPerPage + slot;
+	}
+
+	/**
+	 * @return the RecordId of the tuple at a position
+	 */
+	public RecordId getRecordId(int position) {
+		return new RecordId(new HeapPageId(baseTableId, position / slotsPerPage), position % slotsPerPage);
+	}
+
+	/**
+	 * @return the number of distinct values that have a bitmap
+	 */
+	public synchronized int getNumValues() {
+		return bitmaps.size();
+	}
+
+	/**
+	 * Returns the positions of the tuples that may satisfy "field op value",
+	 * the OR of the bitmaps of all values that satisfy it. The result is a
+	 * copy that later changes to the index do not affect.
+	 */
+	public synchronized CompressedBitmap lookup(IndexPredicate ipred) {
+		CompressedBitmap res = new CompressedBitmap();
+		for (Map.Entry<Field, CompressedBitmap> e : bitmaps.entrySet()) {
+			if (e.getKey().compare(ipred.getOp(), ipred.getField())) {
+				res = res.or(e.getValue());
+			}
+		}
+		return res;
+	}
+
+	private synchronized void set(Field key, int position) {
+		bitmaps.computeIfAbsent(key, k -> new CompressedBitmap()).add(position);
+	}
+
+	/**
+	 * Clear the bits of a slot that do not match the tuple it holds now.
+	 * The caller must hold a lock on the page, and the page must not be
+	 * dirty, so that it only has committed changes.
+	 */
+	public synchronized void refresh(HeapPage page, int slot) {
+		if (page.isDirty() != null) {
+			return;
+		}
+		Tuple t = page.getTuple(slot);
+		Field key = t == null ? null : t.getField(keyField);
+		int position = getPosition(page.getId().getPageNumber(), slot);
+		for (Iterator<Map.Entry<Field, CompressedBitmap>> it = bitmaps.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<Field, CompressedBitmap> e = it.next();
+			if (!e.getKey().equals(key)) {
+				e.getValue().remove(position);
+				if (e.getValue().isEmpty()) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	private static int intValue(Tuple t, int i) {
+		return ((IntField) t.getField(i)).getValue();
+	}
+
+	public List<Page> insertEntry(TransactionId tid, Tuple t) {
+		RecordId rid = t.getRecordId();
+		set(t.getField(keyField), getPosition(rid.getPageId().getPageNumber(), rid.getTupleNumber()));
+		return new ArrayList<>();
+	}
+
+	/**
+	 * Does nothing: the delete may still be rolled back, so the bit stays
+	 * set until refresh finds the slot changed.
+	 */
+	public List<Page> deleteEntry(TransactionId tid, Tuple t) {
+		return new ArrayList<>();
+	}
+
+	/**
+	 * Returns the entries of the positions that lookup returns for the
+	 * predicate, in position order.
+	 */
+	public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+		return new BitmapIndexIterator(ipred);
+	}
+
+	/**
+	 * 打开时从位图生成所有的索引项
+	 */
+	private class BitmapIndexIterator extends AbstractDbFileIterator {
+
+		private final IndexPredicate ipred;
+		private Iterator<Tuple> it;
+
+		BitmapIndexIterator(IndexPredicate ipred) {
+			this.ipred = ipred;
+		}
+
+		public void open() {
+			List<Tuple> res = new ArrayList<>();
+			synchronized (BitmapIndex.this) {
+				for (Map.Entry<Field, CompressedBitmap> e : bitmaps.entrySet()) {
+					if (!e.getKey().compare(ipred.getOp(), ipred.getField())) {
+						continue;
+					}
+					for (int position : e.getValue()) {
+						RecordId rid = getRecordId(position);
+						Tuple t = new Tuple(td);
+						t.setField(0, e.getKey());
+						t.setField(1, new IntField(rid.getPageId().getPageNumber()));
+						t.setField(2, new IntField(rid.getTupleNumber()));
+						res.add(t);
+					}
+				}
+			}
+			res.sort(Comparator.comparingInt((Tuple t) -> intValue(t, 1)).thenComparingInt(t -> intValue(t, 2)));
+			it = res.iterator();
+		}
+
+		@Override
+		protected Tuple readNext() {
+			return it != null && it.hasNext() ? it.next() : null;
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			close();
+			open();
+		}
+
+		@Override
+		public void close() {
+			super.close();
+			it = null;
+		}
+	}
+}
@@ -0,0 +1,332 @@
+package simpledb.index;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * CompressedBitmap is a set of non-negative ints stored the way roaring
+ * bitmaps store them. The ints are split into chunks of 2^16 by their high
+ * 16 bits, and each chunk that holds any of them has a container for the
+ * low 16 bits: a sorted array while it holds at most ARRAY_MAX values, and
+ * a plain bitmap of 2^16 bits once it holds more. Sparse sets then take two
+ * bytes per value and dense ones one bit per value, and AND and OR work
+ * chunk by chunk, skipping chunks that are missing on either side.
+ *
+ * @see BitmapIndex
+ */
+public class CompressedBitmap implements Iterable<Integer> {
+
+	/** The largest number of values a container keeps as a sorted array. */
+	static final int ARRAY_MAX = 4096;
+
+	private static final int WORDS = (1 << 16) / 64;
+
+	private final TreeMap<Integer, Container> chunks = new TreeMap<>();
+
+	/**
+	 * The values of one chunk: either a sorted array of low 16 bits, or a
+	 * bitmap of 2^16 bits when words is not null.
+	 */
+	private static final class Container {
+		char[] array;
+		long[] words;
+		int size;
+
+		static Container ofArray(char[] array, int size) {
+			Container c = new Container();
+			c.array = array;
+			c.size = size;
+			return c;
+		}
+
+		static Container ofWords(long[] words) {
+			Container c = new Container();
+			c.words = words;
+			for (long w : words) {
+				c.size += Long.bitCount(w);
+			}
+			return c;
+		}
+
+		boolean contains(char v) {
+			if (words != null) {
+				return (words[v >>> 6] & (1L << v)) != 0;
+			}
+			return Arrays.binarySearch(array, 0, size, v) >= 0;
+		}
+
+		void add(char v) {
+			if (words != null) {
+				if ((words[v >>> 6] & (1L << v)) == 0) {
+					words[v >>> 6] |= 1L << v;
+					size++;
+				}
+				return;
+			}
+			int i = Arrays.binarySearch(array, 0, size, v);
+			if (i >= 0) {
+				return;
+			}
+			i = -i - 1;
+			if (size == ARRAY_MAX) {
+				// 数组容器满了就转成位图
+				words = toWords();
+				array = null;
+				words[v >>> 6] |= 1L << v;
+				size++;
+				return;
+			}
+			if (size == array.length) {
+				array = Arrays.copyOf(array, Math.min(ARRAY_MAX, Math.max(4, size * 2)));
+			}
+			System.arraycopy(array, i, array, i + 1, size - i);
+			array[i] = v;
+			size++;
+		}
+
+		void remove(char v) {
+			if (words != null) {
+				if ((words[v >>> 6] & (1L << v)) != 0) {
+					words[v >>> 6] &= ~(1L << v);
+					size--;
+				}
+				return;
+			}
+			int i = Arrays.binarySearch(array, 0, size, v);
+			if (i >= 0) {
+				System.arraycopy(array, i + 1, array, i, size - i - 1);
+				size--;
+			}
+		}
+
+		long[] toWords() {
+			if (words != null) {
+				return words.clone();
+			}
+			long[] w = new long[WORDS];
+			for (int i = 0; i < size; i++) {
+				w[array[i] >>> 6] |= 1L << array[i];
+			}
+			return w;
+		}
+
+		/**
+		 * 位图容器中的值不多时转回数组
+		 */
+		Container shrink() {
+			if (words == null || size > ARRAY_MAX) {
+				return this;
+			}
+			char[] a = new char[size];
+			int n = 0;
+			for (int i = 0; i < WORDS; i++) {
+				for (long w = words[i]; w != 0; w &= w - 1) {
+					a[n++] = (char) (i * 64 + Long.numberOfTrailingZeros(w));
+				}
+			}
+			return ofArray(a, n);
+		}
+
+		Container and(Container other) {
+			if (words != null && other.words != null) {
+				long[] w = new long[WORDS];
+				for (int i = 0; i < WORDS; i++) {
+					w[i] = words[i] & other.words[i];
+				}
+				return ofWords(w).shrink();
+			}
+			// 至少一边是数组：逐个检查数组中的值
+			Container small = words == null ? this : other;
+			Container large = small == this ? other : this;
+			char[] a = new char[small.size];
+			int n = 0;
+			for (int i = 0; i < small.size; i++) {
+				if (large.contains(small.array[i])) {
+					a[n++] = small.array[i];
+				}
+			}
+			return ofArray(a, n);
+		}
+
+		Container or(Container other) {
+			if (words == null && other.words == null && size + other.size <= ARRAY_MAX) {
+				char[] a = new char[size + other.size];
+				int i = 0, j = 0, n = 0;
+				while (i < size || j < other.size) {
+					if (j == other.size || (i < size && array[i] < other.array[j])) {
+						a[n++] = array[i++];
+					} else if (i == size || other.array[j] < array[i]) {
+						a[n++] = other.array[j++];
+					} else {
+						a[n++] = array[i++];
+						j++;
+					}
+				}
+				return ofArray(a, n);
+			}
+			long[] w = toWords();
+			long[] o = other.toWords();
+			for (int i = 0; i < WORDS; i++) {
+				w[i] |= o[i];
+			}
+			return ofWords(w).shrink();
+		}
+
+		Container copy() {
+			Container c = new Container();
+			c.array = array == null ? null : array.clone();
+			c.words = words == null ? null : words.clone();
+			c.size = size;
+			return c;
+		}
+	}
+
+	/**
+	 * Add a value to the set.
+	 */
+	public void add(int v) {
+		if (v < 0) {
+			throw new IllegalArgumentException("negative value " + v);
+		}
+		chunks.computeIfAbsent(v >>> 16, k -> Container.ofArray(new char[4], 0)).add((char) v);
+	}
+
+	/**
+	 * Remove a value from the set, if it is in it.
+	 */
+	public void remove(int v) {
+		Container c = chunks.get(v >>> 16);
+		if (c != null) {
+			c.remove((char) v);
+			if (c.size == 0) {
+				chunks.remove(v >>> 16);
+			}
+		}
+	}
+
+	public boolean contains(int v) {
+		Container c = chunks.get(v >>> 16);
+		return c != null && c.contains((char) v);
+	}
+
+	/**
+	 * @return the number of values in the set
+	 */
+	public int getCardinality() {
+		int n = 0;
+		for (Container c : chunks.values()) {
+			n += c.size;
+		}
+		return n;
+	}
+
+	public boolean isEmpty() {
+		return chunks.isEmpty();
+	}
+
+	/**
+	 * @return a new set of the values that are in both this set and the other
+	 */
+	public CompressedBitmap and(CompressedBitmap other) {
+		CompressedBitmap res = new CompressedBitmap();
+		for (Map.Entry<Integer, Container> e : chunks.entrySet()) {
+			Container c = other.chunks.get(e.getKey());
+			if (c != null) {
+				Container r = e.getValue().and(c);
+				if (r.size > 0) {
+					res.chunks.put(e.getKey(), r);
+				}
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @return a new set of the values that are in this set or the other
+	 */
+	public CompressedBitmap or(CompressedBitmap other) {
+		CompressedBitmap res = copy();
+		for (Map.Entry<Integer, Container> e : other.chunks.entrySet()) {
+			Container c = res.chunks.get(e.getKey());
+			res.chunks.put(e.getKey(), c == null ? e.getValue().copy() : c.or(e.getValue()));
+		}
+		return res;
+	}
+
+	/**
+	 * @return a copy of this set that does not change when this one does
+	 */
+	public CompressedBitmap copy() {
+		CompressedBitmap res = new CompressedBitmap();
+		for (Map.Entry<Integer, Container> e : chunks.entrySet()) {
+			res.chunks.put(e.getKey(), e.getValue().copy());
+		}
+		return res;
+	}
+
+	/**
+	 * Returns the values of the set in ascending order. The set must not be
+	 * modified while the iterator is in use.
+	 */
+	public Iterator<Integer> iterator() {
+		return new Iterator<Integer>() {
+			private final Iterator<Map.Entry<Integer, Container>> it = chunks.entrySet().iterator();
+			private int high;
+			private Container c;
+			private int pos; // 数组容器中的下标，或位图容器中的位
+			private int next = -1;
+
+			private void advance() {
+				next = -1;
+				while (next < 0) {
+					if (c == null) {
+						if (!it.hasNext()) {
+							return;
+						}
+						Map.Entry<Integer, Container> e = it.next();
+						high = e.getKey() << 16;
+						c = e.getValue();
+						pos = 0;
+					}
+					if (c.words == null) {
+						if (pos < c.size) {
+							next = high | c.array[pos++];
+						} else {
+							c = null;
+						}
+					} else {
+						while (pos < (1 << 16) && (c.words[pos >>> 6] >>> pos) == 0) {
+							pos = (pos | 63) + 1; // 跳过这个字中剩下的 0
+						}
+						if (pos < (1 << 16)) {
+							pos += Long.numberOfTrailingZeros(c.words[pos >>> 6] >>> pos);
+							next = high | pos++;
+						} else {
+							c = null;
+						}
+					}
+				}
+			}
+
+			{
+				advance();
+			}
+
+			public boolean hasNext() {
+				return next >= 0;
+			}
+
+			public Integer next() {
+				if (next < 0) {
+					throw new NoSuchElementException();
+				}
+				int v = next;
+				advance();
+				return v;
+			}
+		};
+	}
+}
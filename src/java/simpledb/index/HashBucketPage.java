@@ -0,0 +1,143 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+
+import java.util.Arrays;
+
+/**
+ * HashBucketPage holds the entries of one bucket of a HashIndexFile, or of
+ * an overflow page chained to a bucket. A page has a header of HEADER_SIZE
+ * bytes: the local depth of the bucket, the page number of the next page
+ * in the chain (0 if there is none) and the number of entries. It is
+ * followed by the entries, packed from the start: the key, then the page
+ * number and the slot of the RecordId the key points to.
+ *
+ * @see HashIndexFile
+ */
+public class HashBucketPage extends HashPage {
+
+	/** Bytes of the header: local depth, next page and number of entries. */
+	public static final int HEADER_SIZE = 12;
+
+	private final Type keyType;
+	private final int entrySize;
+
+	/**
+	 * Constructor.
+	 * Construct the bucket page from a set of bytes of data read from disk.
+	 * The type of the keys is field 0 of the index's TupleDesc.
+	 */
+	public HashBucketPage(HashPageId id, byte[] data) {
+		super(id, data);
+		this.keyType = Database.getCatalog().getTupleDesc(id.getTableId()).getFieldType(0);
+		this.entrySize = keyType.getLen() + 8;
+	}
+
+	/**
+	 * @return the number of entries a bucket page with keys of the given type holds
+	 */
+	public static int getCapacity(Type keyType) {
+		return (BufferPool.getPageSize() - HEADER_SIZE) / (keyType.getLen() + 8);
+	}
+
+	public int getLocalDepth() {
+		return getInt(0);
+	}
+
+	public void setLocalDepth(int depth) {
+		beforeModify();
+		putInt(0, depth);
+	}
+
+	/**
+	 * @return the page number of the next page in the chain, or 0 if there is none
+	 */
+	public int getNext() {
+		return getInt(4);
+	}
+
+	public void setNext(int next) {
+		beforeModify();
+		putInt(4, next);
+	}
+
+	public int getNumEntries() {
+		return getInt(8);
+	}
+
+	public boolean hasRoom() {
+		return getNumEntries() < getCapacity(keyType);
+	}
+
+	private int entryOffset(int i) {
+		return HEADER_SIZE + i * entrySize;
+	}
+
+	public Field getKey(int i) {
+		return keyType.parse(data, entryOffset(i));
+	}
+
+	/**
+	 * @return the page number of the RecordId of entry i
+	 */
+	public int getRecordPage(int i) {
+		return getInt(entryOffset(i) + keyType.getLen());
+	}
+
+	/**
+	 * @return the tuple number of the RecordId of entry i
+	 */
+	public int getRecordSlot(int i) {
+		return getInt(entryOffset(i) + keyType.getLen() + 4);
+	}
+
+	/**
+	 * Add an entry at the end of the page.
+	 *
+	 * @return false if the page is full
+	 */
+	public boolean addEntry(Field key, int recordPage, int recordSlot) {
+		int n = getNumEntries();
+		if (n >= getCapacity(keyType)) {
+			return false;
+		}
+		beforeModify();
+		int offset = entryOffset(n);
+		key.serialize(data, offset);
+		putInt(offset + keyType.getLen(), recordPage);
+		putInt(offset + keyType.getLen() + 4, recordSlot);
+		putInt(8, n + 1);
+		return true;
+	}
+
+	/**
+	 * Remove entry i; the last entry takes its place.
+	 */
+	public void removeEntry(int i) {
+		int n = getNumEntries();
+		beforeModify();
+		System.arraycopy(data, entryOffset(n - 1), data, entryOffset(i), entrySize);
+		Arrays.fill(data, entryOffset(n - 1), entryOffset(n), (byte) 0);
+		putInt(8, n - 1);
+	}
+
+	/**
+	 * Remove all entries, keeping the local depth and the next page.
+	 */
+	public void clear() {
+		beforeModify();
+		Arrays.fill(data, HEADER_SIZE, data.length, (byte) 0);
+		putInt(8, 0);
+	}
+
+	/**
+	 * Return a view of this page before it was modified
+	 * -- used by recovery
+	 */
+	public HashBucketPage getBeforeImage() {
+		return new HashBucketPage(pid, getBeforeImageData());
+	}
+}
@@ -0,0 +1,99 @@
+package simpledb.index;
+
+import simpledb.storage.BufferPool;
+
+/**
+ * HashDirectoryPage is page 0 of a HashIndexFile. It holds the global depth
+ * d of the extendible hash table followed by 2^d page numbers: entry i names
+ * the bucket page that holds the keys whose hash ends in the d bits of i.
+ * Several entries point to the same bucket when its local depth is less
+ * than d.
+ * <p>
+ * The directory has to fit on one page, which bounds d by getMaxDepth();
+ * buckets that fill up beyond that are chained to overflow pages.
+ *
+ * @see HashIndexFile
+ */
+public class HashDirectoryPage extends HashPage {
+
+	/**
+	 * Constructor.
+	 * Construct the directory page from a set of bytes of data read from disk.
+	 */
+	public HashDirectoryPage(HashPageId id, byte[] data) {
+		super(id, data);
+	}
+
+	/**
+	 * @return the largest global depth whose directory fits on one page
+	 */
+	public static int getMaxDepth() {
+		int entries = (BufferPool.getPageSize() - 4) / 4;
+		return 31 - Integer.numberOfLeadingZeros(entries);
+	}
+
+	/**
+	 * Generates the data of the directory of an empty index: depth 0 and a
+	 * single entry pointing to the given bucket page.
+	 */
+	public static byte[] createEmptyPageData(int firstBucket) {
+		byte[] data = new byte[BufferPool.getPageSize()];
+		data[4] = (byte) (firstBucket >>> 24);
+		data[5] = (byte) (firstBucket >>> 16);
+		data[6] = (byte) (firstBucket >>> 8);
+		data[7] = (byte) firstBucket;
+		return data;
+	}
+
+	public int getGlobalDepth() {
+		return getInt(0);
+	}
+
+	/**
+	 * @return the number of entries in the directory, 2^depth
+	 */
+	public int getNumEntries() {
+		return 1 << getGlobalDepth();
+	}
+
+	/**
+	 * @return the page number of directory entry i
+	 */
+	public int getEntry(int i) {
+		return getInt(4 + 4 * i);
+	}
+
+	public void setEntry(int i, int bucket) {
+		beforeModify();
+		putInt(4 + 4 * i, bucket);
+	}
+
+	/**
+	 * @return the page number of the bucket for the given hash value
+	 */
+	public int getBucket(int hash) {
+		return getEntry(hash & (getNumEntries() - 1));
+	}
+
+	/**
+	 * Double the directory: the new entries point to the same buckets as
+	 * the entries they are copies of.
+	 */
+	public void doubleDirectory() {
+		int n = getNumEntries();
+		if (getGlobalDepth() >= getMaxDepth()) {
+			throw new IllegalStateException("directory is full");
+		}
+		beforeModify();
+		System.arraycopy(data, 4, data, 4 + 4 * n, 4 * n);
+		putInt(0, getGlobalDepth() + 1);
+	}
+
+	/**
+	 * Return a view of this page before it was modified
+	 * -- used by recovery
+	 */
+	public HashDirectoryPage getBeforeImage() {
+		return new HashDirectoryPage(pid, getBeforeImageData());
+	}
+}
@@ -0,0 +1,490 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * HashIndexFile is a secondary index on one field of a HeapFile, stored as
+ * an extendible hash table on disk. An equality lookup reads the directory
+ * page and the bucket the key hashes to, so it takes the same small number
+ * of page accesses whatever the size of the table.
+ * <p>
+ * Page 0 is a HashDirectoryPage, and all other pages are HashBucketPages.
+ * When a bucket is full it is split in two, doubling the directory if the
+ * bucket's local depth equals the global depth. A bucket is chained to an
+ * overflow page instead when the directory cannot grow any more, or when
+ * all of its keys hash to the same value, e.g. many duplicates of one key,
+ * so that splitting would not separate them. Buckets are not merged when
+ * entries are deleted.
+ *
+ * @see HashDirectoryPage
+ * @see HashBucketPage
+ * @Threadsafe
+ */
+public class HashIndexFile implements SecondaryIndex, DbFile {
+
+	private static final int DIRECTORY = 0;
+
+	private final File f;
+	private final TupleDesc td;
+	private final int baseTableId;
+	private final int keyField;
+	private final DbFileChannel channel;
+
+	/**
+	 * Constructs a hash index backed by the specified file.
+	 *
+	 * @param f the file that stores the on-disk backing store for this index
+	 * @param baseTableId the id of the HeapFile the index points into
+	 * @param keyField the index of the indexed field in the base table
+	 * @param keyType the type of the indexed field
+	 */
+	public HashIndexFile(File f, int baseTableId, int keyField, Type keyType) {
+		this.f = f;
+		this.td = SecondaryIndex.getEntryDesc(keyType);
+		this.baseTableId = baseTableId;
+		this.keyField = keyField;
+		this.channel = new DbFileChannel(f);
+	}
+
+	public File getFile() {
+		return f;
+	}
+
+	/**
+	 * Returns an ID uniquely identifying this HashIndexFile, the hash of the
+	 * absolute file name like for a HeapFile.
+	 */
+	public int getId() {
+		return f.getAbsoluteFile().hashCode();
+	}
+
+	public TupleDesc getTupleDesc() {
+		return td;
+	}
+
+	// see DbFile.java for javadocs
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	public int getBaseTableId() {
+		return baseTableId;
+	}
+
+	public int getKeyField() {
+		return keyField;
+	}
+
+	public boolean supports(Predicate.Op op) {
+		return op == Predicate.Op.EQUALS;
+	}
+
+	/**
+	 * Returns the number of pages in this index, including the directory.
+	 */
+	public int numPages() {
+		try {
+			return (int) (channel.size() / BufferPool.getPageSize());
+		} catch (IOException e) {
+			e.printStackTrace();
+			return 0;
+		}
+	}
+
+	// see DbFile.java for javadocs
+	public Page readPage(PageId pid) {
+		byte[] buf = new byte[BufferPool.getPageSize()];
+		try {
+			if (channel.read(buf, (long) pid.getPageNumber() * buf.length) == -1) {
+				return null;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+		HashPageId hpid = (HashPageId) pid;
+		return hpid.getPageNumber() == DIRECTORY ? new HashDirectoryPage(hpid, buf) : new HashBucketPage(hpid, buf);
+	}
+
+	// see DbFile.java for javadocs
+	public void writePage(Page page) throws IOException {
+		channel.write(page.getPageData(), (long) page.getId().getPageNumber() * BufferPool.getPageSize());
+	}
+
+	/**
+	 * 空文件第一次使用时写入目录页和第一个桶
+	 */
+	private synchronized void init() throws IOException {
+		if (numPages() == 0) {
+			channel.write(new byte[BufferPool.getPageSize()], BufferPool.getPageSize());
+			channel.write(HashDirectoryPage.createEmptyPageData(1), 0);
+		}
+	}
+
+	/**
+	 * 在文件末尾追加一个空的桶页，再通过 BufferPool 加写锁
+	 */
+	private HashBucketPage newBucketPage(TransactionId tid, List<Page> dirtyPages)
+			throws IOException, DbException, TransactionAbortedException {
+		HashPageId pid;
+		synchronized (this) {
+			pid = new HashPageId(getId(), numPages());
+			channel.write(new byte[BufferPool.getPageSize()], (long) pid.getPageNumber() * BufferPool.getPageSize());
+		}
+		HashBucketPage page = (HashBucketPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+		dirtyPages.add(page);
+		return page;
+	}
+
+	private HashDirectoryPage getDirectory(TransactionId tid, Permissions perm)
+			throws DbException, TransactionAbortedException {
+		return (HashDirectoryPage) Database.getBufferPool().getPage(tid, new HashPageId(getId(), DIRECTORY), perm);
+	}
+
+	private HashBucketPage getBucket(TransactionId tid, int pgNo, Permissions perm)
+			throws DbException, TransactionAbortedException {
+		return (HashBucketPage) Database.getBufferPool().getPage(tid, new HashPageId(getId(), pgNo), perm);
+	}
+
+	/**
+	 * Returns the hash of a key. The directory is indexed by its low bits,
+	 * so keys that differ in the lowest bit never share a bucket once the
+	 * bucket has been split at least once.
+	 */
+	public static int hash(Field key) {
+		int h = key.hashCode() * 0x9E3779B1;
+		return h ^ (h >>> 16);
+	}
+
+	private static class Entry {
+		final Field key;
+		final int page;
+		final int slot;
+
+		Entry(Field key, int page, int slot) {
+			this.key = key;
+			this.page = page;
+			this.slot = slot;
+		}
+	}
+
+	/**
+	 * Add an entry to the index. The entry is first added under a shared
+	 * lock on the directory. If the bucket has to be split, the locks this
+	 * attempt took are dropped and the insert is retried with an exclusive
+	 * lock on the directory taken before any bucket, so two inserters that
+	 * both read the directory never wait on each other to upgrade it.
+	 * <p>
+	 * A shared lock on the directory is given back once the entry is in
+	 * its bucket: the exclusive lock on the bucket keeps it from being
+	 * split until the transaction ends, so the entry stays where the
+	 * directory points. A transaction therefore only holds the directory
+	 * to its end after it split a bucket.
+	 *
+	 * @return the pages that were modified
+	 */
+	private List<Page> insert(TransactionId tid, Field key, int recordPage, int recordSlot)
+			throws DbException, IOException, TransactionAbortedException {
+		init();
+		List<Page> dirtyPages = insert(tid, key, recordPage, recordSlot, Permissions.READ_ONLY);
+		if (dirtyPages == null) {
+			dirtyPages = insert(tid, key, recordPage, recordSlot, Permissions.READ_WRITE);
+		}
+		return dirtyPages;
+	}
+
+	/**
+	 * @param dirPerm the lock to take on the directory; only READ_WRITE allows a split
+	 * @return the pages that were modified, or null if a split is needed
+	 *         but dirPerm is READ_ONLY. Nothing has been modified then.
+	 */
+	private List<Page> insert(TransactionId tid, Field key, int recordPage, int recordSlot, Permissions dirPerm)
+			throws DbException, IOException, TransactionAbortedException {
+		BufferPool bufferPool = Database.getBufferPool();
+		List<Page> dirtyPages = new ArrayList<>();
+		// 本次尝试新加锁的页，放弃尝试时释放
+		List<PageId> locked = new ArrayList<>();
+		int h = hash(key);
+		while (true) {
+			HashPageId dirId = new HashPageId(getId(), DIRECTORY);
+			if (!bufferPool.holdsLock(tid, dirId)) {
+				locked.add(dirId);
+			}
+			HashDirectoryPage dir = getDirectory(tid, dirPerm);
+			int bucketNo = dir.getBucket(h);
+			List<HashBucketPage> chain = new ArrayList<>();
+			for (int pgNo = bucketNo; ; ) {
+				HashPageId pid = new HashPageId(getId(), pgNo);
+				if (!bufferPool.holdsLock(tid, pid)) {
+					locked.add(pid);
+				}
+				HashBucketPage p = getBucket(tid, pgNo, Permissions.READ_WRITE);
+				chain.add(p);
+				if (p.addEntry(key, recordPage, recordSlot)) {
+					dirtyPages.add(p);
+					// 目录没有改动；桶的写锁保证它在提交前不会被分裂，不必持有目录读锁到提交
+					if (dirPerm == Permissions.READ_ONLY && locked.contains(dirId)) {
+						bufferPool.unsafeReleasePage(tid, dirId);
+					}
+					return dirtyPages;
+				}
+				if (p.getNext() == 0) {
+					break;
+				}
+				pgNo = p.getNext();
+			}
+			HashBucketPage bucket = chain.get(0);
+			List<Entry> entries = entries(chain);
+			if (bucket.getLocalDepth() < HashDirectoryPage.getMaxDepth() && !sameHash(entries, h)) {
+				if (dirPerm == Permissions.READ_ONLY) {
+					for (PageId pid : locked) {
+						bufferPool.unsafeReleasePage(tid, pid);
+					}
+					return null;
+				}
+				split(tid, bucketNo, chain, entries, dirtyPages);
+				continue;
+			}
+			HashBucketPage overflow = newBucketPage(tid, dirtyPages);
+			overflow.addEntry(key, recordPage, recordSlot);
+			HashBucketPage last = chain.get(chain.size() - 1);
+			last.setNext(overflow.getId().getPageNumber());
+			dirtyPages.add(last);
+			if (dirPerm == Permissions.READ_ONLY && locked.contains(dirId)) {
+				bufferPool.unsafeReleasePage(tid, dirId);
+			}
+			return dirtyPages;
+		}
+	}
+
+	private static List<Entry> entries(List<HashBucketPage> chain) {
+		List<Entry> entries = new ArrayList<>();
+		for (HashBucketPage p : chain) {
+			for (int i = 0; i < p.getNumEntries(); i++) {
+				entries.add(new Entry(p.getKey(i), p.getRecordPage(i), p.getRecordSlot(i)));
+			}
+		}
+		return entries;
+	}
+
+	private static boolean sameHash(List<Entry> entries, int h) {
+		for (Entry e : entries) {
+			if (hash(e.key) != h) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Split a bucket in two on the next bit of the hash, doubling the
+	 * directory if needed, and spread its entries over the two chains.
+	 * The caller holds an exclusive lock on the directory.
+	 */
+	private void split(TransactionId tid, int bucketNo, List<HashBucketPage> chain, List<Entry> entries,
+					   List<Page> dirtyPages) throws DbException, IOException, TransactionAbortedException {
+		HashDirectoryPage dir = getDirectory(tid, Permissions.READ_WRITE);
+		HashBucketPage bucket = chain.get(0);
+		int depth = bucket.getLocalDepth();
+		if (depth == dir.getGlobalDepth()) {
+			dir.doubleDirectory();
+		}
+		HashBucketPage sibling = newBucketPage(tid, dirtyPages);
+		bucket.setLocalDepth(depth + 1);
+		sibling.setLocalDepth(depth + 1);
+		int siblingNo = sibling.getId().getPageNumber();
+		for (int i = 0; i < dir.getNumEntries(); i++) {
+			if (dir.getEntry(i) == bucketNo && ((i >>> depth) & 1) == 1) {
+				dir.setEntry(i, siblingNo);
+			}
+		}
+		dirtyPages.add(dir);
+
+		List<Entry> stay = new ArrayList<>();
+		List<Entry> move = new ArrayList<>();
+		for (Entry e : entries) {
+			(((hash(e.key) >>> depth) & 1) == 1 ? move : stay).add(e);
+		}
+		fill(tid, chain, stay, dirtyPages);
+		fill(tid, new ArrayList<>(Collections.singletonList(sibling)), move, dirtyPages);
+	}
+
+	/**
+	 * Rewrite the pages of a chain with the given entries, adding overflow
+	 * pages if they do not fit. Pages left over stay in the chain, empty.
+	 */
+	private void fill(TransactionId tid, List<HashBucketPage> chain, List<Entry> entries, List<Page> dirtyPages)
+			throws DbException, IOException, TransactionAbortedException {
+		for (HashBucketPage p : chain) {
+			p.clear();
+			dirtyPages.add(p);
+		}
+		int i = 0;
+		HashBucketPage p = chain.get(0);
+		for (Entry e : entries) {
+			while (!p.addEntry(e.key, e.page, e.slot)) {
+				if (++i == chain.size()) {
+					HashBucketPage overflow = newBucketPage(tid, dirtyPages);
+					chain.get(i - 1).setNext(overflow.getId().getPageNumber());
+					chain.add(overflow);
+				}
+				p = chain.get(i);
+			}
+		}
+	}
+
+	/**
+	 * Remove an entry from the index. Like an insert, a delete gives back
+	 * the shared lock on the directory once it is done with the bucket.
+	 *
+	 * @return the pages that were modified
+	 * @throws DbException if the index has no such entry
+	 */
+	private List<Page> delete(TransactionId tid, Field key, int recordPage, int recordSlot)
+			throws DbException, IOException, TransactionAbortedException {
+		init();
+		BufferPool bufferPool = Database.getBufferPool();
+		HashPageId dirId = new HashPageId(getId(), DIRECTORY);
+		boolean held = bufferPool.holdsLock(tid, dirId);
+		HashDirectoryPage dir = getDirectory(tid, Permissions.READ_ONLY);
+		for (int pgNo = dir.getBucket(hash(key)); pgNo != 0; ) {
+			HashBucketPage p = getBucket(tid, pgNo, Permissions.READ_WRITE);
+			for (int i = 0; i < p.getNumEntries(); i++) {
+				if (p.getRecordPage(i) == recordPage && p.getRecordSlot(i) == recordSlot && p.getKey(i).equals(key)) {
+					p.removeEntry(i);
+					if (!held) {
+						bufferPool.unsafeReleasePage(tid, dirId);
+					}
+					return new ArrayList<>(Collections.singletonList(p));
+				}
+			}
+			pgNo = p.getNext();
+		}
+		throw new DbException("no index entry for " + key);
+	}
+
+	private static int intValue(Tuple t, int i) {
+		return ((IntField) t.getField(i)).getValue();
+	}
+
+	// see DbFile.java for javadocs
+	public List<Page> insertTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		return insert(tid, t.getField(0), intValue(t, 1), intValue(t, 2));
+	}
+
+	// see DbFile.java for javadocs
+	public List<Page> deleteTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		return delete(tid, t.getField(0), intValue(t, 1), intValue(t, 2));
+	}
+
+	public List<Page> insertEntry(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		RecordId rid = t.getRecordId();
+		return insert(tid, t.getField(keyField), rid.getPageId().getPageNumber(), rid.getTupleNumber());
+	}
+
+	public List<Page> deleteEntry(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		RecordId rid = t.getRecordId();
+		return delete(tid, t.getField(keyField), rid.getPageId().getPageNumber(), rid.getTupleNumber());
+	}
+
+	/**
+	 * Returns the entries whose key equals the field of the predicate. Only
+	 * Predicate.Op.EQUALS is supported.
+	 */
+	public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+		return new HashIndexIterator(tid, ipred);
+	}
+
+	/**
+	 * Returns all entries of the index, bucket by bucket.
+	 */
+	public DbFileIterator iterator(TransactionId tid) {
+		return new HashIndexIterator(tid, null);
+	}
+
+	/**
+	 * 打开时读出所有匹配的项；查找只涉及一个桶，结果不会很多
+	 */
+	private class HashIndexIterator extends AbstractDbFileIterator {
+
+		private final TransactionId tid;
+		private final IndexPredicate ipred;
+		private Iterator<Tuple> it;
+
+		HashIndexIterator(TransactionId tid, IndexPredicate ipred) {
+			this.tid = tid;
+			this.ipred = ipred;
+		}
+
+		public void open() throws DbException, TransactionAbortedException {
+			if (ipred != null && !supports(ipred.getOp())) {
+				throw new DbException("hash index does not support " + ipred.getOp());
+			}
+			try {
+				init();
+			} catch (IOException e) {
+				throw new DbException("could not initialize hash index: " + e.getMessage());
+			}
+			HashDirectoryPage dir = getDirectory(tid, Permissions.READ_ONLY);
+			Set<Integer> buckets = new LinkedHashSet<>();
+			if (ipred != null) {
+				buckets.add(dir.getBucket(hash(ipred.getField())));
+			} else {
+				for (int i = 0; i < dir.getNumEntries(); i++) {
+					buckets.add(dir.getEntry(i));
+				}
+			}
+			List<Tuple> res = new ArrayList<>();
+			for (int pgNo : buckets) {
+				for (; pgNo != 0; ) {
+					HashBucketPage p = getBucket(tid, pgNo, Permissions.READ_ONLY);
+					for (int i = 0; i < p.getNumEntries(); i++) {
+						Field key = p.getKey(i);
+						if (ipred == null || key.equals(ipred.getField())) {
+							Tuple t = new Tuple(td);
+							t.setField(0, key);
+							t.setField(1, new IntField(p.getRecordPage(i)));
+							t.setField(2, new IntField(p.getRecordSlot(i)));
+							t.setRecordId(new RecordId(p.getId(), i));
+							res.add(t);
+						}
+					}
+					pgNo = p.getNext();
+				}
+			}
+			it = res.iterator();
+		}
+
+		@Override
+		protected Tuple readNext() {
+			return it != null && it.hasNext() ? it.next() : null;
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			close();
+			open();
+		}
+
+		@Override
+		public void close() {
+			super.close();
+			it = null;
+		}
+	}
+}
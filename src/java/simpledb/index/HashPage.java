@@ -0,0 +1,99 @@
+package simpledb.index;
+
+import simpledb.storage.BufferPool;
+import simpledb.storage.Page;
+import simpledb.transaction.TransactionId;
+
+import java.util.Arrays;
+
+/**
+ * HashPage holds what the pages of a HashIndexFile have in common: the raw
+ * bytes of the page, which are read and written in place, the dirty flag
+ * and a before image that is only copied when the page is first modified.
+ *
+ * @see HashDirectoryPage
+ * @see HashBucketPage
+ */
+public abstract class HashPage implements Page {
+
+	protected final HashPageId pid;
+	protected final byte[] data;
+
+	private byte[] oldData; // 自上次 setBeforeImage 以来页没有被修改时为 null
+	private final Object oldDataLock = new Object();
+
+	private boolean dirty = false;
+	private TransactionId dirtier = null;
+
+	protected HashPage(HashPageId id, byte[] data) {
+		this.pid = id;
+		this.data = Arrays.copyOf(data, BufferPool.getPageSize());
+		setBeforeImage();
+	}
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public HashPageId getId() {
+		return pid;
+	}
+
+	protected int getInt(int offset) {
+		return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+				| ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+	}
+
+	protected void putInt(int offset, int v) {
+		data[offset] = (byte) (v >>> 24);
+		data[offset + 1] = (byte) (v >>> 16);
+		data[offset + 2] = (byte) (v >>> 8);
+		data[offset + 3] = (byte) v;
+	}
+
+	public byte[] getPageData() {
+		return data.clone();
+	}
+
+	/**
+	 * Returns a copy of the page as it was at the last setBeforeImage.
+	 */
+	protected byte[] getBeforeImageData() {
+		synchronized (oldDataLock) {
+			return (oldData != null ? oldData : data).clone();
+		}
+	}
+
+	public void setBeforeImage() {
+		synchronized (oldDataLock) {
+			oldData = null;
+		}
+	}
+
+	/**
+	 * 修改页内容之前调用，在第一次修改时保存前像
+	 */
+	protected void beforeModify() {
+		synchronized (oldDataLock) {
+			if (oldData == null) {
+				oldData = data.clone();
+			}
+		}
+	}
+
+	/**
+	 * Marks this page as dirty/not dirty and record that transaction
+	 * that did the dirtying
+	 */
+	public void markDirty(boolean dirty, TransactionId tid) {
+		this.dirty = dirty;
+		if (dirty)
+			this.dirtier = tid;
+	}
+
+	/**
+	 * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+	 */
+	public TransactionId isDirty() {
+		return dirty ? dirtier : null;
+	}
+}
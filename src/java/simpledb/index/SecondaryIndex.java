@@ -0,0 +1,96 @@
+package simpledb.index;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Page;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A SecondaryIndex maps the values of one field of a base table, a
+ * HeapFile, to the RecordIds of the tuples that have them. Its entries are
+ * tuples with the TupleDesc returned by getEntryDesc: the key, and the page
+ * number and tuple number of the RecordId.
+ * <p>
+ * An index is registered with {@link simpledb.common.Catalog#addIndex}, and
+ * the BufferPool then keeps it up to date when tuples are inserted into or
+ * deleted from the base table. Indexes stored in pages, such as
+ * HashIndexFile and BTreeIndexFile, are DbFiles as well and are also added
+ * to the catalog as tables, so that their pages are read through the
+ * BufferPool. Indexes kept in memory, such as BitmapIndex, are not.
+ *
+ * @see simpledb.execution.IndexScan
+ */
+public interface SecondaryIndex {
+
+	/**
+	 * @return the TupleDesc of the entries of this index
+	 */
+	TupleDesc getTupleDesc();
+
+	/**
+	 * @return the id of the table this index points into
+	 */
+	int getBaseTableId();
+
+	/**
+	 * @return the index of the indexed field in the base table
+	 */
+	int getKeyField();
+
+	/**
+	 * @return true if indexIterator can answer predicates with this operator
+	 */
+	boolean supports(Predicate.Op op);
+
+	/**
+	 * Add the entry for a tuple that was just inserted into the base table
+	 * and has its RecordId set.
+	 *
+	 * @return the pages that were modified
+	 */
+	List<Page> insertEntry(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException;
+
+	/**
+	 * Remove the entry for a tuple of the base table.
+	 *
+	 * @return the pages that were modified
+	 * @throws DbException if the index has no entry for the tuple
+	 */
+	List<Page> deleteEntry(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException;
+
+	/**
+	 * Returns the entries whose key satisfies the predicate. Use
+	 * getRecordId to find the tuples of the base table they point to.
+	 */
+	DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred);
+
+	/**
+	 * @return the TupleDesc of the entries of an index with keys of the given type
+	 */
+	static TupleDesc getEntryDesc(Type keyType) {
+		return new TupleDesc(new Type[] {keyType, Type.INT_TYPE, Type.INT_TYPE},
+				new String[] {"key", "page", "slot"});
+	}
+
+	/**
+	 * @return the RecordId in the base table that an entry points to
+	 */
+	default RecordId getRecordId(Tuple entry) {
+		return new RecordId(new HeapPageId(getBaseTableId(), ((IntField) entry.getField(1)).getValue()),
+				((IntField) entry.getField(2)).getValue());
+	}
+}
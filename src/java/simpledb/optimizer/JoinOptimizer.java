@@ -299,6 +299,10 @@ public class JoinOptimizer {
         // some code goes here
         //Replace the following
         int size = joins.size();
+        // 单表查询没有连接需要排序
+        if (size == 0) {
+            return joins;
+        }
         PlanCache planCache = new PlanCache();
         CostCard bestCostCard = null;
 
@@ -4,6 +4,10 @@ import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BitmapIndex;
+import simpledb.index.SecondaryIndex;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionId;
 
@@ -274,6 +278,149 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Find the fields of a table that the plan refers to, so that a scan of a table
+     *  stored by column only has to read those.
+     *  @return the indexes of the fields, or null if the plan needs all of them (SELECT *)
+     */
+    private int[] usedFields(LogicalScanNode table) {
+        Set<String> names = new HashSet<>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*")) {
+                return null;
+            }
+            names.add(si.fname);
+        }
+        for (LogicalFilterNode lf : filters) {
+            names.add(lf.fieldQuantifiedName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode)) {
+                names.add(lj.f2QuantifiedName);
+            }
+        }
+        names.add(aggField);
+        names.add(groupByField);
+        names.add(oByField);
+
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        List<Integer> fields = new ArrayList<>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (names.contains(table.alias + "." + td.getFieldName(i))) {
+                fields.add(i);
+            }
+        }
+        int[] res = new int[fields.size()];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = fields.get(i);
+        }
+        return res;
+    }
+
+    /** Choose how to read a table: a sequential scan, a lookup in one of the
+     *  table's secondary indexes that answers one of its filters, or the AND of
+     *  the bitmap indexes that answer its filters, whichever the table statistics
+     *  say is cheaper. The filters are applied on top either way.
+     *  @return ss, an IndexScan or a BitmapScan of the table
+     */
+    private OpIterator accessMethod(TransactionId t, LogicalScanNode table, SeqScan ss, TableStats stats, boolean explain) {
+        if (stats == null) {
+            return ss;
+        }
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        OpIterator best = ss;
+        double bestCost = stats.estimateScanCost();
+        List<BitmapIndex> bitmaps = new ArrayList<>();
+        List<IndexPredicate> bitmapPreds = new ArrayList<>();
+        double bitmapSel = 1.0;
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias)) {
+                continue;
+            }
+            int field;
+            Field operand;
+            try {
+                field = td.fieldNameToIndex(lf.fieldPureName);
+                operand = td.getFieldType(field) == Type.INT_TYPE
+                        ? new IntField(Integer.parseInt(lf.c)) : new StringField(lf.c, Type.STRING_LEN);
+            } catch (NoSuchElementException | NumberFormatException e) {
+                continue; // the filter loop reports the error
+            }
+            for (SecondaryIndex index : Database.getCatalog().getIndexes(table.t)) {
+                if (index.getKeyField() != field || !index.supports(lf.p)) {
+                    continue;
+                }
+                if (index instanceof BitmapIndex) {
+                    // 位图索引的条件合在一起，按 AND 之后的选择率估算
+                    bitmaps.add((BitmapIndex) index);
+                    bitmapPreds.add(new IndexPredicate(lf.p, operand));
+                    bitmapSel *= stats.estimateSelectivity(field, lf.p, operand);
+                    break;
+                }
+                double cost = stats.estimateIndexScanCost(stats.estimateSelectivity(field, lf.p, operand));
+                if (cost < bestCost) {
+                    best = new IndexScan(t, index, new IndexPredicate(lf.p, operand), table.alias);
+                    bestCost = cost;
+                }
+            }
+        }
+        if (!bitmaps.isEmpty() && stats.estimateBitmapScanCost(bitmapSel) < bestCost) {
+            best = new BitmapScan(t, bitmaps, bitmapPreds, table.alias);
+        }
+        if (explain && best instanceof IndexScan) {
+            System.out.println("Using index on " + table.alias + "." + td.getFieldName(((IndexScan) best).getIndex().getKeyField()));
+        }
+        if (explain && best instanceof BitmapScan) {
+            for (BitmapIndex index : bitmaps) {
+                System.out.println("Using bitmap index on " + table.alias + "." + td.getFieldName(index.getKeyField()));
+            }
+        }
+        return best;
+    }
+
+    /** If the plan reads a single table stored as a B+ tree and orders the result
+     *  by the key of the tree, read the table in key order, ascending or descending
+     *  as the ORDER BY asks, so that the result does not have to be sorted. A filter
+     *  on the key bounds the scan; the filters are applied on top either way.
+     *  @return a BTreeScan of the table, or null if the result has to be sorted
+     */
+    private OpIterator orderedScan(TransactionId t, LogicalScanNode table, boolean explain) {
+        if (!hasOrderBy || hasAgg || tables.size() != 1 || !joins.isEmpty()) {
+            return null;
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+        if (!(file instanceof BTreeFile)) {
+            return null;
+        }
+        TupleDesc td = file.getTupleDesc();
+        int key = ((BTreeFile) file).keyField();
+        if (!oByField.equals(table.alias + "." + td.getFieldName(key))) {
+            return null;
+        }
+        IndexPredicate ipred = null;
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.fieldQuantifiedName.equals(oByField)
+                    || lf.p == Predicate.Op.NOT_EQUALS || lf.p == Predicate.Op.LIKE) {
+                continue;
+            }
+            Field operand;
+            try {
+                operand = td.getFieldType(key) == Type.INT_TYPE
+                        ? new IntField(Integer.parseInt(lf.c)) : new StringField(lf.c, Type.STRING_LEN);
+            } catch (NumberFormatException e) {
+                continue; // the filter loop reports the error
+            }
+            // 等值条件范围最小，优先用它
+            if (ipred == null || lf.p == Predicate.Op.EQUALS) {
+                ipred = new IndexPredicate(lf.p, operand);
+            }
+        }
+        if (explain) {
+            System.out.println("Using B+ tree scan on " + oByField + (oByAsc ? "" : " in descending order"));
+        }
+        return new BTreeScan(t, table.t, table.alias, ipred, !oByAsc);
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -292,6 +439,8 @@ public class LogicalPlan {
         Map<String,String> equivMap = new HashMap<>();
         Map<String,Double> filterSelectivities = new HashMap<>();
         Map<String,TableStats> statsMap = new HashMap<>();
+        Map<String,SeqScan> scans = new HashMap<>();
+        boolean sorted = false;
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -302,8 +451,12 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table " + table.t);
             }
             
-            subplanMap.put(table.alias,ss);
+            ss.setProjection(usedFields(table));
+            scans.put(table.alias, ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
+            OpIterator ordered = orderedScan(t, table, explain);
+            sorted = ordered != null;
+            subplanMap.put(table.alias, sorted ? ordered : accessMethod(t, table, ss, baseTableStats.get(baseTableName), explain));
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
 
@@ -336,6 +489,8 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // 过滤条件也交给扫描，让它跳过不可能匹配的页
+            scans.get(lf.tableAlias).addPredicate(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
@@ -471,7 +626,7 @@ public class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
+        if (hasOrderBy && !sorted) {
             node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
         }
 
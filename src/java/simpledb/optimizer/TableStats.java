@@ -6,6 +6,8 @@ import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.SecondaryIndex;
 import simpledb.storage.*;
 import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionAbortedException;
@@ -72,6 +74,10 @@ public class TableStats {
         System.out.println("Computing table stats.");
         while (tableIt.hasNext()) {
             int tableid = tableIt.next();
+            // 索引也登记为表，但不需要统计信息
+            if (Database.getCatalog().getDatabaseFile(tableid) instanceof SecondaryIndex) {
+                continue;
+            }
             TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
             setTableStats(Database.getCatalog().getTableName(tableid), s);
         }
@@ -106,10 +112,10 @@ public class TableStats {
         // some code goes here
         this.tableId = tableid;
         this.ioCostPerPage = ioCostPerPage;
-        HeapFile heapFile = (HeapFile) catalog.getDatabaseFile(tableid);
-        this.tupleDesc  = heapFile.getTupleDesc();
-        this.numPages = heapFile.numPages();
-        this.dbFileIterator = heapFile.iterator(new TransactionId());
+        DbFile dbFile = catalog.getDatabaseFile(tableid);
+        this.tupleDesc  = dbFile.getTupleDesc();
+        this.numPages = numPages(dbFile);
+        this.dbFileIterator = dbFile.iterator(new TransactionId());
 
         this.max  = new int[tupleDesc.numFields()];
         this.min = new int[tupleDesc.numFields()];
@@ -167,6 +173,24 @@ public class TableStats {
         this.dbFileIterator.close();
     }
 
+    /**
+     * 全表扫描要读的页数；按列存储的表是所有列的页数之和，B+ 树按其全部页计算
+     */
+    private static int numPages(DbFile dbFile) {
+        if (dbFile instanceof ColumnarFile) {
+            ColumnarFile columnarFile = (ColumnarFile) dbFile;
+            int n = 0;
+            for (int i = 0; i < columnarFile.getTupleDesc().numFields(); i++) {
+                n += columnarFile.numPages(i);
+            }
+            return n;
+        }
+        if (dbFile instanceof BTreeFile) {
+            return ((BTreeFile) dbFile).numPages();
+        }
+        return ((HeapFile) dbFile).numPages();
+    }
+
     /**
      * Estimates the cost of sequentially scanning the file, given that the cost
      * to read a page is costPerPageIO. You can assume that there are no seeks
@@ -184,6 +208,39 @@ public class TableStats {
         return this.numPages*ioCostPerPage;
     }
 
+    /**
+     * Estimates the cost of fetching the tuples that satisfy a predicate
+     * through a secondary index: a couple of index pages, and one page of
+     * the table for each matching tuple, but never more pages than the
+     * table has.
+     *
+     * @param selectivityFactor
+     *            The selectivity of the predicate the index answers
+     * @return The estimated cost of the index lookup and the page fetches.
+     */
+    public double estimateIndexScanCost(double selectivityFactor) {
+        return (2 + Math.min(estimateTableCardinality(selectivityFactor), numPages)) * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of fetching the tuples that satisfy a predicate when
+     * their positions are known without reading any page, as with bitmap
+     * indexes. The tuples are fetched in page order, so each page that holds
+     * at least one of them is read once; the tuples are assumed to be spread
+     * evenly over the pages.
+     *
+     * @param selectivityFactor
+     *            The selectivity of the predicate
+     * @return The estimated cost of reading the pages that hold matching tuples.
+     */
+    public double estimateBitmapScanCost(double selectivityFactor) {
+        if (numPages == 0) {
+            return 0;
+        }
+        double tuplesPerPage = (double) total / numPages;
+        return numPages * (1 - Math.pow(1 - selectivityFactor, tuplesPerPage)) * ioCostPerPage;
+    }
+
     /**
      * This method returns the number of tuples in the relation, given that a
      * predicate with selectivity selectivityFactor is applied.
@@ -0,0 +1,114 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.Predicate;
+
+/**
+ * ArcPolicy implements Adaptive Replacement Cache (Megiddo and Modha).
+ * Resident pages are split between T1, pages seen once recently, and T2,
+ * pages seen at least twice. Ghost lists B1 and B2 remember the ids of
+ * pages recently evicted from T1 and T2. A miss that hits a ghost list
+ * shifts the target size p of T1 towards the list that would have kept
+ * the page, so the policy adapts between recency and frequency, and a
+ * long scan only churns T1.
+ * <p>
+ * The victim is normally taken from T1 when it is larger than p and from
+ * T2 otherwise. Since the BufferPool evicts before it knows the incoming
+ * page, the original tie-break on whether that page is in B2 is dropped.
+ *
+ * @Threadsafe
+ */
+public class ArcPolicy implements EvictionPolicy {
+
+    private final int capacity;
+    private int p = 0;
+
+    // 每个列表按插入顺序保存：第一个元素是 LRU 端，最后一个是 MRU 端
+    private final LinkedHashSet<PageId> t1 = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> t2 = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> b1 = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> b2 = new LinkedHashSet<>();
+
+    public ArcPolicy(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public synchronized void recordAccess(PageId pid) {
+        if (t1.remove(pid) || t2.remove(pid)) {
+            t2.add(pid);
+        }
+    }
+
+    public synchronized void recordInsert(PageId pid) {
+        if (t1.contains(pid) || t2.contains(pid)) {
+            recordAccess(pid);
+            return;
+        }
+        if (b1.remove(pid)) {
+            int delta = Math.max(b2.size() / Math.max(b1.size(), 1), 1);
+            p = Math.min(capacity, p + delta);
+            t2.add(pid);
+        } else if (b2.remove(pid)) {
+            int delta = Math.max(b1.size() / Math.max(b2.size(), 1), 1);
+            p = Math.max(0, p - delta);
+            t2.add(pid);
+        } else {
+            t1.add(pid);
+        }
+        trimGhosts();
+    }
+
+    public synchronized void recordRemove(PageId pid) {
+        if (!t1.remove(pid)) {
+            t2.remove(pid);
+        }
+    }
+
+    public synchronized PageId evict(Predicate<PageId> evictable) {
+        boolean fromT1 = !t1.isEmpty() && t1.size() > p;
+        PageId victim = fromT1 ? evictFrom(t1, b1, evictable) : evictFrom(t2, b2, evictable);
+        if (victim == null) {
+            victim = fromT1 ? evictFrom(t2, b2, evictable) : evictFrom(t1, b1, evictable);
+        }
+        trimGhosts();
+        return victim;
+    }
+
+    /**
+     * Move the least recently used evictable page of a resident list to
+     * the MRU end of its ghost list.
+     */
+    private PageId evictFrom(LinkedHashSet<PageId> list, LinkedHashSet<PageId> ghost,
+                             Predicate<PageId> evictable) {
+        for (Iterator<PageId> it = list.iterator(); it.hasNext(); ) {
+            PageId pid = it.next();
+            if (evictable.test(pid)) {
+                it.remove();
+                ghost.add(pid);
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    /** Keep |T1| + |B1| <= c and |T1| + |T2| + |B1| + |B2| <= 2c. */
+    private void trimGhosts() {
+        while (!b1.isEmpty() && t1.size() + b1.size() > capacity) {
+            removeLru(b1);
+        }
+        while (!b2.isEmpty() && t1.size() + t2.size() + b1.size() + b2.size() > 2 * capacity) {
+            removeLru(b2);
+        }
+    }
+
+    private static void removeLru(LinkedHashSet<PageId> list) {
+        Iterator<PageId> it = list.iterator();
+        it.next();
+        it.remove();
+    }
+
+    public Type getType() {
+        return Type.ARC;
+    }
+}
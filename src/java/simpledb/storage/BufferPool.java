@@ -4,15 +4,24 @@ import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.common.DbException;
 import simpledb.common.DeadlockException;
+import simpledb.index.SecondaryIndex;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -37,10 +46,51 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50; // 默认 buffer 中保存的页数
 
-    private int numPages;
+    private final int numPages;
+
+    private final PageTable buffer;
+
+    private final LockManager lockManager;
+
+    /** How long evictPage waits for a page to be unpinned or cleaned before giving up. */
+    private static final long EVICTION_WAIT_MILLIS = 1000;
+
+    // 每个事务持有的 pin 及次数，事务结束时一并释放，避免未关闭的迭代器把页永久钉住
+    private final ConcurrentHashMap<TransactionId, ConcurrentHashMap<PageId, Integer>> pins;
+
+    // 每个事务以写权限访问过的页；只有这些页可能被它弄脏，提交和回滚时只检查这些页
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> writtenPages;
+
+    // 全局脏页表：可能为脏的页及以写权限访问它的事务，刷盘时不必扫描整个 buffer
+    private final ConcurrentHashMap<PageId, TransactionId> dirtyPages;
+
+    /** Fraction of the pool waiting to be written back above which commits wake the page cleaner. */
+    private static final double CLEANER_HIGH_WATERMARK = 0.5;
+
+    // 已提交但尚未写回磁盘的页，按提交顺序排列；只在持有 BufferPool 监视器时访问
+    private final LinkedHashSet<PageId> unwritten;
+
+    // 后台写回线程；为 null 时提交直接刷盘（FORCE）
+    private volatile PageCleaner cleaner;
+
+    /** Largest number of pages read ahead for a sequential scan. */
+    public static final int READ_AHEAD_PAGES = 16;
+
+    // 通过 DbFile 写页的前后各递增一次，写的过程中为奇数；只在持有 BufferPool 监视器时修改。
+    // 在监视器外读盘的页若读的期间有写入，可能已过时，要丢弃或重读
+    private volatile long writeEpoch = 0;
+
+    // 预读线程，在后台把顺序扫描接下来要读的页读入 buffer
+    private final ExecutorService readAheadExecutor;
+
+    // 已安排预读但还没读完的页；getPage 遇到这些页时等待预读完成，避免重复读盘
+    private final ConcurrentHashMap<PageId, CompletableFuture<Void>> readingAhead;
+
+    private final LongAdder prefetched = new LongAdder();
+
+    // 正在 evictPage 中等待的线程数，只在持有 BufferPool 监视器时修改
+    private volatile int evictionWaiters = 0;
 
-//    private Map<PageId, Page> buffer;
-    private LRUCache<PageId, Page> buffer;
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
@@ -48,14 +98,65 @@ public class BufferPool {
      */
     public BufferPool(int numPages) {
         // some code goes here
+        this(numPages, EvictionPolicy.Type.CLOCK);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and replaces
+     * them with the given eviction policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policyType the eviction policy to use
+     */
+    public BufferPool(int numPages, EvictionPolicy.Type policyType) {
         this.numPages = numPages;
-//        this.buffer = new HashMap<>(numPages);
-        this.buffer = new LRUCache<>(numPages);
+        this.buffer = new PageTable(numPages, policyType);
+        this.lockManager = new LockManager();
+        this.pins = new ConcurrentHashMap<>();
+        this.writtenPages = new ConcurrentHashMap<>();
+        this.dirtyPages = new ConcurrentHashMap<>();
+        this.unwritten = new LinkedHashSet<>();
+        this.readingAhead = new ConcurrentHashMap<>();
+        this.readAheadExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "read-ahead");
+            t.setDaemon(true);
+            return t;
+        });
     }
     
     public static int getPageSize() {
       return pageSize;
     }
+
+    /** Return the maximum number of pages in this buffer pool */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /** Return the eviction policy used by this buffer pool */
+    public EvictionPolicy.Type getEvictionPolicy() {
+        return buffer.getPolicy().getType();
+    }
+
+    /** Return the number of getPage calls that found the page resident */
+    public long getHits() {
+        return buffer.getHits();
+    }
+
+    /** Return the number of getPage calls that had to read the page from disk */
+    public long getMisses() {
+        return buffer.getMisses();
+    }
+
+    /** Return the fraction of getPage calls served from the pool */
+    public double getHitRate() {
+        return buffer.getHitRate();
+    }
+
+    /** Reset the hit and miss counters, e.g. between benchmark phases */
+    public void resetStats() {
+        buffer.resetStats();
+    }
     
     // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
     public static void setPageSize(int pageSize) {
@@ -85,18 +186,271 @@ public class BufferPool {
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        if (this.buffer.get(pid) == null) {
+        return getPage(tid, pid, perm, false);
+    }
+
+    /**
+     * Retrieve the specified page like {@link #getPage} and pin it, so that
+     * it stays in the buffer pool until the caller is done with it. Every
+     * call must be matched by a call to {@link #unpinPage}; pins that are
+     * still held when the transaction completes are dropped then.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, true);
+    }
+
+    private Page getPage(TransactionId tid, PageId pid, Permissions perm, boolean pin)
+        throws TransactionAbortedException, DbException {
+        // 先加锁，再访问 buffer；等待锁时不能持有 BufferPool 的监视器
+        lockManager.acquire(tid, pid, perm);
+        if (perm == Permissions.READ_WRITE) {
+            noteWrite(tid, pid);
+        }
+
+        // 先 pin 再查找，查到的页就不会在返回前被淘汰
+        if (pin) {
+            addPin(tid, pid);
+        }
+        try {
+            Page page = this.buffer.get(pid);
+            if (page != null) {
+                return page;
+            }
+            // 该页正在预读时等它读完，而不是再读一次
+            CompletableFuture<Void> ahead = readingAhead.get(pid);
+            if (ahead != null) {
+                ahead.join();
+                page = this.buffer.peek(pid);
+                if (page != null) {
+                    return page;
+                }
+            }
+            // 在监视器外读盘，只在淘汰和放入时持有监视器
             DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page page = dbFile.readPage(pid);
+            long epoch = writeEpoch;
+            page = dbFile.readPage(pid);
+            synchronized (this) {
+                while (true) {
+                    Page resident = this.buffer.peek(pid);
+                    if (resident != null) {
+                        return resident;
+                    }
+                    // 读盘期间有写入则可能读到旧页，持有监视器时重读；此时没有写入在进行
+                    if (epoch != writeEpoch || (epoch & 1) != 0) {
+                        epoch = writeEpoch;
+                        page = dbFile.readPage(pid);
+                    }
+                    if (page == null) {
+                        throw new DbException("page " + pid + " does not exist");
+                    }
+                    if (buffer.isFull()) {
+                        // evictPage 可能写回页或等待时放开监视器，回到循环开头重新检查
+                        evictPage();
+                    }
+                    if (epoch == writeEpoch) {
+                        break;
+                    }
+                }
+                this.buffer.put(pid, page);
+                return page;
+            }
+        } catch (DbException | RuntimeException e) {
+            if (pin) {
+                unpinPage(tid, pid);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Lock the specified page like {@link #getPage} would, but only if the
+     * lock can be granted without waiting. The page itself is not fetched;
+     * a following getPage with the same permissions returns at once.
+     *
+     * @return true if the transaction now holds the lock
+     */
+    public boolean tryLockPage(TransactionId tid, PageId pid, Permissions perm) {
+        if (!lockManager.tryAcquire(tid, pid, perm)) {
+            return false;
+        }
+        if (perm == Permissions.READ_WRITE) {
+            noteWrite(tid, pid);
+        }
+        return true;
+    }
+
+    /**
+     * Record that the specified transaction may dirty the specified page.
+     */
+    private void noteWrite(TransactionId tid, PageId pid) {
+        writtenPages.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid);
+        dirtyPages.put(pid, tid);
+    }
+
+    /** Return the number of pages that may be dirty, i.e. the size of the dirty-page table */
+    public int getDirtyPageCount() {
+        return dirtyPages.size();
+    }
+
+    private void addPin(TransactionId tid, PageId pid) {
+        pins.computeIfAbsent(tid, k -> new ConcurrentHashMap<>()).merge(pid, 1, Integer::sum);
+        buffer.pin(pid);
+    }
+
+    /**
+     * Return how many pages a sequential scan should read ahead: at most
+     * READ_AHEAD_PAGES, and at most a quarter of the pool so that read-ahead
+     * does not push out the pages the scan is still using.
+     */
+    public int getReadAheadWindow() {
+        return Math.min(READ_AHEAD_PAGES, numPages / 4);
+    }
+
+    /**
+     * Ask the pool to read the given pages in the background, ahead of a
+     * sequential scan that will ask for them shortly. No locks are taken;
+     * the scan still locks each page when it asks for it with getPage, which
+     * waits for a page that is being read ahead instead of reading it again.
+     * Pages that are resident or already being read ahead are skipped.
+     *
+     * @param pids the pages to read, in the order the scan will want them
+     */
+    public void readAhead(List<PageId> pids) {
+        List<PageId> toRead = new ArrayList<>(pids.size());
+        for (PageId pid : pids) {
+            if (!buffer.contains(pid) && readingAhead.putIfAbsent(pid, new CompletableFuture<>()) == null) {
+                toRead.add(pid);
+            }
+        }
+        if (toRead.isEmpty()) {
+            return;
+        }
+        try {
+            readAheadExecutor.execute(() -> {
+                for (PageId pid : toRead) {
+                    prefetch(pid);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            for (PageId pid : toRead) {
+                finishReadAhead(pid);
+            }
+        }
+    }
+
+    /**
+     * Read a page for read-ahead and install it. The page is dropped if the
+     * pool wrote any page while it was being read, since it may be stale,
+     * and read-ahead never waits for room: it gives up on the page if that
+     * would mean evicting a dirty, pinned or unwritten page.
+     */
+    private void prefetch(PageId pid) {
+        try {
+            long epoch = writeEpoch;
+            Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            synchronized (this) {
+                if (page != null && (epoch & 1) == 0 && epoch == writeEpoch && !buffer.contains(pid)
+                        && (!buffer.isFull()
+                            || buffer.evict(p -> p.isDirty() == null && !unwritten.contains(p.getId())) != null)) {
+                    buffer.putPrefetched(pid, page);
+                    prefetched.increment();
+                }
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            finishReadAhead(pid);
+        }
+    }
+
+    private void finishReadAhead(PageId pid) {
+        CompletableFuture<Void> done = readingAhead.remove(pid);
+        if (done != null) {
+            done.complete(null);
+        }
+    }
+
+    /** Return the number of pages installed by read-ahead */
+    public long getPrefetchedCount() {
+        return prefetched.sum();
+    }
+
+    /**
+     * Stop the background threads of this buffer pool: the page cleaner,
+     * which writes back what it had not written yet, and read-ahead.
+     */
+    public void shutdown() {
+        stopPageCleaner();
+        readAheadExecutor.shutdownNow();
+        for (PageId pid : new ArrayList<>(readingAhead.keySet())) {
+            finishReadAhead(pid);
+        }
+    }
+
+    /**
+     * Drop a pin taken by {@link #pinPage}. Does nothing if the transaction
+     * holds no pin on the page, e.g. because it has already completed.
+     *
+     * @param tid the ID of the transaction that pinned the page
+     * @param pid the ID of the page to unpin
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+        Map<PageId, Integer> held = pins.get(tid);
+        if (held == null) {
+            return;
+        }
+        while (true) {
+            Integer n = held.get(pid);
+            if (n == null) {
+                return;
+            }
+            if (n == 1 ? held.remove(pid, n) : held.replace(pid, n, n - 1)) {
+                break;
+            }
+        }
+        if (buffer.unpin(pid)) {
+            wakeEvictors();
+        }
+    }
+
+    /** Return true if the specified page is pinned by any transaction */
+    public boolean isPinned(PageId pid) {
+        return buffer.isPinned(pid);
+    }
+
+    /**
+     * Drop every pin still held by the specified transaction.
+     */
+    private void releasePins(TransactionId tid) {
+        Map<PageId, Integer> held = pins.remove(tid);
+        if (held == null) {
+            return;
+        }
+        boolean freed = false;
+        for (Map.Entry<PageId, Integer> e : held.entrySet()) {
+            for (int i = 0; i < e.getValue(); i++) {
+                freed |= buffer.unpin(e.getKey());
+            }
+        }
+        if (freed) {
+            wakeEvictors();
+        }
+    }
 
-            if (buffer.getSize() >= numPages) {
-                evictPage();
+    /**
+     * Wake up threads waiting in evictPage for a page to become evictable.
+     */
+    private void wakeEvictors() {
+        if (evictionWaiters > 0) {
+            synchronized (this) {
+                notifyAll();
             }
-            // 空间够用则继续放入page
-            this.buffer.put(pid, page);
-            return page;
         }
-        return this.buffer.get(pid);
     }
 
     /**
@@ -111,6 +465,7 @@ public class BufferPool {
     public  void unsafeReleasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -121,13 +476,60 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) {
         // some code goes here
         // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(tid, p);
+    }
+
+    /**
+     * Start a background thread that writes pages of committed transactions
+     * back to disk. While it runs, a commit logs the pages the transaction
+     * dirtied and forces the log once, and leaves the writes to the page
+     * cleaner (NO FORCE). Recovering those pages after a crash depends on
+     * the log, so the pool forces pages at commit unless the cleaner is
+     * started.
+     */
+    public synchronized void startPageCleaner() {
+        if (cleaner == null) {
+            cleaner = new PageCleaner(this);
+            cleaner.start();
+        }
+    }
+
+    /**
+     * Stop the page cleaner, if it is running, and write back every page it
+     * had not written yet. Later commits force their pages again.
+     */
+    public void stopPageCleaner() {
+        PageCleaner c;
+        synchronized (this) {
+            c = cleaner;
+            cleaner = null;
+        }
+        if (c == null) {
+            return;
+        }
+        c.shutdown();
+        try {
+            writeBackAll();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Return true if commits are written back by the page cleaner */
+    public boolean isPageCleanerRunning() {
+        return cleaner != null;
+    }
+
+    /** Return the number of committed pages that have not been written back yet */
+    public synchronized int getUnwrittenPageCount() {
+        return unwritten.size();
     }
 
     /**
@@ -140,6 +542,176 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
+        try {
+            if (commit) {
+                if (cleaner != null) {
+                    handOffPages(tid);
+                } else {
+                    flushPages(tid);
+                }
+            } else {
+                restorePages(tid);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            forgetWrites(tid);
+            releasePins(tid);
+            lockManager.releaseAll(tid);
+        }
+    }
+
+    /**
+     * Drop the pages of a completed transaction from the dirty-page table.
+     * After a commit or an abort none of them is dirty any more.
+     */
+    private void forgetWrites(TransactionId tid) {
+        Set<PageId> written = writtenPages.remove(tid);
+        if (written == null) {
+            return;
+        }
+        for (PageId pid : written) {
+            dirtyPages.remove(pid, tid);
+        }
+    }
+
+    /**
+     * Log the pages dirtied by the specified transaction, force the log once
+     * and queue the pages for the page cleaner instead of writing them. The
+     * committed state of each page becomes its before image, which is what
+     * the cleaner writes, so the page may be dirtied again before then.
+     */
+    private synchronized void handOffPages(TransactionId tid) throws IOException {
+        boolean logged = false;
+        for (PageId pid : writtenPages.getOrDefault(tid, Collections.emptySet())) {
+            Page page = buffer.peek(pid);
+            if (page != null && tid.equals(page.isDirty())) {
+                Database.getLogFile().logWrite(tid, page.getBeforeImage(), page);
+                page.markDirty(false, null);
+                page.setBeforeImage();
+                // 移到队尾，写回顺序跟随最近一次提交
+                unwritten.remove(pid);
+                unwritten.add(pid);
+                logged = true;
+            }
+        }
+        if (logged) {
+            Database.getLogFile().force();
+        }
+        PageCleaner c = cleaner;
+        if (c != null && unwritten.size() > numPages * CLEANER_HIGH_WATERMARK) {
+            c.wake();
+        }
+        wakeEvictors();
+    }
+
+    /**
+     * Write back one batch of committed pages, oldest commit first. The batch
+     * grows with the square of the fraction of the pool waiting to be
+     * written, and is at least one page. The monitor is taken once per page
+     * so that other threads are not held up for the whole batch.
+     *
+     * @return the number of pages written
+     */
+    int writeBackBatch() {
+        int batch;
+        synchronized (this) {
+            int pending = unwritten.size();
+            if (pending == 0) {
+                return 0;
+            }
+            double ratio = (double) pending / numPages;
+            batch = Math.max(1, (int) Math.ceil(pending * ratio));
+        }
+        int written = 0;
+        for (int i = 0; i < batch; i++) {
+            synchronized (this) {
+                if (unwritten.isEmpty()) {
+                    break;
+                }
+                PageId pid = unwritten.iterator().next();
+                try {
+                    writeBack(pid);
+                    written++;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    break;
+                }
+            }
+        }
+        if (written > 0) {
+            wakeEvictors();
+        }
+        return written;
+    }
+
+    /**
+     * Write a page through its DbFile. writeEpoch is odd while the write is
+     * in progress, so a page read from disk without the monitor can be told
+     * apart from one that may have raced with a write. Caller must hold the
+     * monitor.
+     */
+    private void writePage(DbFile dbFile, Page page) throws IOException {
+        writeEpoch++;
+        try {
+            dbFile.writePage(page);
+        } finally {
+            writeEpoch++;
+        }
+    }
+
+    /**
+     * Write the committed state of a page to disk. The before image is
+     * written rather than the page itself, since an active transaction may
+     * have modified the page since the commit. Caller must hold the monitor.
+     */
+    private void writeBack(PageId pid) throws IOException {
+        Page page = buffer.peek(pid);
+        if (page != null) {
+            DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            writePage(dbFile, page.getBeforeImage());
+        }
+        unwritten.remove(pid);
+    }
+
+    private synchronized void writeBackAll() throws IOException {
+        while (!unwritten.isEmpty()) {
+            writeBack(unwritten.iterator().next());
+        }
+    }
+
+    /**
+     * Restore every page dirtied by the specified transaction to its last
+     * committed state. Dirty pages are never written before commit, so the
+     * disk holds that state unless a committed version of the page is still
+     * waiting for the page cleaner, in which case it is the before image.
+     * Clean pages the transaction locked for writing are restored as well:
+     * an operation that was aborted half way, e.g. by a deadlock in the
+     * middle of a B+ tree split, may have changed them without returning
+     * them to be marked dirty.
+     */
+    private synchronized void restorePages(TransactionId tid) {
+        for (PageId pid : writtenPages.getOrDefault(tid, Collections.emptySet())) {
+            Page page = buffer.peek(pid);
+            if (page != null && (page.isDirty() == null || tid.equals(page.isDirty()))) {
+                Page restored;
+                if (unwritten.contains(pid)) {
+                    restored = page.getBeforeImage();
+                } else {
+                    DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                    restored = dbFile.readPage(pid);
+                }
+                buffer.put(pid, restored);
+                if (restored instanceof HeapPage) {
+                    // 中止的插入可能已在空闲空间表中把该页标记为满
+                    DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                    if (dbFile instanceof HeapFile) {
+                        ((HeapFile) dbFile).pageRestored((HeapPage) restored);
+                    }
+                }
+            }
+        }
+        wakeEvictors();
     }
 
     /**
@@ -163,11 +735,27 @@ public class BufferPool {
         // not necessary for lab1
         DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
 
-        List<Page> pages = dbFile.insertTuple(tid, t);
+        List<Page> pages = new ArrayList<>(dbFile.insertTuple(tid, t));
+        // 表上的二级索引随表一起更新
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+            pages.addAll(index.insertEntry(tid, t));
+        }
         for (Page page : pages) {
+            noteWrite(tid, page.getId());
             page.markDirty(true, tid);
-            buffer.put(page.getId(), page);
+            installPage(page);
+        }
+    }
+
+    /**
+     * Put a page into the buffer pool, replacing any resident version of it
+     * and evicting another page if the pool is full.
+     */
+    private synchronized void installPage(Page page) throws DbException {
+        if (!buffer.contains(page.getId()) && buffer.isFull()) {
+            evictPage();
         }
+        buffer.put(page.getId(), page);
     }
 
     /**
@@ -187,11 +775,17 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-        DbFile dbFile = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
-        List<Page> pages = dbFile.deleteTuple(tid, t);
+        int tableId = t.getRecordId().getPageId().getTableId();
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
+        List<Page> pages = new ArrayList<>(dbFile.deleteTuple(tid, t));
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+            pages.addAll(index.deleteEntry(tid, t));
+        }
 
         for (Page page : pages) {
+            noteWrite(tid, page.getId());
             page.markDirty(true, tid);
+            installPage(page);
         }
     }
 
@@ -204,11 +798,11 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        LRUCache<PageId, Page>.DLinkedNode head = buffer.getHead();
-        LRUCache<PageId, Page>.DLinkedNode tail = buffer.getTail();
-
-        while (head != tail) {
-            Page page = head.value;
+        // 先写回已提交未写回的页，之后的脏页会覆盖它们
+        writeBackAll();
+        // 只需检查脏页表中的页
+        for (PageId pid : dirtyPages.keySet()) {
+            Page page = buffer.peek(pid);
             if (page != null && page.isDirty() != null) {
                 DbFile dbFile = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
                 // 记录日志
@@ -216,12 +810,11 @@ public class BufferPool {
                     Database.getLogFile().logWrite(page.isDirty(), page.getBeforeImage(), page);
                     Database.getLogFile().force();
 
-                    dbFile.writePage(page);
+                    writePage(dbFile, page);
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
             }
-            head = head.next;
         }
     }
 
@@ -237,17 +830,9 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        LRUCache<PageId, Page>.DLinkedNode head = buffer.getHead();
-        LRUCache<PageId, Page>.DLinkedNode tail = buffer.getTail();
-
-        while (head != tail) {
-            PageId key = head.key;
-            if (key.equals(pid) && key != null) {
-                buffer.remove(head);
-                return;
-            }
-            head = head.next;
-        }
+        buffer.remove(pid);
+        dirtyPages.remove(pid);
+        unwritten.remove(pid);
     }
 
     /**
@@ -258,7 +843,7 @@ public class BufferPool {
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-        Page page = buffer.get(pid);
+        Page page = buffer.peek(pid);
 
         if (page != null && page.isDirty() != null) {
             DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
@@ -266,7 +851,7 @@ public class BufferPool {
                 Database.getLogFile().logWrite(page.isDirty(), page.getBeforeImage(), page);
                 Database.getLogFile().force();
                 page.markDirty(false, null);
-                dbFile.writePage(page);
+                writePage(dbFile, page);
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -279,61 +864,75 @@ public class BufferPool {
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        LRUCache<PageId, Page>.DLinkedNode head = buffer.getHead();
-        LRUCache<PageId, Page>.DLinkedNode tail = buffer.getTail();
-
-        while (head != tail) {
-            Page page = head.value;
-            if (page != null && page.isDirty() != null && page.isDirty().equals(tid)) {
-                DbFile dbFile = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
+        for (PageId pid : writtenPages.getOrDefault(tid, Collections.emptySet())) {
+            Page page = buffer.peek(pid);
+            if (page != null && tid.equals(page.isDirty())) {
+                DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
 
                 try{
                     Database.getLogFile().logWrite(page.isDirty(),page.getBeforeImage(),page);
                     Database.getLogFile().force();
                     page.markDirty(false,null);
 
-                    dbFile.writePage(page);
+                    writePage(dbFile, page);
                     page.setBeforeImage();
+                    unwritten.remove(pid);
                 } catch (IOException e){
                     e.printStackTrace();
                 }
 
             }
-            head = head.next;
         }
+        wakeEvictors();
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
-     * 从buffer中选择一页淘汰，这里最好是选择一个非脏页，因为脏页要等到一次事务结束进行刷盘。
+     * 使用 CLOCK 从buffer中选择一页淘汰。
+     * <p>
+     * Pinned and dirty pages are never evicted. If every page is one or the
+     * other, wait up to EVICTION_WAIT_MILLIS for a page to be unpinned or for
+     * a transaction to commit or abort before giving up. The monitor is
+     * released while waiting, so the caller must not assume that the pool
+     * is unchanged when this returns.
      */
     private synchronized  void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
-        Page page = buffer.getTail().prev.value;
-        if(page!=null && page.isDirty()!=null){
-            findNotDirty();
-        }else{
-            //不是脏页没改过，不需要写磁盘
-            buffer.discard();
-        }
-    }
-
-    private void findNotDirty() throws DbException {
-        LRUCache<PageId, Page>.DLinkedNode head = buffer.getHead();
-        LRUCache<PageId, Page>.DLinkedNode tail = buffer.getTail();
-        tail = tail.prev;
-        while (head != tail) {
-            Page value = tail.value;
-            if (value != null && value.isDirty() == null) {
-                buffer.remove(tail);
+        // 只淘汰非脏页，脏页要等到事务结束时刷盘
+        long deadline = System.currentTimeMillis() + EVICTION_WAIT_MILLIS;
+        while (buffer.evict(page -> page.isDirty() == null && !unwritten.contains(page.getId())) == null) {
+            // 没有干净页时，先写回一个已提交未写回的页再淘汰它
+            Page victim = buffer.evict(page -> page.isDirty() == null);
+            if (victim != null) {
+                try {
+                    DbFile dbFile = Database.getCatalog().getDatabaseFile(victim.getId().getTableId());
+                    writePage(dbFile, victim.getBeforeImage());
+                    unwritten.remove(victim.getId());
+                    return;
+                } catch (IOException e) {
+                    buffer.put(victim.getId(), victim);
+                    throw new DbException("could not write back page " + victim.getId() + ": " + e.getMessage());
+                }
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new DbException("all pages in the buffer pool are dirty or pinned");
+            }
+            evictionWaiters++;
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for a page to evict");
+            } finally {
+                evictionWaiters--;
+            }
+            if (!buffer.isFull()) {
                 return;
             }
-            tail = tail.prev;
         }
-        //没有非脏页，抛出异常
-        throw new DbException("no dirty page");
     }
 
 }
@@ -0,0 +1,111 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * ClockPolicy implements the CLOCK approximation of LRU. Every resident
+ * page has a reference bit that a hit sets, and the clock hand sweeps the
+ * ring clearing bits until it finds a page whose bit is already clear.
+ * <p>
+ * A hit takes no lock, and only writes the reference bit when it is not
+ * already set, so hot pages are read without any writes to shared memory.
+ * Inserts, removals and the sweep are serialized on the ring.
+ *
+ * @Threadsafe
+ */
+public class ClockPolicy implements EvictionPolicy {
+
+    /** A slot in the clock ring. */
+    private static class Frame {
+        final PageId pid;
+        final int slot;
+        volatile boolean referenced = true;
+
+        Frame(PageId pid, int slot) {
+            this.pid = pid;
+            this.slot = slot;
+        }
+    }
+
+    private final int capacity;
+    private final Map<PageId, Frame> frames = new ConcurrentHashMap<>();
+
+    // 以下字段由 ring 的监视器保护
+    private final Frame[] ring;
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    private int hand = 0;
+
+    public ClockPolicy(int capacity) {
+        this.capacity = capacity;
+        this.ring = new Frame[capacity];
+        for (int i = 0; i < capacity; i++) {
+            freeSlots.add(i);
+        }
+    }
+
+    public void recordAccess(PageId pid) {
+        Frame frame = frames.get(pid);
+        if (frame != null && !frame.referenced) {
+            frame.referenced = true;
+        }
+    }
+
+    public void recordInsert(PageId pid) {
+        synchronized (ring) {
+            Frame frame = frames.get(pid);
+            if (frame != null) {
+                frame.referenced = true;
+                return;
+            }
+            Integer slot = freeSlots.poll();
+            if (slot == null) {
+                throw new IllegalStateException("clock ring is full");
+            }
+            frame = new Frame(pid, slot);
+            ring[slot] = frame;
+            frames.put(pid, frame);
+        }
+    }
+
+    public void recordRemove(PageId pid) {
+        synchronized (ring) {
+            Frame frame = frames.remove(pid);
+            if (frame != null) {
+                ring[frame.slot] = null;
+                freeSlots.push(frame.slot);
+            }
+        }
+    }
+
+    public PageId evict(Predicate<PageId> evictable) {
+        synchronized (ring) {
+            // two full turns: the first may only clear reference bits
+            for (int i = 0; i < 2 * capacity; i++) {
+                Frame frame = ring[hand];
+                hand = (hand + 1) % capacity;
+                if (frame == null) {
+                    continue;
+                }
+                if (frame.referenced) {
+                    frame.referenced = false;
+                    continue;
+                }
+                if (evictable.test(frame.pid)) {
+                    frames.remove(frame.pid);
+                    ring[frame.slot] = null;
+                    freeSlots.push(frame.slot);
+                    return frame.pid;
+                }
+            }
+            return null;
+        }
+    }
+
+    public Type getType() {
+        return Type.CLOCK;
+    }
+}
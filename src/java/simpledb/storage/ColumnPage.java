@@ -0,0 +1,252 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.transaction.TransactionId;
+
+import java.util.Arrays;
+
+/**
+ * Each instance of ColumnPage stores the values of one column for a run of
+ * consecutive rows of a ColumnarFile, and implements the Page interface that
+ * is used by BufferPool.
+ * <p>
+ * A page starts with a HEADER_SIZE byte chunk summary, the smallest and the
+ * largest value ever stored on the page for INT columns, followed by a
+ * bitmap of the slots in use and then one fixed-size value per slot. The
+ * number of slots is
+ * <p>
+ *          floor(((BufferPool.getPageSize() - HEADER_SIZE) * 8) / (value size * 8 + 1))
+ * <p>
+ * Slot i of page p holds the value of row p * numSlots + i. Every column
+ * keeps its own bitmap, so a scan can tell which rows exist from any
+ * column it reads.
+ * <p>
+ * Deletes do not shrink the summary, so it may be wider than the values
+ * that are left, but never narrower. An empty summary (min greater than
+ * max) means no value was ever stored on the page.
+ *
+ * @see ColumnarFile
+ * @see BufferPool
+ */
+public class ColumnPage implements Page {
+
+    /** Bytes of the chunk summary at the start of a page: min and max. */
+    public static final int HEADER_SIZE = 8;
+
+    private final ColumnPageId pid;
+    private final Type type;
+    private final byte[] data; // 页的原始字节：min、max、slot 位图，然后是各个值
+    private final int numSlots;
+    private final int bitmapSize;
+
+    private byte[] oldData; // 自上次 setBeforeImage 以来页没有被修改时为 null
+    private final Object oldDataLock = new Object();
+
+    private boolean dirty;
+    private TransactionId transactionId;
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk. The
+     * type of the values is that of the column in the table's TupleDesc.
+     *
+     * @see Database#getCatalog
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) {
+        this.pid = id;
+        this.type = Database.getCatalog().getTupleDesc(id.getTableId()).getFieldType(id.getColumn());
+        this.data = Arrays.copyOf(data, BufferPool.getPageSize());
+        this.numSlots = getNumSlots(type);
+        this.bitmapSize = (numSlots + 7) / 8;
+        setBeforeImage();
+    }
+
+    /**
+     * Returns the number of values a page of a column of the given type holds.
+     */
+    public static int getNumSlots(Type type) {
+        return ((BufferPool.getPageSize() - HEADER_SIZE) * 8) / (type.getLen() * 8 + 1);
+    }
+
+    /**
+     * Generates a byte array representing the contents of an empty page,
+     * whose chunk summary is empty.
+     */
+    public static byte[] createEmptyPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        putInt(data, 0, Integer.MAX_VALUE);
+        putInt(data, 4, Integer.MIN_VALUE);
+        return data;
+    }
+
+    private static int getInt(byte[] b, int offset) {
+        return ((b[offset] & 0xff) << 24) | ((b[offset + 1] & 0xff) << 16)
+                | ((b[offset + 2] & 0xff) << 8) | (b[offset + 3] & 0xff);
+    }
+
+    private static void putInt(byte[] b, int offset, int v) {
+        b[offset] = (byte) (v >>> 24);
+        b[offset + 1] = (byte) (v >>> 16);
+        b[offset + 2] = (byte) (v >>> 8);
+        b[offset + 3] = (byte) v;
+    }
+
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        if (i < 0 || i >= numSlots) {
+            throw new IllegalArgumentException("Slot " + i + " out of bounds.");
+        }
+        return (data[HEADER_SIZE + i / 8] >> (i % 8) & 1) == 1;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value) {
+            data[HEADER_SIZE + i / 8] |= (1 << (i % 8));
+        } else {
+            data[HEADER_SIZE + i / 8] &= ~(1 << (i % 8));
+        }
+    }
+
+    /**
+     * Returns true if no value was ever stored on this page.
+     */
+    public boolean isEmpty() {
+        return getInt(data, 0) > getInt(data, 4);
+    }
+
+    private int valueOffset(int slot) {
+        return HEADER_SIZE + bitmapSize + slot * type.getLen();
+    }
+
+    /**
+     * Decode the value in a slot.
+     *
+     * @return the value, or null if the slot is empty
+     */
+    public Field getField(int slot) {
+        if (!isSlotUsed(slot)) {
+            return null;
+        }
+        return type.parse(data, valueOffset(slot));
+    }
+
+    /**
+     * Store a value in a slot and widen the chunk summary to cover it.
+     */
+    public void setField(int slot, Field f) {
+        if (f.getType() != type) {
+            throw new IllegalArgumentException("type mismatch in column " + pid.getColumn());
+        }
+        beforeModify();
+        f.serialize(data, valueOffset(slot));
+        markSlotUsed(slot, true);
+        // 字符串列也要把摘要设为非空，min/max 只对 INT 列有意义
+        int v = type == Type.INT_TYPE ? ((IntField) f).getValue() : 0;
+        if (isEmpty()) {
+            putInt(data, 0, v);
+            putInt(data, 4, v);
+        } else if (type == Type.INT_TYPE) {
+            putInt(data, 0, Math.min(getInt(data, 0), v));
+            putInt(data, 4, Math.max(getInt(data, 4), v));
+        }
+    }
+
+    /**
+     * Empty a slot. The chunk summary is left as it is.
+     */
+    public void clearSlot(int slot) {
+        beforeModify();
+        markSlotUsed(slot, false);
+        Arrays.fill(data, valueOffset(slot), valueOffset(slot + 1), (byte) 0);
+    }
+
+    /**
+     * @return the smallest value stored on this page, or null if the column
+     *         is not an INT column or the page is empty
+     */
+    public IntField getMin() {
+        return type == Type.INT_TYPE && !isEmpty() ? new IntField(getInt(data, 0)) : null;
+    }
+
+    /**
+     * @return the largest value stored on this page, or null if the column
+     *         is not an INT column or the page is empty
+     */
+    public IntField getMax() {
+        return type == Type.INT_TYPE && !isEmpty() ? new IntField(getInt(data, 4)) : null;
+    }
+
+    /**
+     * Returns false if, judging by the chunk summary, no value on this page
+     * can satisfy "value op operand". True means the page has to be read.
+     */
+    public boolean mayMatch(Predicate.Op op, Field operand) {
+        if (isEmpty()) {
+            return false;
+        }
+        if (type != Type.INT_TYPE || !(operand instanceof IntField)) {
+            return true;
+        }
+        return ZoneMap.mayMatch(getInt(data, 0), getInt(data, 4), op, ((IntField) operand).getValue());
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public ColumnPage getBeforeImage() {
+        synchronized (oldDataLock) {
+            return new ColumnPage(pid, oldData != null ? oldData : data);
+        }
+    }
+
+    /**
+     * Record the current contents of the page as its before image. The copy
+     * is only taken when the page is first modified afterwards.
+     */
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    /**
+     * 修改页内容之前调用，在第一次修改时保存前像
+     */
+    private void beforeModify() {
+        synchronized (oldDataLock) {
+            if (oldData == null) {
+                oldData = data.clone();
+            }
+        }
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.transactionId = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirty ? transactionId : null;
+    }
+}
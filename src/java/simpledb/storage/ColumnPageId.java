@@ -0,0 +1,79 @@
+package simpledb.storage;
+
+/** Unique identifier for ColumnPage objects. */
+public class ColumnPageId implements PageId {
+
+    private final int tableId;
+    private final int column;
+    private final int pageNum;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of the
+     * page chain of one column of a specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param column The column whose page chain the page belongs to
+     * @param pgNo The page number in the chain of that column
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+        this.tableId = tableId;
+        this.column = column;
+        this.pageNum = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the column whose page chain this page belongs to */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * @return the page number in the chain of the column associated with
+     *   this PageId
+     */
+    public int getPageNumber() {
+        return pageNum;
+    }
+
+    public int hashCode() {
+        return (tableId * 31 + column) * 31 + pageNum;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., table ids, columns and
+     *   page numbers are the same)
+     */
+    public boolean equals(Object o) {
+        if (o instanceof ColumnPageId) {
+            ColumnPageId other = (ColumnPageId) o;
+            return other.tableId == tableId && other.column == column && other.pageNum == pageNum;
+        }
+        return false;
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.  Size of returned array must contain
+     *  number of integers that corresponds to number of args to one of the
+     *  constructors.
+     */
+    public int[] serialize() {
+        return new int[] {tableId, column, pageNum};
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnPageId{" +
+                "tableId=" + tableId +
+                ", column=" + column +
+                ", pageNum=" + pageNum +
+                '}';
+    }
+}
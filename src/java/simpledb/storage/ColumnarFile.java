@@ -0,0 +1,350 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * ColumnarFile is an implementation of a DbFile that stores each column of
+ * a table in its own chain of ColumnPages, so that a scan which needs only
+ * a few columns of a wide table reads and decodes only the pages of those
+ * columns. It suits analytical tables that are appended to and scanned,
+ * and are rarely updated.
+ * <p>
+ * The pages of column i are kept in a file named like the table's file
+ * with ".col" and i appended. Row r of the table is in slot r % n of page
+ * r / n of every column, where n is the number of values a page of that
+ * column holds. New rows are always appended. The number of rows is not
+ * stored: while the file is open the slots of deleted rows are not reused,
+ * but a reopened file takes it from the last used slot of column 0, so
+ * rows deleted from the end of the table are then appended over again.
+ * <p>
+ * A page that new rows need is not written when it is allocated. Until
+ * the BufferPool writes it back, reading it yields an empty page.
+ * <p>
+ * The RecordId of a tuple names its page and slot in column 0.
+ *
+ * @see ColumnPage
+ * @Threadsafe
+ */
+public class ColumnarFile implements DbFile {
+
+    private final File file;
+    private final TupleDesc td;
+    private final DbFileChannel[] columns; // 每一列一个文件
+    private int numRows = -1; // 下一个追加的行号，第一次用到时从第 0 列的最后一页算出
+
+    /**
+     * Constructs a columnar file whose columns are stored next to the
+     * specified file.
+     *
+     * @param f the file that names this table; the columns are stored in
+     *          the files returned by getColumnFile
+     * @param td the schema of the tuples in the file
+     */
+    public ColumnarFile(File f, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+        this.columns = new DbFileChannel[td.numFields()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new DbFileChannel(getColumnFile(f, i));
+        }
+    }
+
+    /**
+     * Returns the file that holds the pages of a column of the given table file.
+     */
+    public static File getColumnFile(File f, int column) {
+        return new File(f.getPath() + ".col" + column);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this ColumnarFile, the hash of the
+     * absolute file name like for a HeapFile.
+     */
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        for (DbFileChannel column : columns) {
+            column.close();
+        }
+    }
+
+    /**
+     * Returns the number of pages in the chain of a column.
+     */
+    public int numPages(int column) {
+        try {
+            return (int) (columns[column].size() / BufferPool.getPageSize());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the number of rows that were appended to this file, including
+     * rows that have been deleted since it was opened.
+     */
+    public synchronized int numRows() {
+        if (numRows < 0) {
+            int pages = numPages(0);
+            numRows = 0;
+            if (pages > 0) {
+                // 最后一页中最后一个被使用的 slot 之后都是空行
+                ColumnPage last = (ColumnPage) readPage(new ColumnPageId(getId(), 0, pages - 1));
+                int slot = last.getNumSlots();
+                while (slot > 0 && !last.isSlotUsed(slot - 1)) {
+                    slot--;
+                }
+                numRows = (pages - 1) * last.getNumSlots() + slot;
+            }
+        }
+        return numRows;
+    }
+
+    private int rowsPerPage(int column) {
+        return ColumnPage.getNumSlots(td.getFieldType(column));
+    }
+
+    private ColumnPageId pageOf(int column, int row) {
+        return new ColumnPageId(getId(), column, row / rowsPerPage(column));
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        ColumnPageId cpid = (ColumnPageId) pid;
+        byte[] buf = new byte[BufferPool.getPageSize()];
+        try {
+            if (columns[cpid.getColumn()].read(buf, (long) cpid.getPageNumber() * buf.length) == -1) {
+                // 追加行时分配的页在写回之前还不在文件中
+                if ((long) cpid.getPageNumber() * rowsPerPage(cpid.getColumn()) < numRows()) {
+                    return new ColumnPage(cpid, ColumnPage.createEmptyPageData());
+                }
+                return null;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return new ColumnPage(cpid, buf);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ColumnPageId cpid = (ColumnPageId) page.getId();
+        DbFileChannel column = columns[cpid.getColumn()];
+        synchronized (column) {
+            // 前面的页可能还没写回，先用空页补齐，文件中不留空洞
+            for (int p = numPages(cpid.getColumn()); p < cpid.getPageNumber(); p++) {
+                column.write(ColumnPage.createEmptyPageData(), (long) p * BufferPool.getPageSize());
+            }
+            column.write(page.getPageData(), (long) cpid.getPageNumber() * BufferPool.getPageSize());
+        }
+    }
+
+    /**
+     * 分配一个新行号；新行所在的页由 BufferPool 读入并写回
+     */
+    private synchronized int appendRow() {
+        int row = numRows();
+        numRows = row + 1;
+        return row;
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tupleDesc is mismatch");
+        }
+        int row = appendRow();
+        List<Page> res = new ArrayList<>();
+        for (int i = 0; i < columns.length; i++) {
+            ColumnPageId pid = pageOf(i, row);
+            ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            page.setField(row % rowsPerPage(i), t.getField(i));
+            page.markDirty(true, tid);
+            res.add(page);
+        }
+        t.setRecordId(new RecordId(pageOf(0, row), row % rowsPerPage(0)));
+        return res;
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof ColumnPageId)
+                || rid.getPageId().getTableId() != getId() || ((ColumnPageId) rid.getPageId()).getColumn() != 0) {
+            throw new DbException("tuple is not in this table");
+        }
+        int row = rid.getPageId().getPageNumber() * rowsPerPage(0) + rid.getTupleNumber();
+        List<Page> res = new ArrayList<>();
+        for (int i = 0; i < columns.length; i++) {
+            ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid, pageOf(i, row), Permissions.READ_WRITE);
+            int slot = row % rowsPerPage(i);
+            if (page == null || !page.isSlotUsed(slot)) {
+                throw new DbException("tuple slot is already empty");
+            }
+            page.clearSlot(slot);
+            page.markDirty(true, tid);
+            res.add(page);
+        }
+        return res;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null, Collections.emptyList());
+    }
+
+    /**
+     * Returns an iterator that decodes only the given columns. The tuples
+     * it returns have the full TupleDesc of the table; the fields of the
+     * other columns are null.
+     * <p>
+     * Rows in chunks whose summary shows that they cannot satisfy one of the
+     * predicates are skipped without reading the pages of the other
+     * columns. Rows that are not skipped are returned whether they satisfy
+     * the predicates or not, so a Filter is still needed.
+     *
+     * @param fields the columns to decode, or null for all of them
+     * @param predicates predicates over the fields of the table
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] fields, List<Predicate> predicates) {
+        if (fields == null) {
+            fields = new int[columns.length];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = i;
+            }
+        }
+        return new ColumnarFileIterator(tid, fields, predicates);
+    }
+
+    /**
+     * 按行号遍历，每一列只在行号进入新页时才读下一页
+     */
+    private class ColumnarFileIterator implements DbFileIterator {
+
+        private final TransactionId tid;
+        private final int[] fields;
+        private final List<Predicate> predicates;
+        private final ColumnPage[] pages = new ColumnPage[columns.length]; // 每一列当前所在的页
+        private int row;
+        private int end;
+        private Tuple next;
+        private boolean open = false;
+
+        ColumnarFileIterator(TransactionId tid, int[] fields, List<Predicate> predicates) {
+            this.tid = tid;
+            this.fields = fields;
+            this.predicates = predicates;
+        }
+
+        public void open() {
+            row = 0;
+            end = numRows();
+            next = null;
+            open = true;
+            Arrays.fill(pages, null);
+        }
+
+        private ColumnPage page(int column, int row)
+                throws DbException, TransactionAbortedException {
+            ColumnPageId pid = pageOf(column, row);
+            if (pages[column] == null || !pages[column].getId().equals(pid)) {
+                pages[column] = (ColumnPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            }
+            return pages[column];
+        }
+
+        private Tuple fetchNext() throws DbException, TransactionAbortedException {
+            // 没有要解码的列时（例如 COUNT(*)），用第 0 列判断行是否存在
+            int presence = fields.length > 0 ? fields[0] : 0;
+            rows:
+            while (row < end) {
+                for (Predicate p : predicates) {
+                    int column = p.getField();
+                    if (!page(column, row).mayMatch(p.getOp(), p.getOperand())) {
+                        // 整个块都不可能满足条件，跳到下一块
+                        row = (row / rowsPerPage(column) + 1) * rowsPerPage(column);
+                        continue rows;
+                    }
+                }
+                ColumnPage p = page(presence, row);
+                if (p.isEmpty()) {
+                    row = (row / rowsPerPage(presence) + 1) * rowsPerPage(presence);
+                    continue;
+                }
+                if (!p.isSlotUsed(row % rowsPerPage(presence))) {
+                    row++;
+                    continue;
+                }
+                Field[] values = new Field[columns.length];
+                for (int column : fields) {
+                    values[column] = page(column, row).getField(row % rowsPerPage(column));
+                }
+                Tuple t = new Tuple(td);
+                for (int i = 0; i < values.length; i++) {
+                    t.setField(i, values[i]);
+                }
+                t.setRecordId(new RecordId(pageOf(0, row), row % rowsPerPage(0)));
+                row++;
+                return t;
+            }
+            return null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open) {
+                return false;
+            }
+            if (next == null) {
+                next = fetchNext();
+            }
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() {
+            open();
+        }
+
+        public void close() {
+            open = false;
+            next = null;
+            Arrays.fill(pages, null);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedHeapFile is a HeapFile whose pages are compressed with deflate
+ * when they are written and decompressed into an ordinary HeapPage when
+ * they are read. It is meant for cold tables that are scanned rarely, where
+ * disk I/O costs more than the CPU spent on compression.
+ * <p>
+ * The backing file holds the compressed pages in variable-size extents.
+ * A directory in a second file, named like the backing file with ".dir"
+ * appended, has one entry of DIRECTORY_ENTRY_SIZE bytes per page: the
+ * offset of the extent, the length of the compressed page and the capacity
+ * of the extent. Extents are allocated in multiples of EXTENT_ALIGNMENT
+ * bytes, so a page whose compressed size grows a little is rewritten in
+ * place; a page that no longer fits moves to a new extent at the end of the
+ * file, and its old extent is left unused.
+ * <p>
+ * An entry whose length is 0 stands for an empty page, like a page of
+ * zeroes in an uncompressed HeapFile.
+ *
+ * @Threadsafe
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    /** Bytes per directory entry: extent offset, compressed length and extent capacity. */
+    public static final int DIRECTORY_ENTRY_SIZE = 16;
+    /** Extents are allocated in multiples of this many bytes. */
+    public static final int EXTENT_ALIGNMENT = 256;
+
+    private final DbFileChannel directory;
+    private long dataEnd = -1; // 数据文件中下一个 extent 的位置，第一次分配时初始化
+
+    /**
+     * Constructs a compressed heap file backed by the specified file and
+     * its directory file.
+     *
+     * @param f the file that stores the compressed pages of this heap file
+     * @param td the schema of the tuples in the file
+     * @param layout the layout of the pages of the file
+     */
+    public CompressedHeapFile(File f, TupleDesc td, Layout layout) {
+        super(f, td, false, layout);
+        this.directory = new DbFileChannel(getDirectoryFile(f));
+    }
+
+    /**
+     * Returns the file that holds the directory of the given backing file.
+     */
+    public static File getDirectoryFile(File f) {
+        return new File(f.getPath() + ".dir");
+    }
+
+    /**
+     * Returns the number of pages in this HeapFile.
+     */
+    @Override
+    public int numPages() {
+        try {
+            return (int) (directory.size() / DIRECTORY_ENTRY_SIZE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        directory.close();
+    }
+
+    /**
+     * Returns the number of bytes the compressed pages take on disk.
+     */
+    public long getCompressedSize() throws IOException {
+        return channel.size();
+    }
+
+    private static long getBytes(byte[] b, int offset, int len) {
+        long v = 0;
+        for (int i = 0; i < len; i++) {
+            v = (v << 8) | (b[offset + i] & 0xff);
+        }
+        return v;
+    }
+
+    private static void putBytes(byte[] b, int offset, int len, long v) {
+        for (int i = len - 1; i >= 0; i--) {
+            b[offset + i] = (byte) v;
+            v >>>= 8;
+        }
+    }
+
+    // 目录项格式：extent 偏移（8 字节）、压缩后长度（4 字节）、extent 容量（4 字节）
+    private static long getOffset(byte[] entry) {
+        return getBytes(entry, 0, 8);
+    }
+
+    private static int getLength(byte[] entry) {
+        return (int) getBytes(entry, 8, 4);
+    }
+
+    private static int getCapacity(byte[] entry) {
+        return (int) getBytes(entry, 12, 4);
+    }
+
+    /**
+     * Read the directory entry of a page.
+     *
+     * @return the entry, or null if the page is past the end of the file
+     */
+    private byte[] readEntry(int pageNo) throws IOException {
+        byte[] entry = new byte[DIRECTORY_ENTRY_SIZE];
+        int n = directory.read(entry, (long) pageNo * DIRECTORY_ENTRY_SIZE);
+        return n == DIRECTORY_ENTRY_SIZE ? entry : null;
+    }
+
+    /**
+     * Read the first buf.length bytes of a page into buf, decompressing only
+     * as much of the page as that needs.
+     */
+    @Override
+    protected int readPageData(int pageNo, byte[] buf) throws IOException {
+        byte[] entry = readEntry(pageNo);
+        if (entry == null) {
+            return -1;
+        }
+        int length = getLength(entry);
+        Arrays.fill(buf, (byte) 0);
+        if (length == 0) {
+            return buf.length;
+        }
+        byte[] compressed = new byte[length];
+        if (channel.read(compressed, getOffset(entry)) != length) {
+            throw new IOException("extent of page " + pageNo + " is truncated");
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int n = 0;
+            while (n < buf.length && !inflater.finished()) {
+                int k = inflater.inflate(buf, n, buf.length - n);
+                if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("compressed page " + pageNo + " is corrupt");
+                }
+                n += k;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("compressed page " + pageNo + " is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+        return buf.length;
+    }
+
+    /**
+     * Compress a page and write it to its extent, moving it to a new extent
+     * at the end of the file if it no longer fits.
+     */
+    @Override
+    protected void writePageData(int pageNo, byte[] data) throws IOException {
+        byte[] compressed = compress(data);
+        synchronized (this) {
+            byte[] entry = readEntry(pageNo);
+            long offset = entry == null ? 0 : getOffset(entry);
+            int capacity = entry == null ? 0 : getCapacity(entry);
+            if (compressed.length > capacity) {
+                // 放不下时在文件末尾分配新的 extent，旧的空间不再使用
+                if (dataEnd < 0) {
+                    dataEnd = channel.size();
+                }
+                offset = dataEnd;
+                capacity = (compressed.length + EXTENT_ALIGNMENT - 1) / EXTENT_ALIGNMENT * EXTENT_ALIGNMENT;
+                dataEnd += capacity;
+                // 写满整个 extent，文件长度总是覆盖所有已分配的 extent，重新打开后不会重叠
+                channel.write(Arrays.copyOf(compressed, capacity), offset);
+            } else {
+                channel.write(compressed, offset);
+            }
+            entry = new byte[DIRECTORY_ENTRY_SIZE];
+            putBytes(entry, 0, 8, offset);
+            putBytes(entry, 8, 4, compressed.length);
+            putBytes(entry, 12, 4, capacity);
+            // 目录项在数据写完之后才更新
+            directory.write(entry, (long) pageNo * DIRECTORY_ENTRY_SIZE);
+        }
+    }
+
+    private static byte[] compress(byte[] data) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] out = new byte[data.length + 64];
+            int n = 0;
+            while (!deflater.finished()) {
+                if (n == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                n += deflater.deflate(out, n, out.length - n);
+            }
+            return Arrays.copyOf(out, n);
+        } finally {
+            deflater.end();
+        }
+    }
+}
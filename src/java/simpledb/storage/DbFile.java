@@ -93,4 +93,14 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     TupleDesc getTupleDesc();
+
+    /**
+     * Close the files behind this DbFile. Called by the Catalog when the
+     * table is dropped or replaced; the files are opened again if the
+     * DbFile is used afterwards.
+     *
+     * @throws IOException if a file can't be closed
+     */
+    default void close() throws IOException {
+    }
 }
@@ -0,0 +1,150 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * DbFileChannel keeps the file behind a DbFile open through one FileChannel,
+ * so that pages are read and written with positional I/O instead of opening
+ * and closing the file for every page. Positional reads and writes do not
+ * move a shared file pointer, so concurrent callers need no lock.
+ * <p>
+ * The channel is opened on first use, read-write if possible. A FileChannel
+ * is closed for good when a thread is interrupted while using it, e.g. when
+ * the read-ahead thread is stopped, so a closed channel is reopened on the
+ * next call from a thread that has not been interrupted. The same goes for
+ * a channel closed with {@link #close}.
+ *
+ * @Threadsafe
+ */
+public class DbFileChannel {
+
+    private final File file;
+    private volatile FileChannel channel;
+
+    public DbFileChannel(File file) {
+        this.file = file;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel c = channel;
+        if (c == null) {
+            synchronized (this) {
+                c = channel;
+                if (c == null) {
+                    try {
+                        c = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                                StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                    } catch (AccessDeniedException e) {
+                        c = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                    }
+                    channel = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Forget a channel that has been closed, unless another thread already
+     * replaced it, and rethrow if the current thread was interrupted.
+     */
+    private synchronized void closed(FileChannel c, ClosedChannelException e) throws ClosedChannelException {
+        if (channel == c) {
+            channel = null;
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            throw e;
+        }
+    }
+
+    /**
+     * Read from the given position until buf is full or the end of the file
+     * is reached.
+     *
+     * @return the number of bytes read, or -1 if position is at or past the end of the file
+     */
+    public int read(byte[] buf, long position) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        while (true) {
+            FileChannel c = channel();
+            try {
+                while (bb.hasRemaining()) {
+                    if (c.read(bb, position + bb.position()) < 0) {
+                        break;
+                    }
+                }
+                return bb.position() == 0 && buf.length > 0 ? -1 : bb.position();
+            } catch (ClosedChannelException e) {
+                closed(c, e);
+            }
+        }
+    }
+
+    /**
+     * Write all of data at the given position, extending the file if needed.
+     */
+    public void write(byte[] data, long position) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        while (true) {
+            FileChannel c = channel();
+            try {
+                while (bb.hasRemaining()) {
+                    c.write(bb, position + bb.position());
+                }
+                return;
+            } catch (ClosedChannelException e) {
+                closed(c, e);
+            }
+        }
+    }
+
+    /**
+     * Map a region of the file read-only. The mapping stays valid after the
+     * channel is closed, and since it is shared it sees later writes made
+     * through this channel.
+     */
+    public MappedByteBuffer map(long position, long size) throws IOException {
+        while (true) {
+            FileChannel c = channel();
+            try {
+                return c.map(FileChannel.MapMode.READ_ONLY, position, size);
+            } catch (ClosedChannelException e) {
+                closed(c, e);
+            }
+        }
+    }
+
+    /**
+     * Close the file. A later call opens it again, so a caller still using
+     * the DbFile is not broken, but the file is no longer held open.
+     */
+    public synchronized void close() throws IOException {
+        FileChannel c = channel;
+        channel = null;
+        if (c != null) {
+            c.close();
+        }
+    }
+
+    /**
+     * Returns the current size of the file. This asks the open channel, so
+     * it also sees data appended to the file by other means.
+     */
+    public long size() throws IOException {
+        while (true) {
+            FileChannel c = channel();
+            try {
+                return c.size();
+            } catch (ClosedChannelException e) {
+                closed(c, e);
+            }
+        }
+    }
+}
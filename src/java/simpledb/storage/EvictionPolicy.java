@@ -0,0 +1,56 @@
+package simpledb.storage;
+
+import java.util.function.Predicate;
+
+/**
+ * EvictionPolicy decides which resident page the BufferPool gives up when
+ * it needs room for a new one. The PageTable reports every hit, insert and
+ * removal to the policy, and asks it for a victim when the pool is full.
+ * <p>
+ * Implementations must be thread safe: recordAccess is called on every
+ * buffer pool hit, concurrently with the other methods.
+ *
+ * @see PageTable
+ */
+public interface EvictionPolicy {
+
+    /** The available policies, selected when a BufferPool is created. */
+    enum Type {
+        CLOCK, LRU_2, ARC;
+
+        /**
+         * Create a new instance of this policy for a pool of the given size.
+         */
+        public EvictionPolicy create(int capacity) {
+            switch (this) {
+                case LRU_2:
+                    return new LruKPolicy(capacity, 2);
+                case ARC:
+                    return new ArcPolicy(capacity);
+                case CLOCK:
+                default:
+                    return new ClockPolicy(capacity);
+            }
+        }
+    }
+
+    /** Record a hit on a resident page. */
+    void recordAccess(PageId pid);
+
+    /** Record that a page was added to the pool. */
+    void recordInsert(PageId pid);
+
+    /** Record that a page was removed from the pool without being evicted. */
+    void recordRemove(PageId pid);
+
+    /**
+     * Choose a resident page to evict and forget it.
+     *
+     * @param evictable decides whether a page may be evicted
+     * @return the page to evict, or null if no resident page may be evicted
+     */
+    PageId evict(Predicate<PageId> evictable);
+
+    /** @return the type of this policy */
+    Type getType();
+}
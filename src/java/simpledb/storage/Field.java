@@ -17,6 +17,14 @@ public interface Field extends Serializable{
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field into data, starting at offset.
+     * The bytes are the same as those written by serialize(DataOutputStream).
+     * @param data The array to write to
+     * @param offset Where in data the field starts
+     */
+    void serialize(byte[] data, int offset);
+
     /**
      * Compare the value of this field object to the passed in value.
      * @param op The operator
@@ -0,0 +1,66 @@
+package simpledb.storage;
+
+import java.util.BitSet;
+import java.util.function.IntPredicate;
+
+/**
+ * FreeSpaceMap records, one bit per page, which pages of a HeapFile have at
+ * least one empty slot, so that an insert can go straight to a page with
+ * room instead of reading every page of the file until it finds one.
+ * <p>
+ * The map is a hint, not a promise. It is kept in memory and covers pages
+ * 0 to size() - 1; pages past that, e.g. those that existed before the map
+ * was first used or that were appended to the file by other means, are
+ * added with extend(), which for a HeapFile only reads the page headers.
+ * Callers check the page itself before they insert and correct the map
+ * when it was wrong. Pages marked full are never looked at, so whatever
+ * makes room on a page, a delete or the undo of an aborted insert, must
+ * mark it again.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    private final BitSet free = new BitSet();
+    private int size = 0;
+
+    /** @return the number of pages the map covers */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Add pages up to numPages to the map.
+     *
+     * @param numPages the number of pages the map should cover
+     * @param hasRoom tells whether a page that is not yet covered has an empty slot
+     */
+    public synchronized void extend(int numPages, IntPredicate hasRoom) {
+        for (int i = size; i < numPages; i++) {
+            free.set(i, hasRoom.test(i));
+        }
+        size = Math.max(size, numPages);
+    }
+
+    /**
+     * Record whether a page has an empty slot. Pages the map does not cover
+     * yet are ignored; extend() will look at them.
+     */
+    public synchronized void set(int pageNo, boolean hasRoom) {
+        if (pageNo < size) {
+            free.set(pageNo, hasRoom);
+        }
+    }
+
+    public synchronized boolean hasRoom(int pageNo) {
+        return free.get(pageNo);
+    }
+
+    /**
+     * @return the first page at or after from that has an empty slot, or -1 if there is none
+     */
+    public synchronized int nextPageWithRoom(int from) {
+        int pageNo = free.nextSetBit(from);
+        return pageNo < size ? pageNo : -1;
+    }
+}
@@ -4,11 +4,15 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -24,6 +28,29 @@ public class HeapFile implements DbFile {
 
     private File file;
     private TupleDesc tupleDesc;
+    final DbFileChannel channel; // 整个文件共用一个打开的 channel，按位置读写
+
+    /** Number of pages in each segment of a memory-mapped HeapFile. */
+    public static final int MMAP_SEGMENT_PAGES = 4096;
+
+    /**
+     * The layout of the pages of a HeapFile.
+     */
+    public enum Layout {
+        /** Fixed-size slots with a header bitmap, see HeapPage. */
+        FIXED,
+        /** A slot directory with variable-length records, see SlottedHeapPage. */
+        SLOTTED
+    }
+
+    private final boolean memoryMapped;
+    private final Layout layout;
+    // 内存映射模式下已映射的文件段：段号 -> 映射区域
+    private final ConcurrentHashMap<Integer, MappedByteBuffer> segments;
+    // 记录哪些页还有空槽，插入时直接定位，不用从第 0 页开始逐页查找
+    private final FreeSpaceMap freeSpace = new FreeSpaceMap();
+    // 每页 INT 列的 min/max，带过滤条件的扫描用来跳过不可能匹配的页
+    private final ZoneMap zoneMap;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -34,8 +61,75 @@ public class HeapFile implements DbFile {
      */
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally reading
+     * its pages through memory-mapped segments of MMAP_SEGMENT_PAGES pages.
+     * Pages are then copied straight out of the mapped region, which saves
+     * the read system call but not the copy, since a page edits its data in
+     * place; this suits large tables that are loaded once and then only read.
+     * <p>
+     * Writes always go through the normal path. The mapping is shared, so it
+     * sees them; a segment whose mapping is too short for a page appended
+     * since it was mapped is mapped again.
+     *
+     * @param f the file that stores the on-disk backing store for this heap file.
+     * @param td the schema of the tuples in the file
+     * @param memoryMapped true to read pages through memory-mapped segments
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
+        this(f, td, memoryMapped, Layout.FIXED);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file whose pages have
+     * the given layout. All pages of a file have the same layout, so the
+     * layout must be the one the file was written with.
+     *
+     * @param f the file that stores the on-disk backing store for this heap file.
+     * @param td the schema of the tuples in the file
+     * @param memoryMapped true to read pages through memory-mapped segments
+     * @param layout the layout of the pages of the file
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped, Layout layout) {
         this.file = f;
         this.tupleDesc = td;
+        this.channel = new DbFileChannel(f);
+        this.memoryMapped = memoryMapped;
+        this.layout = layout;
+        this.segments = new ConcurrentHashMap<>();
+        this.zoneMap = new ZoneMap(td);
+    }
+
+    /**
+     * Returns true if pages of this file are read through memory-mapped segments.
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Returns an upper bound on the number of slots of a page of this file,
+     * so that (page number, slot) pairs can be numbered densely.
+     */
+    public int getMaxSlotsPerPage() {
+        if (layout == Layout.SLOTTED) {
+            return (BufferPool.getPageSize() - SlottedHeapPage.HEADER_SIZE) / SlottedHeapPage.SLOT_SIZE;
+        }
+        return HeapPage.getNumTuples(tupleDesc);
+    }
+
+    /**
+     * 按本文件的页格式从页数据构造页
+     */
+    private HeapPage newPage(HeapPageId pid, byte[] data) throws IOException {
+        return layout == Layout.SLOTTED ? new SlottedHeapPage(pid, data, false) : new HeapPage(pid, data, false);
     }
 
     /**
@@ -72,44 +166,149 @@ public class HeapFile implements DbFile {
         return this.tupleDesc;
     }
 
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        channel.close();
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
         HeapPage heapPage = null;
         int pageSize = BufferPool.getPageSize();
-        byte[] buf = new byte[pageSize];
 
         try {
+            if (memoryMapped) {
+                ByteBuffer region = mappedPage(pid.getPageNumber());
+                if (region != null) {
+                    return newPage((HeapPageId) pid, HeapPage.read(region));
+                }
+            }
 
-            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
-            randomAccessFile.seek((long) pid.getPageNumber() * pageSize);
-
-            if (randomAccessFile.read(buf) == -1) {
+            byte[] buf = new byte[pageSize];
+            if (readPageData(pid.getPageNumber(), buf) == -1) {
                 return null;
             }
 
-            heapPage = new HeapPage((HeapPageId) pid, buf);
-            randomAccessFile.close();
-        }   catch (FileNotFoundException e) {
-            e.printStackTrace();
+            // buf 只属于这一页，交给 HeapPage 不必再复制
+            heapPage = newPage((HeapPageId) pid, buf);
         }   catch (IOException e) {
             e.printStackTrace();
         }
         return heapPage;
     }
 
+    /**
+     * 返回映射区域中该页的只读视图；该页不在文件中时返回 null，交给普通读路径
+     */
+    private ByteBuffer mappedPage(int pageNo) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int offset = (pageNo % MMAP_SEGMENT_PAGES) * pageSize;
+        MappedByteBuffer mapping = segments.get(pageNo / MMAP_SEGMENT_PAGES);
+        if (mapping == null || mapping.capacity() < offset + pageSize) {
+            mapping = mapSegment(pageNo / MMAP_SEGMENT_PAGES, offset + pageSize);
+            if (mapping == null) {
+                return null;
+            }
+        }
+        // 每次读取用一个独立的视图，position 不在线程间共享
+        ByteBuffer view = mapping.duplicate();
+        view.limit(offset + pageSize);
+        view.position(offset);
+        return view;
+    }
+
+    /**
+     * 映射一个文件段中现有的所有整页；文件太短、映射不到所需长度时返回 null
+     */
+    private synchronized MappedByteBuffer mapSegment(int segment, int needed) throws IOException {
+        MappedByteBuffer mapping = segments.get(segment);
+        if (mapping != null && mapping.capacity() >= needed) {
+            return mapping;
+        }
+        int pageSize = BufferPool.getPageSize();
+        long start = (long) segment * MMAP_SEGMENT_PAGES * pageSize;
+        long length = Math.min((long) MMAP_SEGMENT_PAGES * pageSize, channel.size() - start);
+        length -= length % pageSize;
+        if (length < needed) {
+            return null;
+        }
+        mapping = channel.map(start, length);
+        segments.put(segment, mapping);
+        return mapping;
+    }
+
+    /**
+     * Returns the map of pages of this file that have an empty slot. Pages
+     * the map does not cover yet are added by reading their headers.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        int n = numPages();
+        if (freeSpace.size() < n) {
+            int numSlots = HeapPage.getNumTuples(tupleDesc);
+            byte[] header = new byte[layout == Layout.SLOTTED
+                    ? SlottedHeapPage.HEADER_SIZE : (int) Math.ceil(numSlots / 8.0)];
+            freeSpace.extend(n, pageNo -> {
+                try {
+                    if (readPageData(pageNo, header) != header.length) {
+                        return false;
+                    }
+                    return layout == Layout.SLOTTED
+                            ? SlottedHeapPage.hasRoom(header, tupleDesc) : HeapPage.hasEmptySlot(header, numSlots);
+                } catch (IOException e) {
+                    // 读不到页头时当作有空位，插入时会检查页本身
+                    return true;
+                }
+            });
+        }
+        return freeSpace;
+    }
+
+    /**
+     * Called by the BufferPool when an aborted transaction's changes to a
+     * page of this file have been undone. An insert that filled the page
+     * marked it full in the free-space map; the restored page may have room
+     * again, and pages the map shows as full are never looked at.
+     */
+    void pageRestored(HeapPage page) {
+        freeSpace.set(page.getId().getPageNumber(), page.getNumEmptySlots() > 0);
+    }
+
+    /**
+     * Returns the min/max summaries of the pages of this file.
+     */
+    public ZoneMap getZoneMap() {
+        return zoneMap;
+    }
+
+    /**
+     * Read the first buf.length bytes of a page into buf. Files that store
+     * pages differently override this together with writePageData and
+     * numPages.
+     *
+     * @return the number of bytes read, or -1 if the page is past the end of the file
+     */
+    protected int readPageData(int pageNo, byte[] buf) throws IOException {
+        return channel.read(buf, (long) pageNo * BufferPool.getPageSize());
+    }
+
+    /**
+     * Write the data of a page, extending the file if needed.
+     */
+    protected void writePageData(int pageNo, byte[] data) throws IOException {
+        channel.write(data, (long) pageNo * BufferPool.getPageSize());
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
         HeapPageId pageId = (HeapPageId) page.getId();
-        int size = BufferPool.getPageSize();
         int pageNum = pageId.getPageNumber();
-        byte[] pageData = page.getPageData();
-        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
-        randomAccessFile.seek((long) pageNum * size);
-        randomAccessFile.write(pageData);
-        randomAccessFile.close();
+        // 先放宽范围再写页，范围总是覆盖磁盘上的内容
+        zoneMap.write((HeapPage) page);
+        writePageData(pageNum, page.getPageData());
+        freeSpace.set(pageNum, ((HeapPage) page).getNumEmptySlots() > 0);
     }
 
     /**
@@ -117,7 +316,13 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
-        return (int) (file.length() / BufferPool.getPageSize());
+        // 直接问打开的 channel，不用每次按路径 stat 文件；也能看到别处追加到文件末尾的页
+        try {
+            return (int) (channel.size() / BufferPool.getPageSize());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
     }
 
     // see DbFile.java for javadocs
@@ -128,32 +333,55 @@ public class HeapFile implements DbFile {
             throw new DbException("file can not read or write");
         }
         List<Page> res = new ArrayList<>();
-        for (int i = 0; i < numPages(); i++) {
+        BufferPool bufferPool = Database.getBufferPool();
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        // 只查看空闲空间表中有空位的页；表只是提示，以页本身为准并顺便纠正表
+        for (int i = fsm.nextPageWithRoom(0); i >= 0; i = fsm.nextPageWithRoom(i + 1)) {
             HeapPageId pageId = new HeapPageId(getId(), i);
-            HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
-            if (heapPage == null) {
-                Database.getBufferPool().unsafeReleasePage(tid, pageId);
+            // 先用读锁查看是否有空位，避免对整张表加写锁
+            boolean held = bufferPool.holdsLock(tid, pageId);
+            HeapPage heapPage = (HeapPage) bufferPool.getPage(tid, pageId, Permissions.READ_ONLY);
+            if (heapPage == null || heapPage.getNumEmptySlots() == 0) {
+                fsm.set(i, false);
+                if (!held) {
+                    bufferPool.unsafeReleasePage(tid, pageId);
+                }
                 continue;
             }
+            heapPage = (HeapPage) bufferPool.getPage(tid, pageId, Permissions.READ_WRITE);
             if (heapPage.getNumEmptySlots() == 0) {
-                Database.getBufferPool().unsafeReleasePage(tid, pageId);
+                fsm.set(i, false);
                 continue;
             }
-            heapPage.insertTuple(t);
-            heapPage.markDirty(true, tid); // page在修改后设置为脏页
+            insertTuple(fsm, heapPage, tid, t);
             res.add(heapPage);
             return res;
         }
-        // 新建一个page
-        HeapPageId pageId = new HeapPageId(getId(), numPages());
-        HeapPage heapPage = new HeapPage(pageId, HeapPage.createEmptyPageData());
-        heapPage.insertTuple(t);
-        writePage(heapPage);
+        // 在文件末尾追加一个空页，再通过 BufferPool 加写锁插入
+        HeapPageId pageId;
+        synchronized (this) {
+            pageId = new HeapPageId(getId(), numPages());
+            writePage(newPage(pageId, HeapPage.createEmptyPageData()));
+        }
+        HeapPage heapPage = (HeapPage) bufferPool.getPage(tid, pageId, Permissions.READ_WRITE);
+        insertTuple(fsm, heapPage, tid, t);
         res.add(heapPage);
         return res;
         // not necessary for lab1
     }
 
+    /**
+     * 向已加写锁的页插入元组，并在页被填满时更新空闲空间表
+     */
+    private void insertTuple(FreeSpaceMap fsm, HeapPage heapPage, TransactionId tid, Tuple t) throws DbException {
+        heapPage.insertTuple(t);
+        heapPage.markDirty(true, tid); // page在修改后设置为脏页
+        zoneMap.insert(heapPage.getId().getPageNumber(), t);
+        if (heapPage.getNumEmptySlots() == 0) {
+            fsm.set(heapPage.getId().getPageNumber(), false);
+        }
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
@@ -166,6 +394,8 @@ public class HeapFile implements DbFile {
             throw new DbException("heapPage is null");
         }
         heapPage.deleteTuple(t);
+        freeSpace.set(pageId.getPageNumber(), true);
+        zoneMap.delete(pageId.getPageNumber());
         res.add(heapPage);
         return res;
         // not necessary for lab1
@@ -177,6 +407,17 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(tid, Permissions.READ_ONLY);
     }
 
+    /**
+     * Returns an iterator that skips the pages whose zone map shows that
+     * none of their tuples can satisfy all of the given predicates. Pages
+     * that are read are returned whole, so a Filter is still needed.
+     *
+     * @param predicates predicates over the fields of this file
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
+        return new HeapFileIterator(tid, Permissions.READ_ONLY, predicates);
+    }
+
     /**
      * 定义一个内部类， 实现一个迭代器， 遍历文件中的Tuple，但是不要一次性读取所有的Tuple，而是一页一页的读取遍历
      */
@@ -186,12 +427,21 @@ public class HeapFile implements DbFile {
         private Permissions permissions; // 权限
         BufferPool bufferPool = Database.getBufferPool();
         private Iterator<Tuple> iterator; // 这是每一页的迭代器
+        private HeapPageId pinned; // 当前被 pin 住的页，离开该页或关闭时 unpin
+        private int lastPage = -1; // 上一次读取的页号，用于判断是否为顺序访问
+        private int readAheadEnd = 0; // 已预读到的页号（不含）
+        private final List<Predicate> predicates; // 下推的过滤条件，用于跳过页
 
         int num = 0;
 
         public HeapFileIterator(TransactionId tid, Permissions permissions) {
+            this(tid, permissions, Collections.emptyList());
+        }
+
+        HeapFileIterator(TransactionId tid, Permissions permissions, List<Predicate> predicates) {
             this.tid = tid;
             this.permissions = permissions;
+            this.predicates = predicates;
         }
 
         /**
@@ -202,8 +452,15 @@ public class HeapFile implements DbFile {
         @Override
         public void open() throws DbException, TransactionAbortedException {
             num = 0;
+            lastPage = -1;
+            readAheadEnd = 0;
+            if (!zoneMap.mayMatch(num, predicates)) {
+                // 第 0 页不可能匹配，hasNext 会从下一页开始找
+                iterator = Collections.emptyIterator();
+                return;
+            }
             HeapPageId heapPageId = new HeapPageId(getId(), num);
-            HeapPage page = (HeapPage)this.bufferPool.getPage(tid, heapPageId, permissions);
+            HeapPage page = pin(heapPageId);
 
             if (page == null) {
                 throw new DbException("page is null");
@@ -222,10 +479,11 @@ public class HeapFile implements DbFile {
            while (true) {
                num++;
                if (num >= numPages()) {
+                   unpin();
                    return false;
-               } else {
+               } else if (zoneMap.mayMatch(num, predicates)) {
                    HeapPageId heapPageId = new HeapPageId(getId(), num);
-                   HeapPage page = (HeapPage)this.bufferPool.getPage(tid, heapPageId, permissions);
+                   HeapPage page = pin(heapPageId);
                    if (page == null) {
                        continue;
                    }
@@ -237,6 +495,49 @@ public class HeapFile implements DbFile {
            }
         }
 
+        /**
+         * unpin 之前的页，再读取并 pin 住下一页
+         */
+        private HeapPage pin(HeapPageId heapPageId) throws DbException, TransactionAbortedException {
+            // 先放开当前页再读下一页，两页不必同时留在 buffer 中
+            unpin();
+            readAhead(heapPageId.getPageNumber());
+            HeapPage page = (HeapPage)this.bufferPool.pinPage(tid, heapPageId, permissions);
+            pinned = heapPageId;
+            if (page != null) {
+                zoneMap.learn(page);
+            }
+            return page;
+        }
+
+        /**
+         * 连续两次顺序读页后，在读到已预读范围的末尾时，让 BufferPool 在后台读入后面的若干页
+         */
+        private void readAhead(int pageNo) {
+            boolean sequential = pageNo == lastPage + 1 && lastPage >= 0;
+            lastPage = pageNo;
+            if (!sequential || pageNo + 1 < readAheadEnd) {
+                return;
+            }
+            int count = Math.min(bufferPool.getReadAheadWindow(), numPages() - (pageNo + 1));
+            if (count <= 0) {
+                return;
+            }
+            List<PageId> pids = new ArrayList<>(count);
+            for (int i = pageNo + 1; i <= pageNo + count; i++) {
+                pids.add(new HeapPageId(getId(), i));
+            }
+            bufferPool.readAhead(pids);
+            readAheadEnd = pageNo + 1 + count;
+        }
+
+        private void unpin() {
+            if (pinned != null) {
+                bufferPool.unpinPage(tid, pinned);
+                pinned = null;
+            }
+        }
+
         @Override
         public boolean hasNext() throws DbException, TransactionAbortedException {
             if (iterator == null) {
@@ -264,6 +565,7 @@ public class HeapFile implements DbFile {
 
         @Override
         public void close() {
+            unpin();
             iterator = null;
         }
     }
@@ -8,10 +8,17 @@ import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * The raw bytes of the page are the source of truth. Tuples are decoded
+ * from their offsets on the page when they are first asked for, and a
+ * single field can be read without building its tuple at all; inserts and
+ * deletes write into the bytes in place, so getPageData is a copy rather
+ * than a re-serialization of every tuple.
  *
  * @see HeapFile
  * @see BufferPool
@@ -21,14 +28,16 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte[] header;
-    final Tuple[] tuples;
+    final byte[] data; // 页的原始字节，页头在最前面，之后是各个 slot
+    final Tuple[] tuples; // 已解码元组的缓存，按需填充
     final int numSlots;
+    final int headerSize;
+    final int[] fieldOffsets; // 每个字段在元组内的偏移
 
-    byte[] oldData;
-    private final Byte oldDataLock= (byte) 0;
+    byte[] oldData; // 自上次 setBeforeImage 以来页没有被修改时为 null
+    private final Object oldDataLock = new Object();
 
-    private Boolean dirty;
+    private boolean dirty;
     private TransactionId transactionId;
 
     /**
@@ -51,37 +60,101 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, true);
+    }
+
+    /**
+     * @param copy false if the caller hands over data and will not touch it
+     *             again, e.g. a buffer that was just read from disk
+     */
+    HeapPage(HeapPageId id, byte[] data, boolean copy) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        this.headerSize = getHeaderSize();
+        if (data.length < headerSize + numSlots * td.getSize()) {
+            throw new IOException("page data is too short");
+        }
+        // 页数据总是恰好一页长，写回磁盘时不会错位
+        int pageSize = BufferPool.getPageSize();
+        this.data = copy || data.length != pageSize ? Arrays.copyOf(data, pageSize) : data;
+        this.tuples = new Tuple[numSlots];
+
+        this.fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++) {
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
         }
-        dis.close();
 
         setBeforeImage();
     }
 
+    /**
+     * Constructor for page layouts other than the fixed-slot one, which
+     * interpret the page data themselves and override the methods that
+     * depend on the layout.
+     *
+     * @see SlottedHeapPage
+     */
+    HeapPage(HeapPageId id, TupleDesc td, byte[] data, boolean copy) {
+        this.pid = id;
+        this.td = td;
+        this.numSlots = 0;
+        this.headerSize = 0;
+        this.tuples = new Tuple[0];
+        this.fieldOffsets = new int[0];
+        int pageSize = BufferPool.getPageSize();
+        this.data = copy || data.length != pageSize ? Arrays.copyOf(data, pageSize) : data;
+        setBeforeImage();
+    }
+
+    /**
+     * Copy a page out of a buffer, e.g. a slice of a memory-mapped file,
+     * starting at its position. Pages edit their data in place, so they
+     * never keep a reference to the mapping itself; reading through a
+     * mapping saves the read system call, not this copy.
+     */
+    static byte[] read(ByteBuffer buf) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        buf.get(data, 0, Math.min(data.length, buf.remaining()));
+        return data;
+    }
+
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
     private int getNumTuples() {        
         // some code goes here
+        return getNumTuples(td);
+    }
+
+    /**
+     * Returns the number of slots on this page, used or not.
+     */
+    int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Returns the number of tuples on a page of a HeapFile with the given schema.
+     */
+    static int getNumTuples(TupleDesc td) {
         return (int)Math.floor((BufferPool.getPageSize()*8.0)/(td.getSize()*8.0+1.0));
     }
 
+    /**
+     * Returns true if the header of a page with numSlots slots marks at
+     * least one slot as empty. This only needs the header bytes, so a
+     * HeapFile can tell which pages have room without reading whole pages.
+     */
+    static boolean hasEmptySlot(byte[] header, int numSlots) {
+        for (int i = 0; i < numSlots; i++) {
+            if (((header[i / 8] >> (i % 8)) & 1) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Computes the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
@@ -97,12 +170,7 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            byte[] oldDataRef = null;
-            synchronized(oldDataLock)
-            {
-                oldDataRef = oldData;
-            }
-            return new HeapPage(pid,oldDataRef);
+            return new HeapPage(pid, getBeforeImageData(), false);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -111,10 +179,38 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Record the current contents of the page as its before image. Nothing
+     * is copied here: the first change after this call copies the page data
+     * (see beforeModify), so a page that is flushed and not changed again
+     * never pays for a copy.
+     */
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = null;
+        }
+    }
+
+    /**
+     * 返回前像数据的一份拷贝；页没有被修改过时，前像就是当前的内容
+     */
+    byte[] getBeforeImageData() {
+        synchronized(oldDataLock)
+        {
+            return (oldData != null ? oldData : data).clone();
+        }
+    }
+
+    /**
+     * 修改页内容之前调用，在第一次修改时保存前像
+     */
+    void beforeModify() {
+        synchronized(oldDataLock)
+        {
+            if (oldData == null) {
+                oldData = data.clone();
+            }
         }
     }
 
@@ -127,39 +223,45 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * 元组 slotId 在页中的起始偏移
+     */
+    private int slotOffset(int slotId) {
+        return headerSize + slotId * td.getSize();
+    }
+
+    /**
+     * Returns the tuple in the given slot, decoding it from the page the
+     * first time it is asked for.
+     *
+     * @return the tuple, or null if the slot is empty
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
+    public Tuple getTuple(int slotId) {
         if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
             return null;
         }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new Tuple(td);
+            t.setRecordId(new RecordId(pid, slotId));
+            for (int j = 0; j < td.numFields(); j++) {
+                t.setField(j, getField(slotId, j));
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+            tuples[slotId] = t;
         }
-
         return t;
     }
 
+    /**
+     * Returns field j of the tuple in the given slot, read straight from the
+     * page without building the tuple.
+     */
+    public Field getField(int slotId, int j) {
+        if (!isSlotUsed(slotId)) {
+            throw new NoSuchElementException("slot " + slotId + " is empty");
+        }
+        return td.getFieldType(j).parse(data, slotOffset(slotId) + fieldOffsets[j]);
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -172,64 +274,8 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        // 页内容始终保存在 data 中，直接复制即可
+        return data.clone();
     }
 
     /**
@@ -257,13 +303,29 @@ public class HeapPage implements Page {
         // some code goes here
         // not necessary for lab1
         RecordId recordId = t.getRecordId();
+        if (recordId == null || !pid.equals(recordId.getPageId())) {
+            throw new DbException("tuple is not on this page");
+        }
         int tupleNumber = recordId.getTupleNumber();
-        if (isSlotUsed(tupleNumber) && tuples[tupleNumber].equals(t)) {
-            tuples[tupleNumber] = null;
-            markSlotUsed(tupleNumber, false); // 表示该slot无效
-            return;
+        if (tupleNumber < 0 || tupleNumber >= numSlots || !isSlotUsed(tupleNumber) || !matches(tupleNumber, t)) {
+            throw new DbException("tuple is not on this page, or tuple slot is already empty");
+        }
+        beforeModify();
+        tuples[tupleNumber] = null;
+        markSlotUsed(tupleNumber, false); // 表示该slot无效
+        Arrays.fill(data, slotOffset(tupleNumber), slotOffset(tupleNumber + 1), (byte) 0);
+    }
+
+    /**
+     * 按字段值比较，元组对象不必是从这一页读出的那一个
+     */
+    private boolean matches(int slotId, Tuple t) {
+        for (int j = 0; j < td.numFields(); j++) {
+            if (!getField(slotId, j).equals(t.getField(j))) {
+                return false;
+            }
         }
-        throw new DbException("tuple is not on this page, or tuple slot is already empty");
+        return true;
     }
 
     /**
@@ -286,9 +348,15 @@ public class HeapPage implements Page {
 
         for (int i = 0; i < numSlots; i++) {
             if (!isSlotUsed(i)) {
+                beforeModify();
+                // 直接把字段写入页中，之后读取时再解码
+                int offset = slotOffset(i);
+                for (int j = 0; j < td.numFields(); j++) {
+                    t.getField(j).serialize(data, offset + fieldOffsets[j]);
+                }
                 markSlotUsed(i, true); // 表明该 slot 正在被使用
-                tuples[i] = t;
-                tuples[i].setRecordId(new RecordId(pid, i));
+                tuples[i] = null;
+                t.setRecordId(new RecordId(pid, i));
                 return;
             }
         }
@@ -322,13 +390,14 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int cnt = 0;
-        for (int i = 0; i < numSlots; i++) {
-            if (((header[i / 8] >> (i % 8)) & 1) == 0) {
-                cnt++;
-            }
+        int used = 0;
+        for (int i = 0; i < numSlots / 8; i++) {
+            used += Integer.bitCount(data[i] & 0xff);
+        }
+        for (int i = numSlots / 8 * 8; i < numSlots; i++) {
+            used += (data[i / 8] >> (i % 8)) & 1;
         }
-        return cnt;
+        return numSlots - used;
     }
 
     /**
@@ -339,7 +408,7 @@ public class HeapPage implements Page {
         if (i < 0 || i >= numSlots) {
             throw new IllegalArgumentException("Slot " + i + " out of bounds.");
         }
-        return (header[i / 8] >> (i % 8) & 1) == 1;
+        return (data[i / 8] >> (i % 8) & 1) == 1;
     }
 
     /**
@@ -351,9 +420,9 @@ public class HeapPage implements Page {
         int index = i / 8;
         int offset = i % 8;
         if (value) {
-            header[index] |= (1 << offset);
+            data[index] |= (1 << offset);
         } else {
-            header[index] &= ~(1 << offset);
+            data[index] &= ~(1 << offset);
         }
     }
 
@@ -363,14 +432,25 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        List<Tuple> tuples = new ArrayList<>();
-        for (int i = 0; i < numSlots; i++) {
-            if (isSlotUsed(i)) {
-                tuples.add(this.tuples[i]);
+        // 记下此刻被使用的 slot，元组在 next() 时才解码
+        final byte[] used = Arrays.copyOf(data, headerSize);
+        return new Iterator<Tuple>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                // 跳过创建迭代器时为空、或之后被删除的 slot
+                while (next < numSlots && !((used[next / 8] >> (next % 8) & 1) == 1 && isSlotUsed(next))) {
+                    next++;
+                }
+                return next < numSlots;
             }
-        }
-        return tuples.iterator();
-    }
 
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return getTuple(next++);
+            }
+        };
+    }
 }
-
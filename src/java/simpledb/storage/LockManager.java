@@ -0,0 +1,246 @@
+package simpledb.storage;
+
+import simpledb.common.Permissions;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LockManager grants page-level locks to transactions on behalf of the
+ * BufferPool. READ_ONLY requests are granted shared locks and READ_WRITE
+ * requests exclusive locks; a transaction that is the only holder of a
+ * shared lock may upgrade it to an exclusive one.
+ * <p>
+ * The lock table is split into stripes by the hash of the PageId. Each
+ * stripe is its own monitor, so requests on pages that fall into different
+ * stripes never contend with each other.
+ * <p>
+ * A request that cannot be granted parks on its own waiter until a lock on
+ * that page is released. Before parking, the request is added to a
+ * wait-for graph; if that closes a cycle, the youngest transaction on the
+ * cycle is aborted immediately instead of waiting for a timeout.
+ *
+ * @see WaitForGraph
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /** Number of stripes in the lock table, must be a power of two. */
+    private static final int DEFAULT_STRIPES = 64;
+
+    /**
+     * The state of the lock on a single page: the set of transactions
+     * holding it, whether it is held exclusively, and the requests blocked on it.
+     */
+    private static class PageLock {
+        final Set<TransactionId> holders = new HashSet<>();
+        final List<WaitForGraph.Waiter> waiters = new ArrayList<>();
+        boolean exclusive;
+    }
+
+    /** One shard of the lock table. */
+    private static class Stripe {
+        final Map<PageId, PageLock> locks = new HashMap<>();
+    }
+
+    private final Stripe[] stripes;
+    private final int mask;
+
+    private final WaitForGraph waitForGraph = new WaitForGraph();
+
+    // 每个事务持有锁的页，transactionComplete 时据此释放
+    private final Map<TransactionId, Set<PageId>> lockedPages = new ConcurrentHashMap<>();
+
+    public LockManager() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param numStripes number of shards in the lock table, rounded up to a power of two
+     */
+    public LockManager(int numStripes) {
+        int n = Integer.highestOneBit(Math.max(1, numStripes - 1) << 1);
+        this.stripes = new Stripe[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.mask = n - 1;
+    }
+
+    private Stripe stripeFor(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & mask];
+    }
+
+    /**
+     * Acquire a lock on the specified page, blocking while a conflicting
+     * lock is held by another transaction.
+     *
+     * @param tid the transaction requesting the lock
+     * @param pid the page to lock
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive lock
+     * @throws TransactionAbortedException if the transaction was chosen as a deadlock victim
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        Stripe stripe = stripeFor(pid);
+        WaitForGraph.Waiter waiter = null;
+        try {
+            while (true) {
+                Set<TransactionId> blockers;
+                synchronized (stripe) {
+                    if (tryGrant(stripe, tid, pid, perm)) {
+                        return;
+                    }
+                    if (waiter == null) {
+                        waiter = new WaitForGraph.Waiter(tid);
+                    }
+                    waiter.reset();
+                    PageLock lock = stripe.locks.get(pid);
+                    lock.waiters.add(waiter);
+                    blockers = new HashSet<>(lock.holders);
+                    blockers.remove(tid);
+                }
+                TransactionId victim = waitForGraph.block(waiter, blockers);
+                if (tid.equals(victim)) {
+                    throw new TransactionAbortedException();
+                }
+                if (!waiter.await()) {
+                    throw new TransactionAbortedException();
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new TransactionAbortedException();
+        } finally {
+            if (waiter != null) {
+                synchronized (stripe) {
+                    PageLock lock = stripe.locks.get(pid);
+                    if (lock != null) {
+                        lock.waiters.remove(waiter);
+                    }
+                }
+                waitForGraph.unblock(tid);
+            }
+        }
+    }
+
+    /**
+     * Acquire a lock on the specified page only if it can be granted without
+     * waiting.
+     *
+     * @return true if the transaction now holds the lock
+     */
+    public boolean tryAcquire(TransactionId tid, PageId pid, Permissions perm) {
+        Stripe stripe = stripeFor(pid);
+        synchronized (stripe) {
+            return tryGrant(stripe, tid, pid, perm);
+        }
+    }
+
+    /**
+     * Grant the lock if it is compatible with the current holders.
+     * Must be called while holding the stripe monitor.
+     */
+    private boolean tryGrant(Stripe stripe, TransactionId tid, PageId pid, Permissions perm) {
+        PageLock lock = stripe.locks.get(pid);
+        if (lock == null) {
+            lock = new PageLock();
+            lock.holders.add(tid);
+            lock.exclusive = perm == Permissions.READ_WRITE;
+            stripe.locks.put(pid, lock);
+            recordLock(tid, pid);
+            return true;
+        }
+        boolean held = lock.holders.contains(tid);
+        if (perm == Permissions.READ_ONLY) {
+            if (held || !lock.exclusive) {
+                lock.holders.add(tid);
+                recordLock(tid, pid);
+                return true;
+            }
+            return false;
+        }
+        // READ_WRITE: only free pages or pages this transaction holds alone
+        if (lock.holders.isEmpty() || (held && lock.holders.size() == 1)) {
+            lock.holders.add(tid);
+            lock.exclusive = true;
+            recordLock(tid, pid);
+            return true;
+        }
+        return false;
+    }
+
+    private void recordLock(TransactionId tid, PageId pid) {
+        lockedPages.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid);
+    }
+
+    /**
+     * Release the lock the transaction holds on the specified page, if any.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        Set<PageId> pages = lockedPages.get(tid);
+        if (pages != null) {
+            pages.remove(pid);
+        }
+        Stripe stripe = stripeFor(pid);
+        synchronized (stripe) {
+            releaseLocked(stripe, tid, pid);
+        }
+    }
+
+    /**
+     * Drop tid from the holders of the page and wake every request blocked
+     * on it so they can retry. Must be called while holding the stripe monitor.
+     */
+    private void releaseLocked(Stripe stripe, TransactionId tid, PageId pid) {
+        PageLock lock = stripe.locks.get(pid);
+        if (lock == null || !lock.holders.remove(tid)) {
+            return;
+        }
+        lock.exclusive = false;
+        for (WaitForGraph.Waiter w : lock.waiters) {
+            w.signal();
+        }
+        lock.waiters.clear();
+        if (lock.holders.isEmpty()) {
+            stripe.locks.remove(pid);
+        }
+    }
+
+    /**
+     * Release every lock held by the specified transaction.
+     */
+    public void releaseAll(TransactionId tid) {
+        Set<PageId> pages = lockedPages.remove(tid);
+        waitForGraph.remove(tid);
+        if (pages == null) {
+            return;
+        }
+        for (PageId pid : pages) {
+            Stripe stripe = stripeFor(pid);
+            synchronized (stripe) {
+                releaseLocked(stripe, tid, pid);
+            }
+        }
+    }
+
+    /** Return true if the specified transaction has a lock on the specified page */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        Set<PageId> pages = lockedPages.get(tid);
+        return pages != null && pages.contains(pid);
+    }
+
+    /**
+     * Returns the pages the transaction currently holds locks on.
+     */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        Set<PageId> pages = lockedPages.get(tid);
+        if (pages == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(pages);
+    }
+}
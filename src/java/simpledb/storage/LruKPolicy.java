@@ -0,0 +1,124 @@
+package simpledb.storage;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * LruKPolicy implements LRU-K: the victim is the page whose K-th most
+ * recent access is the oldest. Pages that have been accessed fewer than K
+ * times are evicted first, in LRU order of their last access.
+ * <p>
+ * With K = 2, a page that a sequential scan touches once can never push
+ * out a page that index lookups keep touching, such as a B+ tree root or
+ * internal page. Access history is kept for a bounded number of evicted
+ * pages so that a page read again soon after eviction keeps its credit.
+ *
+ * @Threadsafe
+ */
+public class LruKPolicy implements EvictionPolicy {
+
+    /** The last K access times of a page, most recent first. */
+    private static class History {
+        final PageId pid;
+        final long[] times;
+
+        History(PageId pid, int k) {
+            this.pid = pid;
+            this.times = new long[k];
+        }
+
+        void access(long now) {
+            System.arraycopy(times, 0, times, 1, times.length - 1);
+            times[0] = now;
+        }
+
+        /** @return the K-th most recent access time, or 0 if there were fewer than K accesses */
+        long kth() {
+            return times[times.length - 1];
+        }
+
+        long last() {
+            return times[0];
+        }
+    }
+
+    private static final Comparator<History> BY_KTH_DISTANCE =
+            Comparator.comparingLong(History::kth).thenComparingLong(History::last);
+
+    private final int k;
+    private final int historyCapacity;
+    private long clock = 0;
+
+    private final Map<PageId, History> resident = new HashMap<>();
+    private final TreeSet<History> order = new TreeSet<>(BY_KTH_DISTANCE);
+    // 已淘汰页面的访问历史，按淘汰顺序保存，超出容量时丢弃最旧的
+    private final LinkedHashMap<PageId, History> evicted = new LinkedHashMap<>();
+
+    /**
+     * @param capacity the number of pages in the pool, also the number of
+     *                 evicted pages whose history is retained
+     * @param k the number of accesses to track per page
+     */
+    public LruKPolicy(int capacity, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        this.k = k;
+        this.historyCapacity = capacity;
+    }
+
+    public synchronized void recordAccess(PageId pid) {
+        History h = resident.get(pid);
+        if (h == null) {
+            return;
+        }
+        order.remove(h);
+        h.access(++clock);
+        order.add(h);
+    }
+
+    public synchronized void recordInsert(PageId pid) {
+        History h = resident.get(pid);
+        if (h != null) {
+            order.remove(h);
+        } else {
+            h = evicted.remove(pid);
+            if (h == null) {
+                h = new History(pid, k);
+            }
+            resident.put(pid, h);
+        }
+        h.access(++clock);
+        order.add(h);
+    }
+
+    public synchronized void recordRemove(PageId pid) {
+        History h = resident.remove(pid);
+        if (h != null) {
+            order.remove(h);
+        }
+    }
+
+    public synchronized PageId evict(Predicate<PageId> evictable) {
+        for (Iterator<History> it = order.iterator(); it.hasNext(); ) {
+            History h = it.next();
+            if (evictable.test(h.pid)) {
+                it.remove();
+                resident.remove(h.pid);
+                evicted.put(h.pid, h);
+                if (evicted.size() > historyCapacity) {
+                    Iterator<PageId> oldest = evicted.keySet().iterator();
+                    oldest.next();
+                    oldest.remove();
+                }
+                return h.pid;
+            }
+        }
+        return null;
+    }
+
+    /** Only K = 2 is offered through {@link EvictionPolicy.Type}. */
+    public Type getType() {
+        return Type.LRU_2;
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb.storage;
+
+/**
+ * PageCleaner is a background thread that writes pages of committed
+ * transactions back to their DbFile, so that commits only have to force the
+ * log and eviction rarely has to write a page itself.
+ * <p>
+ * The cleaner wakes up every INTERVAL_MILLIS and asks the BufferPool to
+ * write back a batch of pages. The pool sizes the batch by the fraction of
+ * its pages that are waiting to be written: a mostly clean pool is trickled
+ * one page at a time, while a pool that is filling up with committed pages
+ * is drained quickly. The pool also wakes the cleaner early when that
+ * fraction passes a high watermark.
+ *
+ * @see BufferPool#startPageCleaner()
+ */
+class PageCleaner implements Runnable {
+
+    /** How long the cleaner sleeps between batches. */
+    static final long INTERVAL_MILLIS = 50;
+
+    private final BufferPool pool;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private boolean woken = false;
+
+    PageCleaner(BufferPool pool) {
+        this.pool = pool;
+        this.thread = new Thread(this, "page-cleaner");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Make the cleaner start its next batch now instead of at the end of
+     * the current interval.
+     */
+    synchronized void wake() {
+        woken = true;
+        notifyAll();
+    }
+
+    /**
+     * Stop the cleaner and wait for the batch it is writing to finish.
+     * Pages that are still waiting are left to the caller.
+     */
+    void shutdown() {
+        running = false;
+        wake();
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public void run() {
+        while (running) {
+            pool.writeBackBatch();
+            synchronized (this) {
+                try {
+                    if (!woken && running) {
+                        wait(INTERVAL_MILLIS);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                woken = false;
+            }
+        }
+    }
+}
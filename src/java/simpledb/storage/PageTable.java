@@ -0,0 +1,232 @@
+package simpledb.storage;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * PageTable maps the ids of resident pages to the pages in the BufferPool
+ * and delegates the choice of which page to give up to an EvictionPolicy.
+ * <p>
+ * Lookups go through a ConcurrentHashMap and take no lock of their own;
+ * the cost of recording a hit depends on the policy (the CLOCK policy
+ * records it without a lock). Inserts, removals and evictions are
+ * serialized on the table; they only happen on a miss, which already pays
+ * for a disk read.
+ * <p>
+ * Pages can be pinned while a caller is working on them, e.g. an iterator
+ * that is reading tuples off the page. A pinned page is never chosen for
+ * eviction, whatever the policy thinks of it. Pin counts are kept
+ * separately from the resident pages, so pinning takes no lock either.
+ * <p>
+ * Pages read ahead of a sequential scan are installed with putPrefetched.
+ * The policy records their insertion as usual, but the first lookup that
+ * finds such a page is not recorded as a further access, so a scan that
+ * reads ahead is no more able to push out frequently used pages than one
+ * that does not.
+ * <p>
+ * The table counts hits and misses so that policies can be compared on
+ * the same workload.
+ *
+ * @see EvictionPolicy
+ * @Threadsafe
+ */
+public class PageTable {
+
+    private final int capacity;
+    private final ConcurrentHashMap<PageId, Page> pages;
+    private final EvictionPolicy policy;
+    // 每个被 pin 住的页的 pin 次数，次数归零时移除
+    private final ConcurrentHashMap<PageId, Integer> pins = new ConcurrentHashMap<>();
+    // 预读进来、还没有被访问过的页
+    private final Set<PageId> prefetched = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates a page table that uses the CLOCK policy.
+     *
+     * @param capacity the maximum number of pages held in the table
+     */
+    public PageTable(int capacity) {
+        this(capacity, EvictionPolicy.Type.CLOCK);
+    }
+
+    /**
+     * @param capacity the maximum number of pages held in the table
+     * @param policyType the replacement policy to use
+     */
+    public PageTable(int capacity, EvictionPolicy.Type policyType) {
+        this.capacity = capacity;
+        this.pages = new ConcurrentHashMap<>(capacity * 2);
+        this.policy = policyType.create(capacity);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public EvictionPolicy getPolicy() {
+        return policy;
+    }
+
+    public int size() {
+        return pages.size();
+    }
+
+    /** @return true if no more pages can be added without evicting one */
+    public boolean isFull() {
+        return pages.size() >= capacity;
+    }
+
+    public boolean contains(PageId pid) {
+        return pages.containsKey(pid);
+    }
+
+    /**
+     * Look up a page, record the access with the eviction policy and count
+     * it as a hit or a miss.
+     *
+     * @return the resident page, or null if it is not in the table
+     */
+    public Page get(PageId pid) {
+        Page page = pages.get(pid);
+        if (page == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        // 预读页的第一次访问就是它的插入
+        if (prefetched.isEmpty() || !prefetched.remove(pid)) {
+            policy.recordAccess(pid);
+        }
+        return page;
+    }
+
+    /**
+     * Look up a page without counting it as an access.
+     */
+    public Page peek(PageId pid) {
+        return pages.get(pid);
+    }
+
+    /**
+     * Add a page to the table, or replace the resident version of it.
+     *
+     * @throws IllegalStateException if the page is new and the table is full
+     */
+    public synchronized void put(PageId pid, Page page) {
+        if (pages.containsKey(pid)) {
+            pages.put(pid, page);
+            policy.recordAccess(pid);
+            return;
+        }
+        if (isFull()) {
+            throw new IllegalStateException("page table is full");
+        }
+        policy.recordInsert(pid);
+        pages.put(pid, page);
+    }
+
+    /**
+     * Add a page that was read ahead of its first access.
+     *
+     * @throws IllegalStateException if the table is full
+     */
+    public synchronized void putPrefetched(PageId pid, Page page) {
+        if (pages.containsKey(pid)) {
+            return;
+        }
+        put(pid, page);
+        prefetched.add(pid);
+    }
+
+    /**
+     * Remove a page from the table.
+     *
+     * @return the page that was removed, or null if it was not resident
+     */
+    public synchronized Page remove(PageId pid) {
+        Page page = pages.remove(pid);
+        if (page != null) {
+            policy.recordRemove(pid);
+            prefetched.remove(pid);
+        }
+        return page;
+    }
+
+    /**
+     * Pin a page so that it cannot be evicted. The page does not have to be
+     * resident yet; a caller that pins before it looks the page up can be
+     * sure that the page it finds stays in the table.
+     */
+    public void pin(PageId pid) {
+        pins.merge(pid, 1, Integer::sum);
+    }
+
+    /**
+     * Drop one pin on a page.
+     *
+     * @return true if the page is no longer pinned
+     */
+    public boolean unpin(PageId pid) {
+        return pins.computeIfPresent(pid, (k, n) -> n == 1 ? null : n - 1) == null;
+    }
+
+    public boolean isPinned(PageId pid) {
+        return pins.containsKey(pid);
+    }
+
+    public int getPinCount(PageId pid) {
+        return pins.getOrDefault(pid, 0);
+    }
+
+    /**
+     * Ask the eviction policy for a victim among the unpinned pages the
+     * caller allows to be evicted, and remove it.
+     *
+     * @param evictable decides whether a page may be evicted, e.g. because it is clean
+     * @return the page that was evicted, or null if no page may be evicted
+     */
+    public synchronized Page evict(Predicate<Page> evictable) {
+        PageId victim = policy.evict(pid -> {
+            Page page = pages.get(pid);
+            return page != null && !pins.containsKey(pid) && evictable.test(page);
+        });
+        if (victim == null) {
+            return null;
+        }
+        prefetched.remove(victim);
+        return pages.remove(victim);
+    }
+
+    /**
+     * Returns a snapshot of the resident pages.
+     */
+    public Collection<Page> pages() {
+        return new ArrayList<>(pages.values());
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /** @return the fraction of lookups that found the page resident, or 0 if there were none */
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    /** Reset the hit and miss counters. */
+    public void resetStats() {
+        hits.reset();
+        misses.reset();
+    }
+}
@@ -0,0 +1,406 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * SlottedHeapPage is a HeapPage with a slot directory and variable-length
+ * records, for tables whose strings are mostly much shorter than
+ * Type.STRING_LEN. A string takes two length bytes plus its UTF-8 bytes
+ * instead of STRING_LEN + 4 bytes, so such a table fits many more tuples on
+ * a page than with the fixed layout of HeapPage.
+ * <p>
+ * The page starts with a header of HEADER_SIZE bytes: the number of entries
+ * in the slot directory, the offset where the record area starts and the
+ * number of bytes used by records. The slot directory follows, one entry of
+ * SLOT_SIZE bytes (record offset and length) per slot, and grows towards
+ * the end of the page; records are stored from the end of the page
+ * backwards. A slot whose offset is 0 is empty. A page of all zeroes is an
+ * empty page, so HeapPage.createEmptyPageData works for this layout too.
+ * <p>
+ * Slot numbers stay the same for as long as a record lives, so RecordIds
+ * remain valid. Deleting a record leaves a hole in the record area; when an
+ * insert does not fit in the contiguous free space but fits in the total
+ * free space, the page is compacted in place first.
+ * <p>
+ * getNumEmptySlots is conservative: it is the number of records of the
+ * largest possible size that still fit. A page it reports as full can
+ * still take a short record through insertTuple, but HeapFile will start a
+ * new page rather than try.
+ *
+ * @see HeapFile.Layout#SLOTTED
+ */
+public class SlottedHeapPage extends HeapPage {
+
+    /** Bytes at the start of the page: slot count, record area start and bytes used by records. */
+    public static final int HEADER_SIZE = 6;
+    /** Bytes per slot directory entry: record offset and record length. */
+    public static final int SLOT_SIZE = 4;
+    /** Bytes in front of the characters of a string field. */
+    private static final int STRING_LENGTH_SIZE = 2;
+
+    private final int maxRecordSize;
+
+    /**
+     * Create a SlottedHeapPage from the bytes of a page read from disk.
+     *
+     * @see #SlottedHeapPage(HeapPageId, byte[], boolean)
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, true);
+    }
+
+    /**
+     * @param copy false if the caller hands over data and will not touch it
+     *             again, e.g. a buffer that was just read from disk
+     */
+    SlottedHeapPage(HeapPageId id, byte[] data, boolean copy) throws IOException {
+        super(id, Database.getCatalog().getTupleDesc(id.getTableId()), data, copy);
+        this.maxRecordSize = getMaxRecordSize(td);
+        if (HEADER_SIZE + SLOT_SIZE + maxRecordSize > this.data.length) {
+            throw new IOException("tuples of " + td + " do not fit on a page");
+        }
+    }
+
+    /**
+     * Returns the size of the largest record a tuple with the given schema
+     * can take on a slotted page.
+     */
+    static int getMaxRecordSize(TupleDesc td) {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            size += td.getFieldType(j) == Type.STRING_TYPE
+                    ? STRING_LENGTH_SIZE + Type.STRING_LEN : td.getFieldType(j).getLen();
+        }
+        return size;
+    }
+
+    /**
+     * Returns true if a page whose first HEADER_SIZE bytes are header has
+     * room for a record of the largest size. Like HeapPage.hasEmptySlot,
+     * this only needs the header, so a HeapFile can build its free-space map
+     * without reading whole pages.
+     */
+    static boolean hasRoom(byte[] header, TupleDesc td) {
+        int free = BufferPool.getPageSize() - HEADER_SIZE
+                - SLOT_SIZE * getShort(header, 0) - getShort(header, 4);
+        return free >= SLOT_SIZE + getMaxRecordSize(td);
+    }
+
+    private static int getShort(byte[] b, int offset) {
+        return ((b[offset] & 0xff) << 8) | (b[offset + 1] & 0xff);
+    }
+
+    private void putShort(int offset, int value) {
+        data[offset] = (byte) (value >>> 8);
+        data[offset + 1] = (byte) value;
+    }
+
+    private int getSlotCount() {
+        return getShort(data, 0);
+    }
+
+    private int getRecordStart() {
+        int start = getShort(data, 2);
+        // 全 0 的空页中记录区从页尾开始
+        return start == 0 ? data.length : start;
+    }
+
+    private int getUsedBytes() {
+        return getShort(data, 4);
+    }
+
+    private int getFreeBytes() {
+        return data.length - HEADER_SIZE - SLOT_SIZE * getSlotCount() - getUsedBytes();
+    }
+
+    private int getRecordOffset(int slotId) {
+        return getShort(data, HEADER_SIZE + slotId * SLOT_SIZE);
+    }
+
+    private int getRecordLength(int slotId) {
+        return getShort(data, HEADER_SIZE + slotId * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int slotId, int offset, int length) {
+        putShort(HEADER_SIZE + slotId * SLOT_SIZE, offset);
+        putShort(HEADER_SIZE + slotId * SLOT_SIZE + 2, length);
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    @Override
+    public SlottedHeapPage getBeforeImage() {
+        try {
+            return new SlottedHeapPage(pid, getBeforeImageData(), false);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of records of the largest possible size that still
+     * fit on this page, counting the space that compaction would free.
+     */
+    @Override
+    public int getNumEmptySlots() {
+        return Math.max(0, getFreeBytes()) / (SLOT_SIZE + maxRecordSize);
+    }
+
+    /**
+     * Returns the number of entries in the slot directory.
+     */
+    @Override
+    int getNumSlots() {
+        return getSlotCount();
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled. Slots past the
+     * end of the slot directory are empty.
+     */
+    @Override
+    public boolean isSlotUsed(int i) {
+        if (i < 0) {
+            throw new IllegalArgumentException("Slot " + i + " out of bounds.");
+        }
+        return i < getSlotCount() && getRecordOffset(i) != 0;
+    }
+
+    /**
+     * Returns the number of bytes t takes as a record on this page.
+     */
+    private int getRecordSize(Tuple t) {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            Field f = t.getField(j);
+            size += f.getType() == Type.STRING_TYPE
+                    ? STRING_LENGTH_SIZE + encode(((StringField) f).getValue()).length
+                    : f.getType().getLen();
+        }
+        return size;
+    }
+
+    /**
+     * 返回记录中第 j 个字段的偏移，字符串字段是变长的，需要逐个跳过前面的字段
+     */
+    private int getFieldOffset(int slotId, int j) {
+        int offset = getRecordOffset(slotId);
+        for (int k = 0; k < j; k++) {
+            offset += td.getFieldType(k) == Type.STRING_TYPE
+                    ? STRING_LENGTH_SIZE + getShort(data, offset) : td.getFieldType(k).getLen();
+        }
+        return offset;
+    }
+
+    /**
+     * Returns s as UTF-8, cut to at most Type.STRING_LEN bytes at a character
+     * boundary.
+     */
+    private static byte[] encode(String s) {
+        ByteBuffer out = ByteBuffer.allocate(Type.STRING_LEN);
+        // 放不下时编码器停在完整字符处，不会截断多字节字符
+        StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .encode(CharBuffer.wrap(s), out, true);
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    private Field readField(int offset, Type type) {
+        if (type == Type.STRING_TYPE) {
+            int len = Math.min(getShort(data, offset), Type.STRING_LEN);
+            return new StringField(new String(data, offset + STRING_LENGTH_SIZE, len, StandardCharsets.UTF_8),
+                    Type.STRING_LEN);
+        }
+        return type.parse(data, offset);
+    }
+
+    /**
+     * Write field f at offset and return the offset after it.
+     */
+    private int writeField(int offset, Field f) {
+        if (f.getType() == Type.STRING_TYPE) {
+            byte[] bytes = encode(((StringField) f).getValue());
+            putShort(offset, bytes.length);
+            System.arraycopy(bytes, 0, data, offset + STRING_LENGTH_SIZE, bytes.length);
+            return offset + STRING_LENGTH_SIZE + bytes.length;
+        }
+        f.serialize(data, offset);
+        return offset + f.getType().getLen();
+    }
+
+    @Override
+    public Tuple getTuple(int slotId) {
+        if (!isSlotUsed(slotId)) {
+            return null;
+        }
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        int offset = getRecordOffset(slotId);
+        for (int j = 0; j < td.numFields(); j++) {
+            Field f = readField(offset, td.getFieldType(j));
+            t.setField(j, f);
+            offset += f.getType() == Type.STRING_TYPE
+                    ? STRING_LENGTH_SIZE + getShort(data, offset) : f.getType().getLen();
+        }
+        return t;
+    }
+
+    @Override
+    public Field getField(int slotId, int j) {
+        if (!isSlotUsed(slotId)) {
+            throw new NoSuchElementException("slot " + slotId + " is empty");
+        }
+        return readField(getFieldOffset(slotId, j), td.getFieldType(j));
+    }
+
+    /**
+     * Adds the specified tuple to the page, compacting the record area first
+     * if the tuple only fits in the space left by deleted records.
+     * @throws DbException if the page has no room for the tuple or tupledesc
+     *         is mismatch.
+     */
+    @Override
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("tupledesc mismatch");
+        }
+        int size = getRecordSize(t);
+        int slotCount = getSlotCount();
+        // 优先复用空的目录项，否则在目录末尾追加一项
+        int slotId = slotCount;
+        for (int i = 0; i < slotCount; i++) {
+            if (getRecordOffset(i) == 0) {
+                slotId = i;
+                break;
+            }
+        }
+        int directoryEnd = HEADER_SIZE + SLOT_SIZE * Math.max(slotCount, slotId + 1);
+        if (getFreeBytes() - (slotId == slotCount ? SLOT_SIZE : 0) < size) {
+            throw new DbException("page is full");
+        }
+
+        beforeModify();
+        if (getRecordStart() - directoryEnd < size) {
+            compact();
+        }
+        int offset = getRecordStart() - size;
+        int end = offset;
+        for (int j = 0; j < td.numFields(); j++) {
+            end = writeField(end, t.getField(j));
+        }
+        setSlot(slotId, offset, size);
+        if (slotId == slotCount) {
+            putShort(0, slotCount + 1);
+        }
+        putShort(2, offset);
+        putShort(4, getUsedBytes() + size);
+        t.setRecordId(new RecordId(pid, slotId));
+    }
+
+    /**
+     * Delete the specified tuple from the page. Its slot becomes empty; the
+     * space of the record is reclaimed by the next compaction.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    @Override
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId recordId = t.getRecordId();
+        if (recordId == null || !pid.equals(recordId.getPageId())) {
+            throw new DbException("tuple is not on this page");
+        }
+        int slotId = recordId.getTupleNumber();
+        if (!isSlotUsed(slotId)) {
+            throw new DbException("tuple slot is already empty");
+        }
+        for (int j = 0; j < td.numFields(); j++) {
+            if (!getField(slotId, j).equals(t.getField(j))) {
+                throw new DbException("tuple is not on this page");
+            }
+        }
+
+        beforeModify();
+        int offset = getRecordOffset(slotId);
+        int length = getRecordLength(slotId);
+        Arrays.fill(data, offset, offset + length, (byte) 0);
+        setSlot(slotId, 0, 0);
+        putShort(4, getUsedBytes() - length);
+        // 去掉目录末尾的空项，让目录可以收缩
+        int slotCount = getSlotCount();
+        while (slotCount > 0 && getRecordOffset(slotCount - 1) == 0) {
+            slotCount--;
+        }
+        putShort(0, slotCount);
+    }
+
+    /**
+     * Move all records to the end of the page, in slot order, so that the
+     * free space between the slot directory and the records is contiguous.
+     */
+    private void compact() {
+        byte[] old = data.clone();
+        int slotCount = getSlotCount();
+        int end = data.length;
+        for (int i = 0; i < slotCount; i++) {
+            int offset = getRecordOffset(i);
+            if (offset != 0) {
+                int length = getRecordLength(i);
+                end -= length;
+                System.arraycopy(old, offset, data, end, length);
+                setSlot(i, end, length);
+            }
+        }
+        int directoryEnd = HEADER_SIZE + SLOT_SIZE * slotCount;
+        Arrays.fill(data, directoryEnd, end, (byte) 0);
+        putShort(2, end);
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    @Override
+    public Iterator<Tuple> iterator() {
+        // 记下此刻被使用的 slot，元组在 next() 时才解码
+        final List<Integer> used = new ArrayList<>();
+        for (int i = 0; i < getSlotCount(); i++) {
+            if (getRecordOffset(i) != 0) {
+                used.add(i);
+            }
+        }
+        return new Iterator<Tuple>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                // 跳过创建迭代器之后被删除的 slot
+                while (next < used.size() && !isSlotUsed(used.get(next))) {
+                    next++;
+                }
+                return next < used.size();
+            }
+
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return getTuple(used.get(next++));
+            }
+        };
+    }
+}
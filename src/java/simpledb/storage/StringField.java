@@ -4,6 +4,7 @@ import simpledb.common.Type;
 import simpledb.execution.Predicate;
 
 import java.io.*;
+import java.util.Arrays;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -69,6 +70,18 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	/**
+	 * Write this string into data at offset, in the same format as
+	 * serialize(DataOutputStream).
+	 */
+	public void serialize(byte[] data, int offset) {
+		int len = Math.min(value.length(), maxSize);
+		new IntField(len).serialize(data, offset);
+		for (int i = 0; i < len; i++)
+			data[offset + 4 + i] = (byte) value.charAt(i);
+		Arrays.fill(data, offset + 4 + len, offset + 4 + maxSize, (byte) 0);
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
@@ -0,0 +1,155 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+/**
+ * WaitForGraph records which transactions each blocked transaction is
+ * waiting on, and detects deadlocks incrementally: the graph is only
+ * searched when a transaction blocks, starting from the transactions it
+ * waits for.
+ * <p>
+ * When a cycle is found the youngest transaction on it (the one with the
+ * largest id) is chosen as the victim, since it has done the least work.
+ * If the victim is not the caller it is woken through its waiter at once.
+ *
+ * @see LockManager
+ * @Threadsafe
+ */
+class WaitForGraph {
+
+    /**
+     * A blocked request. The waiting thread parks on this object's monitor
+     * until a lock on the page it wants is released or it is picked as a
+     * deadlock victim.
+     */
+    static class Waiter {
+        final TransactionId tid;
+        private boolean signalled;
+        private boolean aborted;
+
+        Waiter(TransactionId tid) {
+            this.tid = tid;
+        }
+
+        synchronized void reset() {
+            signalled = false;
+        }
+
+        synchronized void signal() {
+            signalled = true;
+            notifyAll();
+        }
+
+        synchronized void abort() {
+            aborted = true;
+            notifyAll();
+        }
+
+        synchronized boolean isAborted() {
+            return aborted;
+        }
+
+        /**
+         * Block until signalled or aborted.
+         * @return false if this waiter was chosen as a deadlock victim
+         */
+        synchronized boolean await() throws InterruptedException {
+            while (!signalled && !aborted) {
+                wait();
+            }
+            return !aborted;
+        }
+    }
+
+    // 边：等待者 -> 它正在等待的持锁事务
+    private final Map<TransactionId, Set<TransactionId>> waitsFor = new HashMap<>();
+    private final Map<TransactionId, Waiter> waiters = new HashMap<>();
+
+    /**
+     * Record that the waiter's transaction is blocked on the given holders
+     * and check whether this closes a cycle.
+     *
+     * @return the victim of the deadlock, or null if there is no deadlock
+     */
+    synchronized TransactionId block(Waiter waiter, Set<TransactionId> holders) {
+        TransactionId tid = waiter.tid;
+        waitsFor.put(tid, holders);
+        waiters.put(tid, waiter);
+
+        List<TransactionId> cycle = findCycle(tid);
+        if (cycle == null) {
+            return null;
+        }
+        TransactionId victim = tid;
+        for (TransactionId t : cycle) {
+            if (t.getId() > victim.getId()) {
+                victim = t;
+            }
+        }
+        if (!victim.equals(tid)) {
+            Waiter w = waiters.get(victim);
+            if (w != null) {
+                w.abort();
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * Depth-first search from the transactions tid waits for, looking for
+     * a path back to tid. Transactions already chosen as victims are
+     * skipped since they are about to release their locks.
+     *
+     * @return the transactions on the cycle, or null if there is none
+     */
+    private List<TransactionId> findCycle(TransactionId tid) {
+        Map<TransactionId, TransactionId> parent = new HashMap<>();
+        Deque<TransactionId> stack = new ArrayDeque<>();
+        parent.put(tid, null);
+        stack.push(tid);
+        while (!stack.isEmpty()) {
+            TransactionId cur = stack.pop();
+            Set<TransactionId> next = waitsFor.get(cur);
+            if (next == null) {
+                continue;
+            }
+            for (TransactionId n : next) {
+                if (n.equals(tid)) {
+                    List<TransactionId> cycle = new ArrayList<>();
+                    for (TransactionId t = cur; t != null; t = parent.get(t)) {
+                        cycle.add(t);
+                    }
+                    return cycle;
+                }
+                Waiter w = waiters.get(n);
+                if (parent.containsKey(n) || (w != null && w.isAborted())) {
+                    continue;
+                }
+                parent.put(n, cur);
+                stack.push(n);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove the outgoing edges of a transaction that is no longer blocked.
+     */
+    synchronized void unblock(TransactionId tid) {
+        waitsFor.remove(tid);
+        waiters.remove(tid);
+    }
+
+    /**
+     * Remove a finished transaction from the graph, along with every edge
+     * pointing at it.
+     */
+    synchronized void remove(TransactionId tid) {
+        unblock(tid);
+        for (Set<TransactionId> holders : waitsFor.values()) {
+            holders.remove(tid);
+        }
+    }
+}
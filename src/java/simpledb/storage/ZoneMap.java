@@ -0,0 +1,180 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * ZoneMap keeps, for every page of a HeapFile, the smallest and the
+ * largest value of each INT column on the page, so that a scan with a
+ * predicate such as "id > 1000000" can skip the pages that cannot hold a
+ * matching tuple without reading them.
+ * <p>
+ * Like FreeSpaceMap, the map is kept in memory next to the file. The range
+ * of a page is unknown until the page is first read by a scan, and a page
+ * with an unknown range is always read. Inserts widen the range of the
+ * page they go to, and every version of a page that is written to disk
+ * widens its range too, so a range covers both the page on disk and the
+ * page in the BufferPool. Deletes mark the range of the page stale; it is
+ * recomputed the next time the page is read while it is not dirty, i.e.
+ * while it holds only committed changes.
+ *
+ * @Threadsafe
+ */
+public class ZoneMap {
+
+    private final TupleDesc td;
+    // 每页一项：第 j 列的 min 在 [2j]，max 在 [2j+1]；null 表示还不知道该页的范围
+    private final List<int[]> ranges = new ArrayList<>();
+    private final BitSet stale = new BitSet();
+
+    public ZoneMap(TupleDesc td) {
+        this.td = td;
+    }
+
+    private int[] emptyRange() {
+        int[] range = new int[td.numFields() * 2];
+        for (int j = 0; j < td.numFields(); j++) {
+            range[2 * j] = Integer.MAX_VALUE;
+            range[2 * j + 1] = Integer.MIN_VALUE;
+        }
+        return range;
+    }
+
+    private int[] get(int pageNo) {
+        return pageNo < ranges.size() ? ranges.get(pageNo) : null;
+    }
+
+    private void put(int pageNo, int[] range) {
+        while (ranges.size() <= pageNo) {
+            ranges.add(null);
+        }
+        ranges.set(pageNo, range);
+    }
+
+    private void widen(int[] range, int j, int v) {
+        range[2 * j] = Math.min(range[2 * j], v);
+        range[2 * j + 1] = Math.max(range[2 * j + 1], v);
+    }
+
+    /**
+     * Widen the range of a page to cover a tuple inserted into it. Pages
+     * whose range is unknown are left unknown.
+     */
+    public synchronized void insert(int pageNo, Tuple t) {
+        int[] range = get(pageNo);
+        if (range == null) {
+            return;
+        }
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                widen(range, j, ((IntField) t.getField(j)).getValue());
+            }
+        }
+    }
+
+    /**
+     * Note that a tuple was deleted from a page, so its range may be narrower now.
+     */
+    public synchronized void delete(int pageNo) {
+        stale.set(pageNo);
+    }
+
+    /**
+     * Widen the range of a page to cover a version of the page that is
+     * written to disk, e.g. a before image that recovery puts back.
+     */
+    public synchronized void write(HeapPage page) {
+        int pageNo = page.getId().getPageNumber();
+        int[] range = get(pageNo);
+        if (range == null) {
+            return;
+        }
+        int[] written = compute(page);
+        for (int j = 0; j < td.numFields(); j++) {
+            if (written[2 * j] <= written[2 * j + 1]) {
+                widen(range, j, written[2 * j]);
+                widen(range, j, written[2 * j + 1]);
+            }
+        }
+    }
+
+    /**
+     * Set the range of a page from the page itself, which the caller has
+     * just read and holds a lock on. This does nothing unless the range is
+     * unknown or stale, or if the page is dirty: its changes may still be
+     * rolled back.
+     */
+    public synchronized void learn(HeapPage page) {
+        int pageNo = page.getId().getPageNumber();
+        if (page.isDirty() != null || (get(pageNo) != null && !stale.get(pageNo))) {
+            return;
+        }
+        put(pageNo, compute(page));
+        stale.clear(pageNo);
+    }
+
+    private int[] compute(HeapPage page) {
+        int[] range = emptyRange();
+        for (int i = 0; i < page.getNumSlots(); i++) {
+            if (!page.isSlotUsed(i)) {
+                continue;
+            }
+            // 只解码 INT 列
+            for (int j = 0; j < td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.INT_TYPE) {
+                    widen(range, j, ((IntField) page.getField(i, j)).getValue());
+                }
+            }
+        }
+        return range;
+    }
+
+    /**
+     * Returns false if the range of the page shows that no tuple on it can
+     * satisfy all of the predicates. True means the page has to be read.
+     */
+    public synchronized boolean mayMatch(int pageNo, List<Predicate> predicates) {
+        int[] range = get(pageNo);
+        if (range == null) {
+            return true;
+        }
+        for (Predicate p : predicates) {
+            int j = p.getField();
+            if (td.getFieldType(j) == Type.INT_TYPE && p.getOperand() instanceof IntField
+                    && !mayMatch(range[2 * j], range[2 * j + 1], p.getOp(), ((IntField) p.getOperand()).getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns false if no value in [min, max] can satisfy "value op v". An
+     * empty range (min greater than max) satisfies nothing.
+     */
+    public static boolean mayMatch(int min, int max, Predicate.Op op, int v) {
+        if (min > max) {
+            return false;
+        }
+        switch (op) {
+            case EQUALS:
+                return min <= v && v <= max;
+            case GREATER_THAN:
+                return max > v;
+            case GREATER_THAN_OR_EQ:
+                return max >= v;
+            case LESS_THAN:
+                return min < v;
+            case LESS_THAN_OR_EQ:
+                return min <= v;
+            case NOT_EQUALS:
+                return min != v || max != v;
+            default:
+                return true;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class BTreeBulkLoaderTest extends SimpleDbTestBase {
+
+	private static final int ROWS = 20000;
+
+	private BTreeFile createEmptyFile() throws Exception {
+		File f = File.createTempFile("bulkload", ".dat");
+		f.deleteOnExit();
+		return BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+	}
+
+	private static int key(Tuple t) {
+		return ((IntField) t.getField(0)).getValue();
+	}
+
+	/**
+	 * Returns the keys of the file in the order a scan of its leaves finds them.
+	 */
+	private List<Integer> scanKeys(BTreeFile bf, TransactionId tid) throws Exception {
+		List<Integer> res = new ArrayList<>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			res.add(key(it.next()));
+		}
+		it.close();
+		return res;
+	}
+
+	/**
+	 * Tuples added in random order, spilled in many runs, come out sorted in a
+	 * valid tree whose leaves are filled to the fill factor.
+	 */
+	@Test public void loadSpilledRuns() throws Exception {
+		BTreeFile bf = createEmptyFile();
+		List<List<Integer>> tuples = new ArrayList<>();
+		BTreeUtility.generateRandomTuples(2, ROWS, BTreeUtility.MAX_RAND_VALUE, null, tuples);
+		BTreeBulkLoader loader = new BTreeBulkLoader(bf, 0.7, 1000);
+		for (List<Integer> tuple : tuples) {
+			loader.add(BTreeUtility.getBTreeTuple(tuple));
+		}
+		assertEquals(ROWS, loader.finish());
+
+		List<Integer> expected = new ArrayList<>();
+		for (List<Integer> tuple : tuples) {
+			expected.add(tuple.get(0));
+		}
+		Collections.sort(expected);
+
+		TransactionId tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertEquals(expected, scanKeys(bf, tid));
+
+		// the first leaf is filled to the fill factor, not packed
+		BTreeLeafPage first = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+				new BTreePageId(bf.getId(), 1, BTreePageId.LEAF), Permissions.READ_ONLY);
+		assertEquals((int) (first.getMaxTuples() * 0.7), first.getNumTuples());
+		assertNull(first.getLeftSiblingId());
+
+		int k = expected.get(ROWS / 2);
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(k)));
+		it.open();
+		int found = 0;
+		while (it.hasNext()) {
+			assertEquals(k, key(it.next()));
+			found++;
+		}
+		it.close();
+		assertEquals(Collections.frequency(expected, k), found);
+		Database.getBufferPool().transactionComplete(tid);
+
+		// there is room for inserts
+		tid = new TransactionId();
+		for (int i = 0; i < 100; i++) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(i, 2));
+		}
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertEquals(ROWS + 100, scanKeys(bf, tid).size());
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * A file with a few tuples is a single leaf, and a file with none an
+	 * empty one.
+	 */
+	@Test public void loadSmall() throws Exception {
+		BTreeFile bf = createEmptyFile();
+		BTreeBulkLoader loader = new BTreeBulkLoader(bf);
+		for (int i = 10; i > 0; i--) {
+			loader.add(BTreeUtility.getBTreeTuple(i, 2));
+		}
+		loader.finish();
+		assertEquals(1, bf.numPages());
+		TransactionId tid = new TransactionId();
+		assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10), scanKeys(bf, tid));
+		Database.getBufferPool().transactionComplete(tid);
+
+		BTreeFile empty = createEmptyFile();
+		assertEquals(0, new BTreeBulkLoader(empty).finish());
+		tid = new TransactionId();
+		assertTrue(scanKeys(empty, tid).isEmpty());
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void fillFactorTooLow() throws Exception {
+		new BTreeBulkLoader(createEmptyFile(), 0.4, 1000);
+	}
+
+	@Test(expected = DbException.class)
+	public void fileNotEmpty() throws Exception {
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 10, null, null, 0);
+		new BTreeBulkLoader(bf);
+	}
+
+	/**
+	 * An index built over an existing HeapFile has one entry per tuple,
+	 * pointing at it.
+	 */
+	@Test public void buildIndexOverHeapFile() throws Exception {
+		TupleDesc td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.INT_TYPE}, new String[] {"a", "b"});
+		File f = File.createTempFile("bulkbase", ".dat");
+		f.deleteOnExit();
+		HeapFile hf = new HeapFile(f, td);
+		Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+		Database.resetBufferPool(500); // we need more pages for the inserts
+		TransactionId tid = new TransactionId();
+		for (int i = 0; i < ROWS; i++) {
+			Tuple t = new Tuple(td);
+			t.setField(0, new IntField(i));
+			t.setField(1, new IntField((i * 7) % 1000));
+			Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+		}
+		Database.getBufferPool().transactionComplete(tid);
+
+		File indexFile = File.createTempFile("bulkindex", ".dat");
+		indexFile.deleteOnExit();
+		BTreeIndexFile index = new BTreeIndexFile(indexFile, hf.getId(), 1, Type.INT_TYPE);
+		Database.getCatalog().addIndex(index, SystemTestUtil.getUUID());
+		tid = new TransactionId();
+		assertEquals(ROWS, index.build(tid, 0.9));
+		Database.getBufferPool().transactionComplete(tid);
+
+		tid = new TransactionId();
+		BTreeChecker.checkRep(index, tid, new HashMap<>(), true);
+		DbFileIterator it = index.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(42)));
+		it.open();
+		Set<Integer> ids = new HashSet<>();
+		while (it.hasNext()) {
+			Tuple e = it.next();
+			RecordId rid = new RecordId(new HeapPageId(hf.getId(), ((IntField) e.getField(1)).getValue()),
+					((IntField) e.getField(2)).getValue());
+			HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+			Tuple t = p.getTuple(rid.getTupleNumber());
+			assertEquals(42, ((IntField) t.getField(1)).getValue());
+			ids.add(((IntField) t.getField(0)).getValue());
+		}
+		it.close();
+		assertEquals(ROWS / 1000, ids.size());
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeBulkLoaderTest.class);
+	}
+}
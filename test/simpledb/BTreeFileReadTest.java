@@ -3,10 +3,15 @@ package simpledb;
 import simpledb.common.Database;
 import simpledb.common.Utility;
 import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
 import simpledb.index.*;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.execution.Predicate.Op;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
 
 import java.util.*;
 
@@ -207,6 +212,157 @@ public class BTreeFileReadTest extends SimpleDbTestBase {
 
 	}
 
+	private static List<Integer> keys(DbFileIterator it) throws Exception {
+		List<Integer> res = new ArrayList<>();
+		it.open();
+		while(it.hasNext()) {
+			res.add(((IntField) it.next().getField(0)).getValue());
+		}
+		it.close();
+		return res;
+	}
+
+	/**
+	 * Unit test for BTreeFile.rangeIterator(), with keys repeated across leaf pages
+	 */
+	@Test public void rangeIterator() throws Exception {
+		List<List<Integer>> tuples = new ArrayList<>();
+		BTreeFile bigFile = BTreeUtility.createRandomBTreeFile(2, 20000, 1000, null, tuples, 0);
+		List<Integer> sorted = new ArrayList<>();
+		for (List<Integer> tuple : tuples) {
+			sorted.add(tuple.get(0));
+		}
+		Collections.sort(sorted);
+
+		int[][] bounds = {{100, 200}, {500, 500}, {-1, 300}, {700, 1000}, {0, 999}, {400, 300}, {-5, -1}};
+		for (int[] b : bounds) {
+			for (int incl = 0; incl < 4; incl++) {
+				boolean lowInclusive = (incl & 1) != 0;
+				boolean highInclusive = (incl & 2) != 0;
+				List<Integer> expected = new ArrayList<>();
+				for (int k : sorted) {
+					if((lowInclusive ? k >= b[0] : k > b[0]) && (highInclusive ? k <= b[1] : k < b[1])) {
+						expected.add(k);
+					}
+				}
+				assertEquals(expected, keys(bigFile.rangeIterator(tid, new IntField(b[0]), lowInclusive,
+						new IntField(b[1]), highInclusive, false)));
+				Collections.reverse(expected);
+				assertEquals(expected, keys(bigFile.rangeIterator(tid, new IntField(b[0]), lowInclusive,
+						new IntField(b[1]), highInclusive, true)));
+			}
+		}
+
+		// one-sided ranges and predicates, in both directions
+		List<Integer> expected = new ArrayList<>();
+		for (int k : sorted) {
+			if(k < 250) {
+				expected.add(k);
+			}
+		}
+		IndexPredicate ipred = new IndexPredicate(Op.LESS_THAN, new IntField(250));
+		assertEquals(expected, keys(bigFile.indexIterator(tid, ipred)));
+		Collections.reverse(expected);
+		assertEquals(expected, keys(bigFile.indexIterator(tid, ipred, true)));
+		assertEquals(expected, keys(bigFile.rangeIterator(tid, null, false, new IntField(250), false, true)));
+
+		expected.clear();
+		for (int k : sorted) {
+			if(k != 250) {
+				expected.add(k);
+			}
+		}
+		Collections.reverse(expected);
+		assertEquals(expected, keys(bigFile.indexIterator(tid, new IndexPredicate(Op.NOT_EQUALS, new IntField(250)), true)));
+	}
+
+	/**
+	 * Unit test for BTreeFile.reverseIterator()
+	 */
+	@Test public void reverseIterator() throws Exception {
+		BTreeFile bigFile = BTreeUtility.createRandomBTreeFile(2, 20000, null, null, 0);
+		List<Integer> expected = keys(bigFile.iterator(tid));
+		Collections.reverse(expected);
+		assertEquals(expected, keys(bigFile.reverseIterator(tid)));
+
+		BTreeFile empty = BTreeUtility.createRandomBTreeFile(2, 0, null, null, 0);
+		assertTrue(keys(empty.reverseIterator(tid)).isEmpty());
+	}
+
+	/**
+	 * A descending scan of the keys less than some key starts at that key, and reading
+	 * the last few of them does not touch the left-most leaf page
+	 */
+	@Test public void descendingScanSeeks() throws Exception {
+		BTreeFile bigFile = BTreeUtility.createBTreeFile(2, 20000, null, null, 0);
+		DbFileIterator it = bigFile.iterator(tid);
+		it.open();
+		PageId firstLeaf = it.next().getRecordId().getPageId();
+		it.close();
+		Database.getBufferPool().transactionComplete(tid);
+
+		tid = new TransactionId();
+		it = bigFile.indexIterator(tid, new IndexPredicate(Op.LESS_THAN, new IntField(15000)), true);
+		it.open();
+		for (int i = 14999; i > 14989; i--) {
+			assertEquals(i, ((IntField) it.next().getField(0)).getValue());
+		}
+		it.close();
+		assertFalse(Database.getBufferPool().holdsLock(tid, firstLeaf));
+	}
+
+	private static boolean contains(OpIterator op, Class<?> c) {
+		if (c.isInstance(op)) {
+			return true;
+		}
+		if (op instanceof Operator) {
+			for (OpIterator child : ((Operator) op).getChildren()) {
+				if (contains(child, c)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The planner answers ORDER BY on the key of a B+ tree with a scan of the tree in that
+	 * order, starting at the bound a filter on the key gives, instead of sorting the table
+	 */
+	@Test public void orderByKeyPlan() throws Exception {
+		// reopen the file with named fields, so the plan can tell them apart
+		BTreeFile bigFile = BTreeUtility.openBTreeFile(2, "f",
+				BTreeUtility.createBTreeFile(2, 20000, null, null, 0).getFile(), 0);
+		Map<String, TableStats> stats = new HashMap<>();
+		stats.put(Database.getCatalog().getTableName(bigFile.getId()), new TableStats(bigFile.getId(), 1000));
+		String key = "t." + bigFile.getTupleDesc().getFieldName(0);
+
+		LogicalPlan lp = new LogicalPlan();
+		lp.addScan(bigFile.getId(), "t");
+		lp.addFilter(key, Op.LESS_THAN, "15000");
+		lp.addProjectField(key, null);
+		lp.addOrderBy(key, false);
+		OpIterator plan = lp.physicalPlan(tid, stats, false);
+		assertTrue(contains(plan, BTreeScan.class));
+		assertFalse(contains(plan, OrderBy.class));
+		List<Integer> expected = keys(bigFile.indexIterator(tid, new IndexPredicate(Op.LESS_THAN, new IntField(15000))));
+		Collections.reverse(expected);
+		List<Integer> actual = new ArrayList<>();
+		plan.open();
+		while (plan.hasNext()) {
+			actual.add(((IntField) plan.next().getField(0)).getValue());
+		}
+		plan.close();
+		assertEquals(expected, actual);
+
+		// ordering by any other field still needs a sort
+		lp = new LogicalPlan();
+		lp.addScan(bigFile.getId(), "t");
+		lp.addProjectField(key, null);
+		lp.addOrderBy("t." + bigFile.getTupleDesc().getFieldName(1), false);
+		assertTrue(contains(lp.physicalPlan(tid, stats, false), OrderBy.class));
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -0,0 +1,147 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.IndexScan;
+import simpledb.execution.Predicate;
+import simpledb.index.BTreeIndexFile;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class BTreeIndexTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+    private static final int KEYS = 1000;
+
+    private TupleDesc td;
+    private HeapFile hf;
+    private BTreeIndexFile byA;
+    private BTreeIndexFile byB;
+
+    private Tuple tuple(int a, int b, int c) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(a));
+        t.setField(1, new IntField(b));
+        t.setField(2, new IntField(c));
+        return t;
+    }
+
+    private BTreeIndexFile createIndex(int field) throws Exception {
+        File f = File.createTempFile("btreeindex", ".dat");
+        f.deleteOnExit();
+        BTreeIndexFile index = new BTreeIndexFile(f, hf.getId(), field, Type.INT_TYPE);
+        Database.getCatalog().addIndex(index, SystemTestUtil.getUUID());
+        return index;
+    }
+
+    /**
+     * Create a table with indexes on two of its fields, and insert enough
+     * rows that the indexes have several levels.
+     */
+    @Before public void createTable() throws Exception {
+        td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE},
+                new String[] {"a", "b", "c"});
+        File f = File.createTempFile("btreebase", ".dat");
+        f.deleteOnExit();
+        hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        byA = createIndex(0);
+        byB = createIndex(1);
+
+        Database.resetBufferPool(500); // we need more pages for the inserts
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i % KEYS, ROWS - i, i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Returns the sorted third fields of the tuples an index scan finds.
+     */
+    private List<Integer> scan(TransactionId tid, BTreeIndexFile index, Predicate.Op op, int v) throws Exception {
+        IndexScan scan = new IndexScan(tid, index, new IndexPredicate(op, new IntField(v)), "t");
+        List<Integer> res = new ArrayList<>();
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertTrue(t.getField(index.getKeyField()).compare(op, new IntField(v)));
+            res.add(((IntField) t.getField(2)).getValue());
+        }
+        scan.close();
+        Collections.sort(res);
+        return res;
+    }
+
+    private static List<Integer> range(int from, int to, int step) {
+        List<Integer> res = new ArrayList<>();
+        for (int i = from; i < to; i += step) {
+            res.add(i);
+        }
+        return res;
+    }
+
+    /**
+     * Both indexes answer equality and range predicates on their field.
+     */
+    @Test public void lookups() throws Exception {
+        assertTrue(byA.numPages() > 3);
+        TransactionId tid = new TransactionId();
+        assertEquals(range(17, ROWS, KEYS), scan(tid, byA, Predicate.Op.EQUALS, 17));
+        assertEquals(3 * ROWS / KEYS, scan(tid, byA, Predicate.Op.GREATER_THAN_OR_EQ, KEYS - 3).size());
+        assertEquals(Collections.singletonList(ROWS - 10), scan(tid, byB, Predicate.Op.EQUALS, 10));
+        assertEquals(range(ROWS - 5, ROWS, 1), scan(tid, byB, Predicate.Op.LESS_THAN_OR_EQ, 5));
+        assertEquals(range(0, 3, 1), scan(tid, byB, Predicate.Op.GREATER_THAN, ROWS - 3));
+        assertTrue(scan(tid, byA, Predicate.Op.EQUALS, KEYS).isEmpty());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Deleting tuples from the table removes their entries from every index.
+     */
+    @Test public void deletes() throws Exception {
+        TransactionId tid = new TransactionId();
+        IndexScan scan = new IndexScan(tid, byA, new IndexPredicate(Predicate.Op.EQUALS, new IntField(42)), "t");
+        List<Tuple> victims = new ArrayList<>();
+        scan.open();
+        while (scan.hasNext()) {
+            victims.add(scan.next());
+        }
+        scan.close();
+        assertEquals(ROWS / KEYS, victims.size());
+        for (Tuple t : victims) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertTrue(scan(tid, byA, Predicate.Op.EQUALS, 42).isEmpty());
+        assertTrue(scan(tid, byB, Predicate.Op.EQUALS, ROWS - 42).isEmpty());
+        assertEquals(Collections.singletonList(43), scan(tid, byB, Predicate.Op.EQUALS, ROWS - 43));
+        assertEquals(ROWS / KEYS, scan(tid, byA, Predicate.Op.EQUALS, 43).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeIndexTest.class);
+    }
+}
@@ -8,6 +8,7 @@ import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.common.Utility;
+import simpledb.execution.Predicate.Op;
 import simpledb.storage.BufferPool;
 import simpledb.storage.IntField;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -174,6 +175,111 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeInternalPage.reverseIterator() with empty slots between the entries
+	 */
+	@Test public void testReverseIteratorWithEmptySlots() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		List<BTreeEntry> entries = new ArrayList<>();
+		Iterator<BTreeEntry> it = page.iterator();
+		while (it.hasNext()) {
+			entries.add(it.next());
+		}
+		for (int i = 0; i < entries.size(); i += 2) {
+			page.deleteKeyAndRightChild(entries.get(i));
+		}
+
+		entries.clear();
+		it = page.iterator();
+		while (it.hasNext()) {
+			entries.add(0, it.next());
+		}
+		int row = 0;
+		it = page.reverseIterator();
+		while (it.hasNext()) {
+			BTreeEntry e = it.next();
+			assertEquals(entries.get(row).getKey(), e.getKey());
+			assertEquals(entries.get(row).getLeftChild(), e.getLeftChild());
+			assertEquals(entries.get(row).getRightChild(), e.getRightChild());
+			row++;
+		}
+		assertEquals(entries.size(), row);
+	}
+
+	/**
+	 * Unit test for BTreeInternalPage.findChild() and findLastChild(), also with empty slots between
+	 * the entries
+	 */
+	@Test public void findChild() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		for (int round = 0; round < 2; round++) {
+			List<BTreeEntry> entries = new ArrayList<>();
+			Iterator<BTreeEntry> it = page.iterator();
+			while (it.hasNext()) {
+				entries.add(it.next());
+			}
+			assertEquals(entries.get(0).getLeftChild(), page.findChild(null));
+			for (int key : new int[] {0, 1468, 1469, 22064, 22100, 62778, 62779}) {
+				BTreePageId expected = entries.get(entries.size() - 1).getRightChild();
+				for (BTreeEntry e : entries) {
+					if (e.getKey().compare(Op.GREATER_THAN_OR_EQ, new IntField(key))) {
+						expected = e.getLeftChild();
+						break;
+					}
+				}
+				assertEquals(expected, page.findChild(new IntField(key)));
+
+				expected = entries.get(0).getLeftChild();
+				for (BTreeEntry e : entries) {
+					if (e.getKey().compare(Op.LESS_THAN_OR_EQ, new IntField(key))) {
+						expected = e.getRightChild();
+					}
+				}
+				assertEquals(expected, page.findLastChild(new IntField(key)));
+			}
+			assertEquals(entries.get(entries.size() - 1).getRightChild(), page.findLastChild(null));
+
+			// delete every other entry and search again
+			for (int i = 0; i < entries.size(); i += 2) {
+				page.deleteKeyAndRightChild(entries.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Unit test for BTreeInternalPage.insertEntry() with duplicate keys: the child an entry
+	 * is inserted next to may be any of the children between equal keys, and an entry whose
+	 * key does not fit next to the matching child is rejected
+	 */
+	@Test public void addEntryDuplicateKeys() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, BTreeInternalPage.createEmptyPageData(), 0);
+		for (int i = 1; i <= 3; i++) {
+			page.insertEntry(new BTreeEntry(new IntField(5),
+					new BTreePageId(pid.getTableId(), i, BTreePageId.LEAF),
+					new BTreePageId(pid.getTableId(), i + 1, BTreePageId.LEAF)));
+		}
+		page.insertEntry(new BTreeEntry(new IntField(5),
+				new BTreePageId(pid.getTableId(), 1, BTreePageId.LEAF),
+				new BTreePageId(pid.getTableId(), 10, BTreePageId.LEAF)));
+		int[] expected = {1, 10, 2, 3, 4};
+		Iterator<BTreeEntry> it = page.iterator();
+		for (int i = 0; i < 4; i++) {
+			BTreeEntry e = it.next();
+			assertEquals(expected[i], e.getLeftChild().getPageNumber());
+			assertEquals(expected[i + 1], e.getRightChild().getPageNumber());
+		}
+		assertEquals(new BTreePageId(pid.getTableId(), 4, BTreePageId.LEAF), page.findLastChild(new IntField(5)));
+
+		try {
+			page.insertEntry(new BTreeEntry(new IntField(4),
+					new BTreePageId(pid.getTableId(), 3, BTreePageId.LEAF),
+					new BTreePageId(pid.getTableId(), 11, BTreePageId.LEAF)));
+			throw new Exception("inserted an entry whose key is out of order");
+		} catch (DbException e) {
+			// expected
+		}
+	}
+
 	/**
 	 * Unit test for BTreeInternalPage.getNumEmptySlots()
 	 */
@@ -0,0 +1,295 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.index.BTreeUtility.BTreeWriter;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeLatchCrabbingTest extends SimpleDbTestBase {
+
+	private static final int POLL_INTERVAL = 100;
+	private static final int TIMEOUT = 10000;
+
+	private BufferPool bp;
+	private BTreeFile bf;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before public void setUp() throws Exception {
+		// a B+ tree with about 100 packed leaf pages under an internal root page
+		bf = BTreeUtility.createRandomBTreeFile(2, 50200, null, null, 0);
+		bp = Database.resetBufferPool(500);
+	}
+
+	private BTreePageId getRootId(TransactionId tid) throws Exception {
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bp.getPage(tid,
+				BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		return rootPtr.getRootId();
+	}
+
+	private void waitFor(BTreeWriter writer) throws Exception {
+		for(int waited = 0; waited < TIMEOUT && !writer.succeeded() && writer.getError() == null;
+				waited += POLL_INTERVAL) {
+			Thread.sleep(POLL_INTERVAL);
+		}
+	}
+
+	/**
+	 * A search keeps its lock on the leaf it read but not on the pages above it, so
+	 * a writer that splits a leaf at the other end of the tree does not wait for the
+	 * reader to commit.
+	 */
+	@Test public void readerDoesNotBlockSplit() throws Exception {
+		TransactionId tid = new TransactionId();
+		BTreePageId rootId = getRootId(tid);
+		assertEquals(BTreePageId.INTERNAL, rootId.pgcateg());
+		bp.transactionComplete(tid);
+
+		// read the left-most key and keep the transaction open
+		TransactionId reader = new TransactionId();
+		DbFileIterator it = bf.indexIterator(reader, new IndexPredicate(Op.GREATER_THAN_OR_EQ, new IntField(0)));
+		it.open();
+		assertTrue(it.hasNext());
+		Tuple first = it.next();
+		it.close();
+		BTreePageId leafId = (BTreePageId) first.getRecordId().getPageId();
+		assertTrue(bp.holdsLock(reader, leafId));
+		assertFalse(bp.holdsLock(reader, rootId));
+		assertFalse(bp.holdsLock(reader, BTreeRootPtrPage.getId(bf.getId())));
+
+		// the right-most leaf is full, so this insert splits it and updates the root
+		TransactionId writer = new TransactionId();
+		BTreeWriter bw = new BTreeWriter(writer, bf, BTreeUtility.MAX_RAND_VALUE, 1);
+		bw.start();
+		waitFor(bw);
+		assertNull(bw.getError());
+		assertTrue(bw.succeeded());
+		bp.transactionComplete(writer);
+		bp.transactionComplete(reader);
+	}
+
+	/**
+	 * A split keeps its write locks until the transaction completes, so a search
+	 * that needs the split pages waits for it instead of reading a structure that
+	 * may still be rolled back.
+	 */
+	@Test public void splitBlocksReaderUntilCommit() throws Exception {
+		TransactionId writer = new TransactionId();
+		BTreeWriter bw = new BTreeWriter(writer, bf, BTreeUtility.MAX_RAND_VALUE, 1);
+		bw.start();
+		waitFor(bw);
+		assertTrue(bw.succeeded());
+		BTreePageId rootId = getRootId(writer);
+		assertTrue(bp.holdsLock(writer, rootId));
+
+		TransactionId reader = new TransactionId();
+		AtomicInteger found = new AtomicInteger(-1);
+		Thread search = new Thread(() -> {
+			try {
+				DbFileIterator it = bf.indexIterator(reader,
+						new IndexPredicate(Op.EQUALS, new IntField(BTreeUtility.MAX_RAND_VALUE)));
+				it.open();
+				int count = 0;
+				while(it.hasNext()) {
+					it.next();
+					count++;
+				}
+				it.close();
+				found.set(count);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		});
+		search.start();
+		Thread.sleep(POLL_INTERVAL);
+		assertEquals(-1, found.get());
+
+		// the search sees the tree as it was before the split
+		bp.transactionComplete(writer, false);
+		search.join(TIMEOUT);
+		assertEquals(0, found.get());
+		bp.transactionComplete(reader);
+	}
+
+	/**
+	 * A search that has to wait for a leaf locked by a writer gives up its latch on the
+	 * parent first, so the writer can still split the leaf. Waiting with the parent latched
+	 * would close a cycle, and the search would be aborted as a deadlock victim.
+	 */
+	@Test public void readerWaitsWithoutLatch() throws Exception {
+		// make room on the right-most leaf, so the writer can lock it without splitting it
+		TransactionId tid = new TransactionId();
+		bp.insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(BTreeUtility.MAX_RAND_VALUE, 2));
+		bp.transactionComplete(tid);
+
+		TransactionId writer = new TransactionId();
+		BTreeWriter bw = new BTreeWriter(writer, bf, BTreeUtility.MAX_RAND_VALUE, 2);
+		bw.start();
+		waitFor(bw);
+		assertTrue(bw.succeeded());
+		BTreePageId rootId = getRootId(writer);
+		assertFalse(bp.holdsLock(writer, rootId));
+
+		TransactionId reader = new TransactionId();
+		AtomicInteger found = new AtomicInteger(-1);
+		AtomicReference<Exception> error = new AtomicReference<>();
+		Thread search = new Thread(() -> {
+			try {
+				DbFileIterator it = bf.indexIterator(reader,
+						new IndexPredicate(Op.EQUALS, new IntField(BTreeUtility.MAX_RAND_VALUE)));
+				it.open();
+				int count = 0;
+				while(it.hasNext()) {
+					it.next();
+					count++;
+				}
+				it.close();
+				found.set(count);
+			} catch (Exception e) {
+				error.set(e);
+			}
+		});
+		search.start();
+		Thread.sleep(POLL_INTERVAL);
+		assertEquals(-1, found.get());
+		assertFalse(bp.holdsLock(reader, rootId));
+
+		// fill the leaf until it splits, which write-locks the root
+		int count = BTreeUtility.getNumTuplesPerPage(2) + 1;
+		bw = new BTreeWriter(writer, bf, BTreeUtility.MAX_RAND_VALUE, count);
+		bw.start();
+		waitFor(bw);
+		assertNull(bw.getError());
+		assertTrue(bw.succeeded());
+		assertTrue(bp.holdsLock(writer, rootId));
+		bp.transactionComplete(writer);
+
+		search.join(TIMEOUT);
+		assertNull(error.get());
+		assertEquals(count, found.get());
+		bp.transactionComplete(reader);
+	}
+
+	/**
+	 * A descent only gives up the locks it took itself: pages the transaction had locked
+	 * before the search stay locked until it completes.
+	 */
+	@Test public void descentKeepsLocksHeldBefore() throws Exception {
+		TransactionId tid = new TransactionId();
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(bf.getId());
+		BTreePageId rootId = getRootId(tid);
+		bp.getPage(tid, rootId, Permissions.READ_ONLY);
+
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.GREATER_THAN_OR_EQ, new IntField(0)));
+		it.open();
+		assertTrue(it.hasNext());
+		it.next();
+		it.close();
+		assertTrue(bp.holdsLock(tid, rootPtrId));
+		assertTrue(bp.holdsLock(tid, rootId));
+		bp.transactionComplete(tid);
+	}
+
+	private static final int THREADS = 4;
+	private static final int TRANSACTIONS = 20;
+	private static final int TUPLES = 10;
+	private static final int THINK_TIME = 20;
+
+	/**
+	 * Transactions on different leaves only meet on the pages above them, which they hold
+	 * just long enough to pass through. Each thread inserts a few tuples near its own key,
+	 * reads them back and then holds its locks for a while, as a transaction doing other
+	 * work would. No transaction is aborted, leaf splits included, every insert is found
+	 * afterwards, and transactions holding their locks run side by side.
+	 */
+	@Test public void transactionsOnDifferentLeavesRunTogether() throws Exception {
+		AtomicInteger aborts = new AtomicInteger();
+		AtomicInteger thinking = new AtomicInteger();
+		AtomicInteger maxThinking = new AtomicInteger();
+		AtomicReference<Throwable> error = new AtomicReference<>();
+		List<Thread> workers = new ArrayList<>();
+		int[] keys = new int[THREADS];
+		for(int i = 0; i < THREADS; i++) {
+			final int key = keys[i] = (2 * i + 1) * (BTreeUtility.MAX_RAND_VALUE / (2 * THREADS));
+			workers.add(new Thread(() -> {
+				try {
+					for(int n = 0; n < TRANSACTIONS; ) {
+						TransactionId tid = new TransactionId();
+						try {
+							for(int j = 0; j < TUPLES; j++) {
+								bp.insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(key, 2));
+							}
+							DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)));
+							it.open();
+							assertTrue(it.hasNext());
+							it.close();
+							maxThinking.accumulateAndGet(thinking.incrementAndGet(), Math::max);
+							Thread.sleep(THINK_TIME);
+							thinking.decrementAndGet();
+							bp.transactionComplete(tid);
+							n++;
+						} catch (TransactionAbortedException e) {
+							aborts.incrementAndGet();
+							bp.transactionComplete(tid, false);
+						}
+					}
+				} catch (Throwable e) {
+					error.set(e);
+				}
+			}));
+		}
+		for(Thread w : workers) {
+			w.start();
+		}
+		for(Thread w : workers) {
+			w.join(TIMEOUT * 3);
+			assertFalse(w.isAlive());
+		}
+		assertNull(error.get());
+		assertEquals(0, aborts.get());
+		assertTrue(maxThinking.get() > 1);
+
+		// every committed insert is in the tree
+		TransactionId tid = new TransactionId();
+		for(int key : keys) {
+			DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)));
+			it.open();
+			int count = 0;
+			while(it.hasNext()) {
+				it.next();
+				count++;
+			}
+			it.close();
+			assertTrue(count >= TRANSACTIONS * TUPLES);
+		}
+		bp.transactionComplete(tid);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeLatchCrabbingTest.class);
+	}
+}
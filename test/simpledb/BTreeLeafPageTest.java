@@ -169,6 +169,25 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeLeafPage.getBeforeImage() and setBeforeImage()
+	 */
+	@Test public void beforeImage() throws Exception {
+		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+		BTreePageId id = new BTreePageId(pid.getTableId(), 1, BTreePageId.LEAF);
+
+		// changes after setBeforeImage are not in the before image...
+		page.setLeftSiblingId(id);
+		page.insertTuple(BTreeUtility.getBTreeTuple(new int[] {1, 2}));
+		assertNull(page.getBeforeImage().getLeftSiblingId());
+		assertEquals(EXAMPLE_VALUES.length, page.getBeforeImage().getNumTuples());
+
+		// ...until the next call makes them part of it
+		page.setBeforeImage();
+		assertEquals(id, page.getBeforeImage().getLeftSiblingId());
+		assertEquals(EXAMPLE_VALUES.length + 1, page.getBeforeImage().getNumTuples());
+	}
+
 	/**
 	 * Unit test for BTreeLeafPage.iterator()
 	 */
@@ -196,6 +215,48 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeLeafPage.iterator(Field), also with empty slots between
+	 * the tuples
+	 */
+	@Test public void testIteratorFrom() throws Exception {
+		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+		for (int round = 0; round < 2; round++) {
+			List<Integer> keys = new ArrayList<>();
+			Iterator<Tuple> all = page.iterator();
+			while (all.hasNext()) {
+				keys.add(((IntField) all.next().getField(0)).getValue());
+			}
+			for (int key : new int[] {0, 1468, 1469, 22064, 22100, 62778, 62779}) {
+				List<Integer> expected = new ArrayList<>();
+				for (int k : keys) {
+					if (k >= key) {
+						expected.add(k);
+					}
+				}
+				List<Integer> actual = new ArrayList<>();
+				Iterator<Tuple> it = page.iterator(new IntField(key));
+				while (it.hasNext()) {
+					actual.add(((IntField) it.next().getField(0)).getValue());
+				}
+				assertEquals(expected, actual);
+			}
+
+			// delete every other tuple and search again
+			List<Tuple> victims = new ArrayList<>();
+			all = page.iterator();
+			for (int i = 0; all.hasNext(); i++) {
+				Tuple t = all.next();
+				if (i % 2 == 0) {
+					victims.add(t);
+				}
+			}
+			for (Tuple t : victims) {
+				page.deleteTuple(t);
+			}
+		}
+	}
+
 	/**
 	 * Unit test for BTreeLeafPage.getNumEmptySlots()
 	 */
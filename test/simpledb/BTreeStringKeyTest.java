@@ -0,0 +1,211 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class BTreeStringKeyTest extends SimpleDbTestBase {
+
+	private static final TupleDesc TD = new TupleDesc(new Type[] {Type.STRING_TYPE, Type.INT_TYPE});
+
+	private BTreeFile bf;
+
+	/**
+	 * Create an empty B+ tree keyed on a string field.
+	 */
+	@Before public void setUp() throws Exception {
+		File f = File.createTempFile("stringkeys", ".dat");
+		f.deleteOnExit();
+		bf = new BTreeFile(f, 0, TD);
+		Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+		Database.resetBufferPool(500); // we need more pages for the inserts
+	}
+
+	private static StringField str(String s) {
+		return new StringField(s, Type.STRING_LEN);
+	}
+
+	private static Tuple tuple(String key, int value) {
+		Tuple t = new Tuple(TD);
+		t.setField(0, str(key));
+		t.setField(1, new IntField(value));
+		return t;
+	}
+
+	private static String customer(int i) {
+		return String.format("customer-%08d", i);
+	}
+
+	private List<String> scanKeys(TransactionId tid) throws Exception {
+		List<String> res = new ArrayList<>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			res.add(((StringField) it.next().getField(0)).getValue());
+		}
+		it.close();
+		return res;
+	}
+
+	private BTreeInternalPage getRoot(TransactionId tid) throws Exception {
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+				BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		return (BTreeInternalPage) Database.getBufferPool().getPage(tid, rootPtr.getRootId(), Permissions.READ_ONLY);
+	}
+
+	/**
+	 * The separator is the shortest prefix of the right key that is greater than the left key.
+	 */
+	@Test public void shortestSeparator() {
+		assertEquals(str("b"), BTreeInternalPage.shortestSeparator(str("apple"), str("banana")));
+		assertEquals(str("customer-0042"), BTreeInternalPage.shortestSeparator(
+				str("customer-00417733"), str("customer-00420001")));
+		assertEquals(str("abc"), BTreeInternalPage.shortestSeparator(str("ab"), str("abc")));
+		assertEquals(str("same"), BTreeInternalPage.shortestSeparator(str("same"), str("same")));
+		assertEquals(new IntField(7), BTreeInternalPage.shortestSeparator(new IntField(3), new IntField(7)));
+	}
+
+	/**
+	 * A compact page stores the shared prefix once, so it holds many more entries than
+	 * full-length string keys would allow, and it reads back the way it was written.
+	 */
+	@Test public void compactPage() throws Exception {
+		int n = 300;
+		List<BTreeEntry> entries = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			entries.add(new BTreeEntry(str(customer(i * 10)),
+					new BTreePageId(bf.getId(), i + 1, BTreePageId.LEAF),
+					new BTreePageId(bf.getId(), i + 2, BTreePageId.LEAF)));
+		}
+		byte[] data = BTreeFileEncoder.convertToInternalPage(entries, BufferPool.getPageSize(),
+				Type.STRING_TYPE, BTreePageId.LEAF);
+		BTreePageId pid = new BTreePageId(bf.getId(), 1, BTreePageId.INTERNAL);
+		BTreeInternalPage page = new BTreeInternalPage(pid, data, 0);
+		assertEquals(n, page.getNumEntries());
+		assertArrayEquals(data, page.getPageData());
+
+		Iterator<BTreeEntry> it = page.iterator();
+		for (int i = 0; i < n; i++) {
+			BTreeEntry e = it.next();
+			assertEquals(str(customer(i * 10)), e.getKey());
+			assertEquals(i + 1, e.getLeftChild().getPageNumber());
+		}
+		assertFalse(it.hasNext());
+
+		// a key outside the shared prefix costs every key its prefix
+		assertTrue(page.hasRoomFor(str(customer(n * 10))));
+		assertFalse(page.hasRoomFor(str("a")));
+	}
+
+	/**
+	 * Leaf splits copy up short separators, so the leaves of a table that would need two
+	 * levels of full-length keys fit under a single root page, and deletes keep the tree valid.
+	 */
+	@Test public void insertAndDelete() throws Exception {
+		List<Integer> ids = new ArrayList<>();
+		for (int i = 0; i < 6000; i++) {
+			ids.add(i);
+		}
+		Collections.shuffle(ids, new Random(7));
+		TransactionId tid = new TransactionId();
+		for (int i : ids) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(customer(i), i));
+		}
+		Database.getBufferPool().transactionComplete(tid);
+
+		tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		BTreeInternalPage root = getRoot(tid);
+		assertTrue(root.getNumEntries() > 100);
+		assertEquals(BTreePageId.LEAF, root.iterator().next().getLeftChild().pgcateg());
+
+		List<Tuple> victims = new ArrayList<>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			if (((IntField) t.getField(1)).getValue() % 5 != 0) {
+				victims.add(t);
+			}
+		}
+		it.close();
+		for (Tuple t : victims) {
+			Database.getBufferPool().deleteTuple(tid, t);
+		}
+		Database.getBufferPool().transactionComplete(tid);
+
+		tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < 6000; i += 5) {
+			expected.add(customer(i));
+		}
+		assertEquals(expected, scanKeys(tid));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Inserting keys that do not share the prefix of a packed bulk-loaded tree makes the
+	 * internal pages they go to split until the longer keys fit.
+	 */
+	@Test public void bulkLoadThenBreakPrefix() throws Exception {
+		int rows = 20000;
+		BTreeBulkLoader loader = new BTreeBulkLoader(bf, 1.0, 3000);
+		for (int i = rows - 1; i >= 0; i--) {
+			loader.add(tuple("https://example.com/orders/" + customer(i), i));
+		}
+		assertEquals(rows, loader.finish());
+
+		TransactionId tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		List<String> keys = scanKeys(tid);
+		assertEquals(rows, keys.size());
+		assertEquals("https://example.com/orders/" + customer(0), keys.get(0));
+		String k = "https://example.com/orders/" + customer(12345);
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, str(k)));
+		it.open();
+		assertTrue(it.hasNext());
+		assertEquals(12345, ((IntField) it.next().getField(1)).getValue());
+		assertFalse(it.hasNext());
+		it.close();
+		Database.getBufferPool().transactionComplete(tid);
+
+		tid = new TransactionId();
+		for (int i = 0; i < 300; i++) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), tuple("a" + customer(i), -i));
+		}
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		keys = scanKeys(tid);
+		assertEquals(rows + 300, keys.size());
+		List<String> sorted = new ArrayList<>(keys);
+		Collections.sort(sorted);
+		assertEquals(sorted, keys);
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeStringKeyTest.class);
+	}
+}
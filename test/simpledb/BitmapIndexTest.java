@@ -0,0 +1,263 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.BitmapScan;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.index.BitmapIndex;
+import simpledb.index.CompressedBitmap;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class BitmapIndexTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 20000;
+    private static final int STATUSES = 5;
+    private static final int CATEGORIES = 100;
+
+    private TupleDesc td;
+    private HeapFile hf;
+    private String tableName;
+    private BitmapIndex byStatus;
+    private BitmapIndex byCategory;
+
+    private Tuple tuple(int id) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new IntField(id % STATUSES));
+        t.setField(2, new IntField(id % CATEGORIES));
+        return t;
+    }
+
+    /**
+     * Create a table with bitmap indexes on its status and category fields.
+     */
+    @Before public void createTable() throws Exception {
+        td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE},
+                new String[] {"id", "status", "category"});
+        File f = File.createTempFile("bitmapbase", ".dat");
+        f.deleteOnExit();
+        hf = new HeapFile(f, td);
+        tableName = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(hf, tableName);
+        byStatus = new BitmapIndex(hf.getId(), 1, Type.INT_TYPE);
+        Database.getCatalog().addIndex(byStatus, SystemTestUtil.getUUID());
+        byCategory = new BitmapIndex(hf.getId(), 2, Type.INT_TYPE);
+        Database.getCatalog().addIndex(byCategory, SystemTestUtil.getUUID());
+
+        Database.resetBufferPool(500); // we need more pages for the inserts
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private static List<Integer> toList(CompressedBitmap b) {
+        List<Integer> res = new ArrayList<>();
+        for (int v : b) {
+            res.add(v);
+        }
+        return res;
+    }
+
+    /**
+     * AND and OR agree with sets of Integers, for sparse and dense chunks.
+     */
+    @Test public void compressedBitmap() {
+        Random r = new Random(42);
+        CompressedBitmap a = new CompressedBitmap();
+        CompressedBitmap b = new CompressedBitmap();
+        TreeSet<Integer> sa = new TreeSet<>();
+        TreeSet<Integer> sb = new TreeSet<>();
+        for (int i = 0; i < 20000; i++) {
+            // chunk 0 is dense in a, the others are sparse
+            int v = i < 10000 ? r.nextInt(1 << 16) : r.nextInt(1 << 20);
+            a.add(v);
+            sa.add(v);
+            int w = r.nextInt(1 << 18);
+            b.add(w);
+            sb.add(w);
+        }
+        for (int i = 0; i < 1000; i++) {
+            int v = r.nextInt(1 << 16);
+            a.remove(v);
+            sa.remove(v);
+        }
+        assertEquals(new ArrayList<>(sa), toList(a));
+        assertEquals(sa.size(), a.getCardinality());
+
+        TreeSet<Integer> and = new TreeSet<>(sa);
+        and.retainAll(sb);
+        assertEquals(new ArrayList<>(and), toList(a.and(b)));
+        TreeSet<Integer> or = new TreeSet<>(sa);
+        or.addAll(sb);
+        assertEquals(new ArrayList<>(or), toList(a.or(b)));
+        assertEquals(new ArrayList<>(or), toList(b.or(a)));
+        // the operands are left as they were
+        assertEquals(new ArrayList<>(sa), toList(a));
+        assertTrue(a.contains(sa.first()));
+    }
+
+    private List<Integer> ids(OpIterator it) throws Exception {
+        List<Integer> res = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            res.add(((IntField) it.next().getField(0)).getValue());
+        }
+        it.close();
+        Collections.sort(res);
+        return res;
+    }
+
+    private List<Integer> expected(int status, int category) {
+        List<Integer> res = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            if (i % STATUSES == status && i % CATEGORIES >= category) {
+                res.add(i);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Bitmap indexes have no pages, so they are listed with their table
+     * but are not tables of the catalog themselves, and code that goes
+     * over every table, such as computing statistics, never meets them.
+     */
+    @Test public void notACatalogTable() throws Exception {
+        assertEquals(Arrays.asList(byStatus, byCategory), Database.getCatalog().getIndexes(hf.getId()));
+        Iterator<Integer> tableIds = Database.getCatalog().tableIdIterator();
+        assertEquals(hf.getId(), (int) tableIds.next());
+        assertFalse(tableIds.hasNext());
+        TableStats.computeStatistics();
+        assertNotNull(TableStats.getTableStats(tableName));
+    }
+
+    /**
+     * A BitmapScan returns the tuples matching all of its predicates, and
+     * the bitmaps of a predicate combine with OR.
+     */
+    @Test public void conjunction() throws Exception {
+        assertEquals(STATUSES, byStatus.getNumValues());
+        TransactionId tid = new TransactionId();
+        BitmapScan scan = new BitmapScan(tid, Arrays.asList(byStatus, byCategory),
+                Arrays.asList(new IndexPredicate(Predicate.Op.EQUALS, new IntField(3)),
+                        new IndexPredicate(Predicate.Op.GREATER_THAN_OR_EQ, new IntField(90))), "t");
+        assertEquals(expected(3, 90), ids(scan));
+
+        CompressedBitmap either = byStatus.lookup(new IndexPredicate(Predicate.Op.EQUALS, new IntField(0)))
+                .or(byStatus.lookup(new IndexPredicate(Predicate.Op.EQUALS, new IntField(1))));
+        assertEquals(2 * ROWS / STATUSES, either.getCardinality());
+        assertEquals(either.getCardinality(),
+                byStatus.lookup(new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(2))).getCardinality());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Deleted tuples are not returned, and their bits are cleared once a
+     * scan sees the committed page; an aborted delete keeps them.
+     */
+    @Test public void deletes() throws Exception {
+        IndexPredicate p = new IndexPredicate(Predicate.Op.EQUALS, new IntField(7));
+        TransactionId tid = new TransactionId();
+        BitmapScan scan = new BitmapScan(tid, Collections.singletonList(byCategory), Collections.singletonList(p), "t");
+        List<Tuple> victims = new ArrayList<>();
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            // only the first pages, so the dirty pages fit in the buffer pool
+            if (((IntField) t.getField(0)).getValue() < ROWS / 4) {
+                victims.add(t);
+            }
+        }
+        scan.close();
+        int left = ROWS / CATEGORIES - victims.size();
+        assertEquals(ROWS / CATEGORIES / 4, victims.size());
+        for (Tuple t : victims) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        assertEquals(left, ids(scan).size());
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        scan = new BitmapScan(tid, Collections.singletonList(byCategory), Collections.singletonList(p), "t");
+        assertEquals(ROWS / CATEGORIES, ids(scan).size());
+        for (Tuple t : victims) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertEquals(ROWS / CATEGORIES, byCategory.lookup(p).getCardinality());
+        tid = new TransactionId();
+        scan = new BitmapScan(tid, Collections.singletonList(byCategory), Collections.singletonList(p), "t");
+        assertEquals(left, ids(scan).size());
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(left, byCategory.lookup(p).getCardinality());
+    }
+
+    private static boolean usesBitmaps(OpIterator op) {
+        if (op instanceof BitmapScan) {
+            return true;
+        }
+        if (op instanceof Operator) {
+            for (OpIterator child : ((Operator) op).getChildren()) {
+                if (usesBitmaps(child)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The planner ANDs the bitmaps of the filters on indexed fields when
+     * together they are selective, even if neither is on its own.
+     */
+    @Test public void planner() throws Exception {
+        TransactionId tid = new TransactionId();
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(tableName, new TableStats(hf.getId(), 1000));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.status", Predicate.Op.EQUALS, "2");
+        lp.addFilter("t.category", Predicate.Op.EQUALS, "42");
+        lp.addProjectField("t.id", null);
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(usesBitmaps(plan));
+        assertEquals(ROWS / CATEGORIES, ids(plan).size());
+
+        lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.status", Predicate.Op.EQUALS, "2");
+        lp.addProjectField("t.id", null);
+        assertFalse(usesBitmaps(lp.physicalPlan(tid, stats, false)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BitmapIndexTest.class);
+    }
+}
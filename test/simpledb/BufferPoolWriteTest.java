@@ -140,6 +140,34 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    /**
+     * Unit test for the dirty-page table: pages written by a transaction are
+     * tracked until the transaction completes.
+     */
+    @Test public void dirtyPageTable() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(1, 2));
+        assertEquals(1, bp.getDirtyPageCount());
+
+        bp.transactionComplete(tid);
+        assertEquals(0, bp.getDirtyPageCount());
+        HeapPageId pid = new HeapPageId(empty.getId(), 0);
+        assertNull(bp.getPage(tid, pid, Permissions.READ_ONLY).isDirty());
+    }
+
+    /**
+     * Asking for a page past the end of a file is an error the caller can
+     * handle, not an exception from the page table.
+     */
+    @Test public void missingPage() throws Exception {
+        try {
+            Database.getBufferPool().getPage(tid, new HeapPageId(empty.getId(), empty.numPages()), Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
     /**
      * JUnit suite target
      */
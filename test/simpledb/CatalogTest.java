@@ -97,6 +97,33 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * A file dropped from the catalog is closed, whether it is replaced by
+     * another table or the catalog is cleared.
+     */
+    @Test public void closeDroppedFiles() {
+    	int[] closed = new int[1];
+    	class ClosingFile extends SkeletonFile {
+    		ClosingFile(int id) {
+    			super(id, Utility.getTupleDesc(2));
+    		}
+
+    		@Override
+    		public void close() {
+    			closed[0]++;
+    		}
+    	}
+    	DbFile f = new ClosingFile(id2);
+    	Database.getCatalog().addTable(f, name);
+    	// adding the same file again is not a replacement
+    	Database.getCatalog().addTable(f, name);
+    	assertEquals(0, closed[0]);
+    	Database.getCatalog().addTable(new ClosingFile(id2), name);
+    	assertEquals(1, closed[0]);
+    	Database.getCatalog().clear();
+    	assertEquals(2, closed[0]);
+    }
+
     /**
      * JUnit suite target
      */
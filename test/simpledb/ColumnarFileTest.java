@@ -0,0 +1,228 @@
+package simpledb;
+
+import java.io.File;
+import java.util.Collections;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class ColumnarFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 3000;
+
+    private ColumnarFile cf;
+    private TupleDesc td;
+
+    /**
+     * Create a columnar table of ROWS rows; field 0 is the row number.
+     */
+    @Before public void createTable() throws Exception {
+        File f = File.createTempFile("columnar", ".dat");
+        f.deleteOnExit();
+        td = Utility.getTupleDesc(4);
+        cf = new ColumnarFile(f, td);
+        for (int i = 0; i < td.numFields(); i++) {
+            ColumnarFile.getColumnFile(f, i).deleteOnExit();
+        }
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++) {
+            Database.getBufferPool().insertTuple(tid, cf.getId(), Utility.getHeapTuple(new int[] {i, i * 2, i * 3, i * 4}));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private int count(DbFileIterator it, int[] fields) throws Exception {
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int row = ((IntField) t.getField(fields.length > 0 ? fields[0] : 0)).getValue() / (fields.length > 0 ? fields[0] + 1 : 1);
+            for (int i = 0; i < td.numFields(); i++) {
+                boolean projected = false;
+                for (int j : fields) {
+                    projected |= j == i;
+                }
+                if (projected) {
+                    assertEquals(new IntField(row * (i + 1)), t.getField(i));
+                } else {
+                    assertNull(t.getField(i));
+                }
+            }
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * All rows come back, and only the projected fields are decoded.
+     */
+    @Test public void projectedScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        assertEquals(ROWS, count(cf.iterator(tid), new int[] {0, 1, 2, 3}));
+        assertEquals(ROWS, count(cf.iterator(tid, new int[] {2}, Collections.emptyList()), new int[] {2}));
+        Database.getBufferPool().transactionComplete(tid);
+        // reading one column does not touch the pages of the others
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        count(cf.iterator(tid, new int[] {1}, Collections.emptyList()), new int[] {1});
+        assertTrue(Database.getBufferPool().holdsLock(tid, new ColumnPageId(cf.getId(), 1, 0)));
+        assertFalse(Database.getBufferPool().holdsLock(tid, new ColumnPageId(cf.getId(), 0, 0)));
+        assertFalse(Database.getBufferPool().holdsLock(tid, new ColumnPageId(cf.getId(), 3, 0)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A SeqScan with a projection reads a columnar table through the
+     * projected iterator.
+     */
+    @Test public void seqScanProjection() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, cf.getId(), "c");
+        scan.setProjection(new int[] {3});
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertNull(t.getField(0));
+            assertNotNull(t.getField(3));
+            n++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(ROWS, n);
+    }
+
+    /**
+     * Chunks whose min/max rule out the filter are skipped, and the pages
+     * of the other columns for those rows are never read.
+     */
+    @Test public void chunkSkipping() throws Exception {
+        TransactionId tid = new TransactionId();
+        ColumnPage first = (ColumnPage) Database.getBufferPool().getPage(tid,
+                new ColumnPageId(cf.getId(), 0, 0), Permissions.READ_ONLY);
+        assertEquals(new IntField(0), first.getMin());
+        assertEquals(new IntField(first.getNumSlots() - 1), first.getMax());
+
+        int from = ROWS - 10;
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(from));
+        DbFileIterator it = cf.iterator(tid, new int[] {0, 1}, Collections.singletonList(p));
+        // only the last chunk is read; its rows are returned whether they match or not
+        int n = count(it, new int[] {0, 1});
+        assertTrue(n >= 10 && n < first.getNumSlots());
+        assertFalse(Database.getBufferPool().holdsLock(tid, new ColumnPageId(cf.getId(), 1, 0)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Deleted rows disappear from scans, and new rows are appended after
+     * reopening the file.
+     */
+    @Test public void deleteAndReopen() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        Tuple t = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        ColumnarFile reopened = new ColumnarFile(cf.getFile(), td);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(ROWS, reopened.numRows());
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, reopened.getId(), Utility.getHeapTuple(new int[] {ROWS, ROWS * 2, ROWS * 3, ROWS * 4}));
+        assertEquals(ROWS, count(reopened.iterator(tid), new int[] {0, 1, 2, 3}));
+        Database.getBufferPool().transactionComplete(tid);
+
+        try {
+            tid = new TransactionId();
+            Database.getBufferPool().deleteTuple(tid, t);
+            fail("deleted a tuple twice");
+        } catch (DbException e) {
+            // expected
+        } finally {
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /**
+     * The row count is not stored, so after reopening the file, rows
+     * deleted from the end of the table are appended over again.
+     */
+    @Test public void reopenReusesDeletedTail() throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple last = null;
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            last = it.next();
+        }
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, last);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(ROWS, cf.numRows());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        ColumnarFile reopened = new ColumnarFile(cf.getFile(), td);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(ROWS - 1, reopened.numRows());
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] {ROWS, ROWS * 2, ROWS * 3, ROWS * 4});
+        Database.getBufferPool().insertTuple(tid, reopened.getId(), t);
+        assertEquals(last.getRecordId(), t.getRecordId());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A page that new rows need is read and written through the BufferPool
+     * only, so an aborted append leaves the column files as they were.
+     */
+    @Test public void appendThroughBufferPool() throws Exception {
+        int perPage = ColumnPage.getNumSlots(td.getFieldType(0));
+        int pages = cf.numPages(0);
+        assertEquals(pages, (ROWS + perPage - 1) / perPage);
+        long length = ColumnarFile.getColumnFile(cf.getFile(), 0).length();
+
+        TransactionId tid = new TransactionId();
+        for (int i = ROWS; i <= pages * perPage; i++) {
+            Database.getBufferPool().insertTuple(tid, cf.getId(), Utility.getHeapTuple(new int[] {i, i * 2, i * 3, i * 4}));
+        }
+        assertEquals(pages, cf.numPages(0));
+        assertEquals(pages * perPage + 1, count(cf.iterator(tid), new int[] {0, 1, 2, 3}));
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(length, ColumnarFile.getColumnFile(cf.getFile(), 0).length());
+
+        tid = new TransactionId();
+        assertEquals(ROWS, count(cf.iterator(tid), new int[] {0, 1, 2, 3}));
+        Database.getBufferPool().insertTuple(tid, cf.getId(), Utility.getHeapTuple(new int[] {-1, -2, -3, -4}));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(pages + 1, cf.numPages(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnarFileTest.class);
+    }
+}
@@ -0,0 +1,95 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    private File file;
+    private CompressedHeapFile hf;
+    private List<List<Integer>> tuples;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        file = File.createTempFile("compressed", ".dat");
+        file.deleteOnExit();
+        CompressedHeapFile.getDirectoryFile(file).deleteOnExit();
+        hf = new CompressedHeapFile(file, Utility.getTupleDesc(2), HeapFile.Layout.FIXED);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        tuples = new ArrayList<>();
+    }
+
+    @After public void tearDown() {
+        file.delete();
+        CompressedHeapFile.getDirectoryFile(file).delete();
+    }
+
+    private void insert(int from, int to) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = from; i < to; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] {i, i % 10}));
+            List<Integer> tuple = new ArrayList<>();
+            tuple.add(i);
+            tuple.add(i % 10);
+            tuples.add(tuple);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        // empty the cache so that later reads decompress the pages on disk
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Pages are much smaller on disk, and read back as they were written.
+     */
+    @Test public void readWrite() throws Exception {
+        insert(0, 504 * 4);
+        assertEquals(4, hf.numPages());
+        assertTrue(hf.getCompressedSize() < hf.numPages() * BufferPool.getPageSize() / 2);
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        // a fresh file object over the same files sees the same pages
+        CompressedHeapFile reopened = new CompressedHeapFile(file, Utility.getTupleDesc(2), HeapFile.Layout.FIXED);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(4, reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * A page that grows past the capacity of its extent moves to a new one.
+     */
+    @Test public void pageOutgrowsExtent() throws Exception {
+        insert(0, 10);
+        long before = hf.getCompressedSize();
+        assertEquals(CompressedHeapFile.EXTENT_ALIGNMENT, before);
+
+        insert(10, 504);
+        assertTrue(hf.getCompressedSize() > before);
+        assertEquals(1, hf.numPages());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,90 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.DbFileChannel;
+
+import static org.junit.Assert.*;
+
+public class DbFileChannelTest {
+
+    private File file;
+    private DbFileChannel channel;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws IOException {
+        file = File.createTempFile("channel", ".dat");
+        file.deleteOnExit();
+        channel = new DbFileChannel(file);
+    }
+
+    /**
+     * Unit test for positional DbFileChannel.read() and write()
+     */
+    @Test public void readWrite() throws IOException {
+        assertEquals(0, channel.size());
+        assertEquals(-1, channel.read(new byte[4], 0));
+
+        channel.write(new byte[] {1, 2, 3, 4}, 4);
+        assertEquals(8, channel.size());
+        assertEquals(8, file.length());
+
+        byte[] buf = new byte[6];
+        assertEquals(6, channel.read(buf, 2));
+        assertArrayEquals(new byte[] {0, 0, 1, 2, 3, 4}, buf);
+
+        // a read that runs into the end of the file is short
+        assertEquals(2, channel.read(buf, 6));
+        assertEquals(-1, channel.read(buf, 8));
+    }
+
+    /**
+     * An interrupt closes a FileChannel; the next caller gets a fresh one.
+     */
+    @Test public void reopenAfterInterrupt() throws IOException {
+        channel.write(new byte[] {7}, 0);
+
+        Thread.currentThread().interrupt();
+        try {
+            channel.read(new byte[1], 0);
+            fail("expected exception");
+        } catch (ClosedByInterruptException ignored) {
+        } finally {
+            Thread.interrupted();
+        }
+
+        byte[] buf = new byte[1];
+        assertEquals(1, channel.read(buf, 0));
+        assertEquals(7, buf[0]);
+    }
+
+    /**
+     * A closed channel no longer holds the file open, and is opened again
+     * by the next call.
+     */
+    @Test public void reopenAfterClose() throws IOException {
+        channel.write(new byte[] {7}, 0);
+        channel.close();
+        channel.close();
+
+        byte[] buf = new byte[1];
+        assertEquals(1, channel.read(buf, 0));
+        assertEquals(7, buf[0]);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DbFileChannelTest.class);
+    }
+}
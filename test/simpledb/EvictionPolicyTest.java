@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.storage.EvictionPolicy;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+
+import static org.junit.Assert.*;
+
+public class EvictionPolicyTest {
+
+    private static final int CAPACITY = 4;
+
+    /**
+     * Drives a policy the way PageTable does, for a pool of CAPACITY pages.
+     */
+    private static class Pool {
+        final EvictionPolicy policy;
+        final Set<PageId> resident = new HashSet<>();
+
+        Pool(EvictionPolicy.Type type) {
+            policy = type.create(CAPACITY);
+        }
+
+        void access(PageId pid) {
+            if (resident.contains(pid)) {
+                policy.recordAccess(pid);
+                return;
+            }
+            if (resident.size() >= CAPACITY) {
+                PageId victim = policy.evict(p -> true);
+                assertNotNull(victim);
+                assertTrue(resident.remove(victim));
+            }
+            policy.recordInsert(pid);
+            resident.add(pid);
+        }
+    }
+
+    /**
+     * Touch two "index" pages twice, then run a long scan of pages that are
+     * touched once, and report whether the index pages survived.
+     */
+    private boolean hotPagesSurviveScan(EvictionPolicy.Type type) {
+        Pool pool = new Pool(type);
+        PageId hot0 = new HeapPageId(1, 0);
+        PageId hot1 = new HeapPageId(1, 1);
+        pool.access(hot0);
+        pool.access(hot1);
+        pool.access(hot0);
+        pool.access(hot1);
+        for (int i = 0; i < 10 * CAPACITY; i++) {
+            pool.access(new HeapPageId(2, i));
+        }
+        return pool.resident.contains(hot0) && pool.resident.contains(hot1);
+    }
+
+    @Test public void lru2IsScanResistant() {
+        assertTrue(hotPagesSurviveScan(EvictionPolicy.Type.LRU_2));
+    }
+
+    @Test public void arcIsScanResistant() {
+        assertTrue(hotPagesSurviveScan(EvictionPolicy.Type.ARC));
+    }
+
+    @Test public void clockIsNotScanResistant() {
+        assertFalse(hotPagesSurviveScan(EvictionPolicy.Type.CLOCK));
+    }
+
+    /**
+     * Every policy must honour the evictable filter, and return null when
+     * nothing may be evicted.
+     */
+    @Test public void evictRespectsFilter() {
+        for (EvictionPolicy.Type type : EvictionPolicy.Type.values()) {
+            EvictionPolicy policy = type.create(CAPACITY);
+            PageId pinned = new HeapPageId(1, 0);
+            PageId free = new HeapPageId(1, 1);
+            policy.recordInsert(pinned);
+            policy.recordInsert(free);
+
+            assertEquals(type.toString(), free, policy.evict(p -> !p.equals(pinned)));
+            assertNull(type.toString(), policy.evict(p -> !p.equals(pinned)));
+            assertEquals(type.toString(), pinned, policy.evict(p -> true));
+        }
+    }
+
+    /**
+     * A page removed without eviction is forgotten by the policy.
+     */
+    @Test public void removeForgetsPage() {
+        for (EvictionPolicy.Type type : EvictionPolicy.Type.values()) {
+            EvictionPolicy policy = type.create(CAPACITY);
+            PageId pid = new HeapPageId(1, 0);
+            policy.recordInsert(pid);
+            policy.recordRemove(pid);
+            assertNull(type.toString(), policy.evict(p -> true));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
@@ -0,0 +1,302 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.IndexScan;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.index.HashIndexFile;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class HashIndexTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 20000;
+    private static final int KEYS = 2000;
+    private static final int HOT_KEY = -1;
+    private static final int HOT_ROWS = 1000;
+
+    private TupleDesc td;
+    private HeapFile hf;
+    private HashIndexFile index;
+    private String tableName;
+
+    private Tuple tuple(int key, int val) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(key));
+        t.setField(1, new IntField(val));
+        return t;
+    }
+
+    /**
+     * Create a table with an index on its first field, and insert enough
+     * rows that buckets split, plus one key with so many rows that its
+     * bucket needs overflow pages.
+     */
+    @Before public void createTable() throws Exception {
+        td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.INT_TYPE}, new String[] {"key", "val"});
+        File f = File.createTempFile("hashbase", ".dat");
+        f.deleteOnExit();
+        hf = new HeapFile(f, td);
+        tableName = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(hf, tableName);
+        File indexFile = File.createTempFile("hashindex", ".dat");
+        indexFile.deleteOnExit();
+        index = new HashIndexFile(indexFile, hf.getId(), 0, Type.INT_TYPE);
+        Database.getCatalog().addIndex(index, SystemTestUtil.getUUID());
+
+        Database.resetBufferPool(500); // we need more pages for the inserts
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < ROWS + HOT_ROWS; i++) {
+            Tuple t = i < ROWS ? tuple(i % KEYS, i) : tuple(HOT_KEY, i - ROWS);
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            if (i % 5000 == 4999) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private List<Integer> lookup(TransactionId tid, int key) throws Exception {
+        IndexScan scan = new IndexScan(tid, index, new IndexPredicate(Predicate.Op.EQUALS, new IntField(key)), "t");
+        List<Integer> vals = new ArrayList<>();
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(key, ((IntField) t.getField(0)).getValue());
+            vals.add(((IntField) t.getField(1)).getValue());
+        }
+        scan.close();
+        Collections.sort(vals);
+        return vals;
+    }
+
+    /**
+     * Every key finds exactly the tuples that have it.
+     */
+    @Test public void lookups() throws Exception {
+        assertTrue(index.numPages() > 2);
+        TransactionId tid = new TransactionId();
+        for (int key = 0; key < KEYS; key += 97) {
+            List<Integer> expected = new ArrayList<>();
+            for (int i = key; i < ROWS; i += KEYS) {
+                expected.add(i);
+            }
+            assertEquals(expected, lookup(tid, key));
+        }
+        assertEquals(HOT_ROWS, lookup(tid, HOT_KEY).size());
+        assertTrue(lookup(tid, KEYS).isEmpty());
+        Database.getBufferPool().transactionComplete(tid);
+
+        // only equality predicates are supported
+        assertFalse(index.supports(Predicate.Op.GREATER_THAN));
+    }
+
+    /**
+     * Deleting tuples from the base table removes their entries, and an
+     * aborted delete leaves them in place.
+     */
+    @Test public void deletes() throws Exception {
+        TransactionId tid = new TransactionId();
+        IndexScan scan = new IndexScan(tid, index, new IndexPredicate(Predicate.Op.EQUALS, new IntField(3)), "t");
+        List<Tuple> victims = new ArrayList<>();
+        scan.open();
+        while (scan.hasNext()) {
+            victims.add(scan.next());
+        }
+        scan.close();
+        assertEquals(ROWS / KEYS, victims.size());
+        for (Tuple t : victims) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        assertTrue(lookup(tid, 3).isEmpty());
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(ROWS / KEYS, lookup(tid, 3).size());
+        for (Tuple t : victims) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertTrue(lookup(tid, 3).isEmpty());
+        assertEquals(ROWS / KEYS, lookup(tid, 4).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Two transactions that have both read the directory each add index
+     * entries to their own buckets until they split. Neither may be aborted
+     * for upgrading its lock on the directory while the other reads it.
+     */
+    @Test public void concurrentSplits() throws Exception {
+        Database.resetBufferPool(500);
+        CyclicBarrier bothInserted = new CyclicBarrier(2);
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int half = 0; half < 2; half++) {
+            final int bit = half;
+            threads.add(new Thread(() -> {
+                TransactionId tid = new TransactionId();
+                try {
+                    int inserted = 0;
+                    for (int key = KEYS; inserted < 1500; key++) {
+                        // the two transactions use different halves of the directory
+                        if ((HashIndexFile.hash(new IntField(key)) & 1) != bit) {
+                            continue;
+                        }
+                        Tuple entry = new Tuple(index.getTupleDesc());
+                        entry.setField(0, new IntField(key));
+                        entry.setField(1, new IntField(-1));
+                        entry.setField(2, new IntField(inserted));
+                        for (Page p : index.insertTuple(tid, entry)) {
+                            p.markDirty(true, tid);
+                        }
+                        if (inserted++ == 0) {
+                            bothInserted.await();
+                        }
+                    }
+                    Database.getBufferPool().transactionComplete(tid);
+                } catch (Throwable e) {
+                    errors.add(e);
+                    Database.getBufferPool().transactionComplete(tid, false);
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join(60000);
+            assertFalse(t.isAlive());
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+
+        TransactionId tid = new TransactionId();
+        int entries = 0;
+        DbFileIterator it = index.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            entries++;
+        }
+        it.close();
+        assertEquals(ROWS + HOT_ROWS + 2 * 1500, entries);
+        assertEquals(ROWS / KEYS, lookup(tid, 5).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Loading a schema builds a hash index over a table larger than the
+     * BufferPool, which takes more than one transaction under NO STEAL.
+     */
+    @Test public void buildOnLoad() throws Exception {
+        File dir = Files.createTempDirectory("hashschema").toFile();
+        dir.deleteOnExit();
+        List<List<Integer>> rows = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            rows.add(Arrays.asList(i % KEYS, i));
+        }
+        String name = "t" + SystemTestUtil.getUUID().replace("-", "");
+        File table = new File(dir, name + ".dat");
+        table.deleteOnExit();
+        HeapFileEncoder.convert(rows, table, BufferPool.getPageSize(), 2);
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        try (FileWriter w = new FileWriter(schema)) {
+            w.write(name + " (key int hash, val int)\n");
+        }
+        new File(dir, name + "_key_hash.dat").deleteOnExit();
+
+        Database.resetBufferPool(20);
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int tableId = Database.getCatalog().getTableId(name);
+        index = (HashIndexFile) Database.getCatalog().getIndexes(tableId).get(0);
+        assertTrue(index.numPages() > 20);
+
+        TransactionId tid = new TransactionId();
+        assertEquals(ROWS / KEYS, lookup(tid, 11).size());
+        assertEquals(ROWS / KEYS, lookup(tid, KEYS - 1).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static boolean usesIndex(OpIterator op) {
+        if (op instanceof IndexScan) {
+            return true;
+        }
+        if (op instanceof Operator) {
+            for (OpIterator child : ((Operator) op).getChildren()) {
+                if (usesIndex(child)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The planner reads a selective equality filter through the index, but
+     * not one that matches most of the table.
+     */
+    @Test public void planner() throws Exception {
+        TransactionId tid = new TransactionId();
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(tableName, new TableStats(hf.getId(), 1000));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.key", Predicate.Op.EQUALS, "1007");
+        lp.addProjectField("t.val", null);
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(usesIndex(plan));
+        int n = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        assertEquals(ROWS / KEYS, n);
+
+        lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.key", Predicate.Op.GREATER_THAN, "0");
+        lp.addProjectField("t.val", null);
+        assertFalse(usesIndex(lp.physicalPlan(tid, stats, false)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashIndexTest.class);
+    }
+}
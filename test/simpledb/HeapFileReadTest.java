@@ -125,6 +125,57 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * A sequential scan reads ahead, so most pages are already in the
+     * buffer pool when the iterator asks for them.
+     */
+    @Test
+    public void testIteratorReadAhead() throws Exception {
+        // 504 tuples fit on a page, so this file has 20 pages
+        HeapFile bigFile = SystemTestUtil.createRandomHeapFile(2, 504 * 20,
+                null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        DbFileIterator it = bigFile.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+
+        assertEquals(504 * 20, count);
+        // pages 0 and 1 establish the sequential pattern; the rest are read ahead
+        assertEquals(18, bp.getPrefetchedCount());
+    }
+
+    /**
+     * A memory-mapped HeapFile reads the same tuples, including those on a
+     * page appended after the file was first mapped.
+     */
+    @Test
+    public void testMemoryMapped() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile plain = SystemTestUtil.createRandomHeapFile(2, 504 + 10, null, tuples);
+        HeapFile mapped = new HeapFile(plain.getFile(), td, true);
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+        assertTrue(mapped.isMemoryMapped());
+        SystemTestUtil.matchTuples(mapped, tuples);
+
+        Database.getBufferPool().insertTuple(tid, mapped.getId(), Utility.getHeapTuple(new int[] {7, 7}));
+        for (int i = 0; i < 504 - 10; i++) {
+            Database.getBufferPool().insertTuple(tid, mapped.getId(), Utility.getHeapTuple(new int[] {8, 8}));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        assertEquals(3, mapped.numPages());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapPage last = (HeapPage) mapped.readPage(new HeapPageId(mapped.getId(), 2));
+        assertEquals(504 - 1, last.getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
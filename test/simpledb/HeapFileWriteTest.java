@@ -13,6 +13,7 @@ import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionId;
 
 import java.util.Arrays;
+import java.util.List;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -90,6 +91,70 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         it.close();
     }
 
+    /**
+     * Inserts go to the pages the free-space map reports as having room,
+     * including pages a delete has just made room on.
+     */
+    @Test public void freeSpaceMap() throws Exception {
+        for (int i = 0; i < 504 * 3; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        assertEquals(3, empty.numPages());
+
+        // a fresh HeapFile over the same file rebuilds the map from the page headers
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        FreeSpaceMap fsm = reopened.getFreeSpaceMap();
+        assertEquals(3, fsm.size());
+        assertEquals(-1, fsm.nextPageWithRoom(0));
+
+        DbFileIterator it = reopened.iterator(tid);
+        it.open();
+        for (int i = 0; i < 504 + 1; ++i) {
+            assertTrue(it.hasNext());
+            it.next();
+        }
+        assertTrue(it.hasNext());
+        Tuple onSecondPage = it.next();
+        it.close();
+        reopened.deleteTuple(tid, onSecondPage);
+        assertEquals(1, fsm.nextPageWithRoom(0));
+
+        List<Page> dirtied = reopened.insertTuple(tid, Utility.getHeapTuple(7, 2));
+        assertEquals(1, dirtied.get(0).getId().getPageNumber());
+        assertEquals(-1, fsm.nextPageWithRoom(0));
+        assertEquals(3, reopened.numPages());
+    }
+
+    /**
+     * An insert that fills a page marks it full in the free-space map; when
+     * the inserting transaction aborts, the page has room again and the map
+     * must say so.
+     */
+    @Test public void freeSpaceMapAfterAbort() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        for (int i = 0; i < 503; ++i) {
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        bp.transactionComplete(tid);
+        FreeSpaceMap fsm = empty.getFreeSpaceMap();
+        assertEquals(0, fsm.nextPageWithRoom(0));
+
+        TransactionId filler = new TransactionId();
+        bp.insertTuple(filler, empty.getId(), Utility.getHeapTuple(503, 2));
+        assertEquals(-1, fsm.nextPageWithRoom(0));
+        bp.transactionComplete(filler, false);
+        assertEquals(0, fsm.nextPageWithRoom(0));
+
+        // the next insert goes to the restored page instead of a new one
+        tid = new TransactionId();
+        bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(504, 2));
+        assertEquals(1, empty.numPages());
+        assertEquals(-1, fsm.nextPageWithRoom(0));
+    }
+
     /**
      * JUnit suite target
      */
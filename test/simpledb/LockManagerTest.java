@@ -0,0 +1,204 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Permissions;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LockManager;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    private static final int WAIT_INTERVAL = 200;
+    private static final int TIMEOUT = 10000;
+
+    private LockManager lm;
+    private PageId a, b, c;
+
+    /**
+     * Helper thread that requests a single lock from the LockManager and
+     * records whether it was granted or the transaction was aborted.
+     */
+    private class Acquirer extends Thread {
+        final TransactionId tid;
+        final PageId pid;
+        final Permissions perm;
+        volatile boolean acquired;
+        volatile boolean aborted;
+
+        Acquirer(TransactionId tid, PageId pid, Permissions perm) {
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+        }
+
+        public void run() {
+            try {
+                lm.acquire(tid, pid, perm);
+                acquired = true;
+            } catch (TransactionAbortedException e) {
+                aborted = true;
+                lm.releaseAll(tid);
+            }
+        }
+    }
+
+    private Acquirer start(TransactionId tid, PageId pid, Permissions perm) throws InterruptedException {
+        Acquirer acq = new Acquirer(tid, pid, perm);
+        acq.start();
+        Thread.sleep(WAIT_INTERVAL);
+        return acq;
+    }
+
+    @Before public void setUp() {
+        lm = new LockManager();
+        a = new HeapPageId(1, 0);
+        b = new HeapPageId(1, 1);
+        c = new HeapPageId(1, 2);
+    }
+
+    /**
+     * The only holder of a shared lock may upgrade it at once; with another
+     * reader on the page the upgrade waits until that reader is gone.
+     */
+    @Test public void upgrade() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+
+        lm.acquire(t1, a, Permissions.READ_ONLY);
+        lm.acquire(t1, a, Permissions.READ_WRITE);
+        assertTrue(lm.holdsLock(t1, a));
+
+        // the exclusive lock keeps other readers out
+        Acquirer reader = start(t2, a, Permissions.READ_ONLY);
+        assertFalse(reader.acquired);
+        lm.releaseAll(t1);
+        reader.join(TIMEOUT);
+        assertTrue(reader.acquired);
+
+        // t1 and t2 share the page, so t1 cannot upgrade yet
+        lm.acquire(t1, a, Permissions.READ_ONLY);
+        Acquirer upgrader = start(t1, a, Permissions.READ_WRITE);
+        assertFalse(upgrader.acquired);
+        lm.release(t2, a);
+        upgrader.join(TIMEOUT);
+        assertTrue(upgrader.acquired);
+        assertFalse(lm.holdsLock(t2, a));
+    }
+
+    /**
+     * Exclusive locks on different pages never wait for each other, and
+     * exclusive locks on a page shared by every thread still exclude each
+     * other while the threads hammer pages spread over all stripes.
+     */
+    @Test public void contentionAcrossStripes() throws Exception {
+        final int threads = 8;
+        final int rounds = 200;
+        lm = new LockManager(4);
+        PageId hot = new HeapPageId(2, 0);
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        List<Thread> workers = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final int n = i;
+            workers.add(new Thread(() -> {
+                try {
+                    for (int r = 0; r < rounds; r++) {
+                        TransactionId tid = new TransactionId();
+                        // a page of its own, spread over the stripes
+                        lm.acquire(tid, new HeapPageId(3, n * rounds + r), Permissions.READ_WRITE);
+                        lm.acquire(tid, hot, Permissions.READ_WRITE);
+                        if (inside.incrementAndGet() != 1) {
+                            overlaps.incrementAndGet();
+                        }
+                        inside.decrementAndGet();
+                        lm.releaseAll(tid);
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }));
+        }
+        for (Thread w : workers) {
+            w.start();
+        }
+        for (Thread w : workers) {
+            w.join(TIMEOUT);
+            assertFalse(w.isAlive());
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(0, overlaps.get());
+    }
+
+    /**
+     * Two transactions each wait for a page the other holds. The younger
+     * one is the victim, even when it is the older one that closes the cycle.
+     */
+    @Test public void twoTransactionCycle() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquire(t1, a, Permissions.READ_WRITE);
+        lm.acquire(t2, b, Permissions.READ_WRITE);
+
+        Acquirer young = start(t2, a, Permissions.READ_WRITE);
+        assertFalse(young.acquired || young.aborted);
+
+        Acquirer old = start(t1, b, Permissions.READ_WRITE);
+        young.join(TIMEOUT);
+        assertTrue(young.aborted);
+        old.join(TIMEOUT);
+        assertTrue(old.acquired);
+        assertFalse(old.aborted);
+    }
+
+    /**
+     * t1 -> t2 -> t3 -> t1. The youngest transaction, t3, is aborted; the
+     * other two then finish one after the other.
+     */
+    @Test public void threeTransactionCycle() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        lm.acquire(t1, a, Permissions.READ_WRITE);
+        lm.acquire(t2, b, Permissions.READ_WRITE);
+        lm.acquire(t3, c, Permissions.READ_WRITE);
+
+        Acquirer w3 = start(t3, a, Permissions.READ_WRITE);
+        Acquirer w2 = start(t2, c, Permissions.READ_WRITE);
+        assertFalse(w3.aborted || w2.aborted);
+
+        // t1 closes the cycle, t3 is the youngest on it
+        Acquirer w1 = start(t1, b, Permissions.READ_WRITE);
+        w3.join(TIMEOUT);
+        assertTrue(w3.aborted);
+        w2.join(TIMEOUT);
+        assertTrue(w2.acquired);
+        assertFalse(w1.acquired || w1.aborted);
+
+        lm.releaseAll(t2);
+        w1.join(TIMEOUT);
+        assertTrue(w1.acquired);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class PageCleanerTest extends TestUtil.CreateHeapFile {
+
+    private BufferPool bp;
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.getBufferPool();
+        bp.startPageCleaner();
+        pid = new HeapPageId(empty.getId(), 0);
+    }
+
+    @After public void tearDown() {
+        bp.stopPageCleaner();
+    }
+
+    private void waitForCleaner() throws InterruptedException {
+        for (int i = 0; i < 100 && bp.getUnwrittenPageCount() > 0; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, bp.getUnwrittenPageCount());
+    }
+
+    /**
+     * A commit leaves its pages to the cleaner, which writes them to disk.
+     */
+    @Test public void commitIsWrittenBack() throws Exception {
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(1, 2));
+        bp.transactionComplete(tid, true);
+
+        assertNull(bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY).isDirty());
+        waitForCleaner();
+        HeapPage onDisk = (HeapPage) empty.readPage(pid);
+        assertEquals(504 - 1, onDisk.getNumEmptySlots());
+    }
+
+    /**
+     * Aborting a transaction restores the last committed version of a page,
+     * even when that version has not been written to disk yet.
+     */
+    @Test public void abortRestoresUnwrittenCommit() throws Exception {
+        TransactionId t1 = new TransactionId();
+        bp.insertTuple(t1, empty.getId(), Utility.getHeapTuple(1, 2));
+        bp.transactionComplete(t1, true);
+
+        TransactionId t2 = new TransactionId();
+        bp.insertTuple(t2, empty.getId(), Utility.getHeapTuple(2, 2));
+        bp.transactionComplete(t2, false);
+
+        TransactionId t3 = new TransactionId();
+        HeapPage p = (HeapPage) bp.getPage(t3, pid, Permissions.READ_ONLY);
+        assertEquals(504 - 1, p.getNumEmptySlots());
+        bp.transactionComplete(t3);
+
+        waitForCleaner();
+        assertEquals(504 - 1, ((HeapPage) empty.readPage(pid)).getNumEmptySlots());
+    }
+
+    /**
+     * Stopping the cleaner writes back whatever it had not written yet.
+     */
+    @Test public void stopWritesBackPendingPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(1, 2));
+        bp.transactionComplete(tid, true);
+
+        bp.stopPageCleaner();
+        assertFalse(bp.isPageCleanerRunning());
+        assertEquals(0, bp.getUnwrittenPageCount());
+        assertEquals(504 - 1, ((HeapPage) empty.readPage(pid)).getNumEmptySlots());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
@@ -0,0 +1,138 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.EvictionPolicy;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.PageTable;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class PageTableTest extends SimpleDbTestBase {
+
+    private HeapPage[] pages;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+        pages = new HeapPage[4];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = new HeapPage(new HeapPageId(-1, i), HeapPage.createEmptyPageData());
+        }
+    }
+
+    /**
+     * Unit test for PageTable.get(), put() and remove()
+     */
+    @Test public void putGetRemove() {
+        PageTable table = new PageTable(2);
+        assertNull(table.get(pages[0].getId()));
+
+        table.put(pages[0].getId(), pages[0]);
+        table.put(pages[1].getId(), pages[1]);
+        assertTrue(table.isFull());
+        assertSame(pages[0], table.get(pages[0].getId()));
+        assertSame(pages[1], table.peek(pages[1].getId()));
+
+        assertSame(pages[0], table.remove(pages[0].getId()));
+        assertFalse(table.isFull());
+        assertNull(table.get(pages[0].getId()));
+
+        // the freed slot can be reused
+        table.put(pages[2].getId(), pages[2]);
+        assertEquals(2, table.size());
+    }
+
+    /**
+     * Unit test for PageTable.evict(): recently referenced pages get a
+     * second chance, and pages the caller refuses are never evicted.
+     */
+    @Test public void evictSecondChance() {
+        PageTable table = new PageTable(3);
+        for (int i = 0; i < 3; i++) {
+            table.put(pages[i].getId(), pages[i]);
+        }
+
+        // the first sweep clears every reference bit, so the first page is evicted
+        assertSame(pages[0], table.evict(p -> true));
+
+        // pages[1] is referenced again, so pages[2] goes before it
+        table.get(pages[1].getId());
+        assertSame(pages[2], table.evict(p -> true));
+        assertTrue(table.contains(pages[1].getId()));
+    }
+
+    @Test public void evictSkipsRefusedPages() {
+        PageTable table = new PageTable(2);
+        table.put(pages[0].getId(), pages[0]);
+        table.put(pages[1].getId(), pages[1]);
+        pages[0].markDirty(true, new TransactionId());
+
+        Page victim = table.evict(p -> p.isDirty() == null);
+        assertSame(pages[1], victim);
+        assertNull(table.evict(p -> p.isDirty() == null));
+        assertTrue(table.contains(pages[0].getId()));
+    }
+
+    /**
+     * Unit test for PageTable.pin() and unpin(): a pinned page is never
+     * evicted until its last pin is dropped.
+     */
+    @Test public void evictSkipsPinnedPages() {
+        PageTable table = new PageTable(2);
+        table.put(pages[0].getId(), pages[0]);
+        table.put(pages[1].getId(), pages[1]);
+        table.pin(pages[0].getId());
+        table.pin(pages[0].getId());
+        table.pin(pages[1].getId());
+        assertNull(table.evict(p -> true));
+
+        assertFalse(table.unpin(pages[0].getId()));
+        assertEquals(1, table.getPinCount(pages[0].getId()));
+        assertNull(table.evict(p -> true));
+
+        assertTrue(table.unpin(pages[0].getId()));
+        assertFalse(table.isPinned(pages[0].getId()));
+        assertSame(pages[0], table.evict(p -> true));
+        assertTrue(table.contains(pages[1].getId()));
+    }
+
+    /**
+     * Unit test for the hit and miss counters
+     */
+    @Test public void hitRate() {
+        PageTable table = new PageTable(2, EvictionPolicy.Type.ARC);
+        table.get(pages[0].getId());
+        table.put(pages[0].getId(), pages[0]);
+        table.get(pages[0].getId());
+        table.get(pages[0].getId());
+        table.peek(pages[0].getId());
+
+        assertEquals(2, table.getHits());
+        assertEquals(1, table.getMisses());
+        assertEquals(2.0 / 3, table.getHitRate(), 1e-9);
+
+        table.resetStats();
+        assertEquals(0.0, table.getHitRate(), 0.0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageTableTest.class);
+    }
+}
@@ -0,0 +1,180 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        this.td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE});
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Short strings only take the space they need, so many more tuples fit
+     * than with the fixed layout.
+     */
+    @Test public void insertTuple() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        int inserted = 0;
+        try {
+            while (true) {
+                page.insertTuple(tuple(inserted, "t" + inserted));
+                inserted++;
+            }
+        } catch (DbException e) {
+            // the page is full
+        }
+        int fixedSlots = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        assertTrue(inserted > 5 * fixedSlots);
+        assertEquals(0, page.getNumEmptySlots());
+
+        // the tuples survive a round trip through the page data
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < inserted; i++) {
+            Tuple t = it.next();
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals(new StringField("t" + i, Type.STRING_LEN), t.getField(1));
+            assertEquals(i, t.getRecordId().getTupleNumber());
+        }
+        assertFalse(it.hasNext());
+        assertEquals(new StringField("t7", Type.STRING_LEN), copy.getField(7, 1));
+    }
+
+    /**
+     * Space freed by deletes is reused after compacting the page, and the
+     * remaining tuples keep their slots.
+     */
+    @Test public void deleteAndCompact() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        List<Tuple> tuples = new ArrayList<>();
+        String s = "0123456789012345678901234567890123456789";
+        try {
+            while (true) {
+                Tuple t = tuple(tuples.size(), s);
+                page.insertTuple(t);
+                tuples.add(t);
+            }
+        } catch (DbException e) {
+            // the page is full
+        }
+
+        // delete every other tuple; no single hole fits a longer record
+        for (int i = 0; i < tuples.size(); i += 2) {
+            page.deleteTuple(tuples.get(i));
+        }
+        Tuple longer = tuple(-1, s + s);
+        page.insertTuple(longer);
+        assertEquals(0, longer.getRecordId().getTupleNumber());
+
+        for (int i = 1; i < tuples.size(); i += 2) {
+            assertEquals(new IntField(i), page.getTuple(i).getField(0));
+        }
+        assertEquals(new StringField(s + s, Type.STRING_LEN), page.getField(0, 1));
+    }
+
+    /**
+     * Strings are stored as UTF-8 whatever the platform charset, and a
+     * string longer than STRING_LEN bytes is cut at a character boundary.
+     */
+    @Test public void nonAsciiStrings() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < Type.STRING_LEN; i++) {
+            sb.append('\u00e9');
+        }
+        page.insertTuple(tuple(0, "\u6570\u636e\u5e93"));
+        page.insertTuple(tuple(1, sb.toString()));
+
+        SlottedHeapPage read = new SlottedHeapPage(pid, page.getPageData());
+        assertEquals(new StringField("\u6570\u636e\u5e93", Type.STRING_LEN), read.getField(0, 1));
+        assertEquals(new StringField(sb.substring(0, Type.STRING_LEN / 2), Type.STRING_LEN),
+                read.getField(1, 1));
+    }
+
+    /**
+     * Unit test for HeapPage.deleteTuple() with false tuples
+     */
+    @Test(expected=DbException.class)
+    public void deleteNonexistentTuple() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        Tuple t = tuple(1, "a");
+        page.insertTuple(t);
+        page.deleteTuple(t);
+        page.deleteTuple(t);
+    }
+
+    /**
+     * A HeapFile with the slotted layout needs far fewer pages for a table
+     * of short strings.
+     */
+    @Test public void slottedHeapFile() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, td, false, HeapFile.Layout.SLOTTED);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        int n = 1000;
+        for (int i = 0; i < n; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i, "row" + i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(hf.numPages() <= 5);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertEquals(new StringField("row" + i, Type.STRING_LEN), t.getField(1));
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(n, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
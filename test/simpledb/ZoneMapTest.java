@@ -0,0 +1,138 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Predicate;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 2000;
+
+    private HeapFile hf;
+
+    /**
+     * Create a heap file whose first field is the insertion order, so that
+     * every page holds a narrow range of it.
+     */
+    @Before public void createTable() throws Exception {
+        File f = File.createTempFile("zonemap", ".dat");
+        f.deleteOnExit();
+        hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] {i, -i}));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private List<Integer> scan(TransactionId tid, Predicate p) throws Exception {
+        DbFileIterator it = hf.iterator(tid, Collections.singletonList(p));
+        List<Integer> res = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (p.filter(t)) {
+                res.add(((IntField) t.getField(0)).getValue());
+            }
+        }
+        it.close();
+        return res;
+    }
+
+    private int countLocked(TransactionId tid) {
+        int n = 0;
+        for (int i = 0; i < hf.numPages(); i++) {
+            if (Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), i))) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Once a scan has read every page, later scans only read the pages
+     * whose range can satisfy the predicate.
+     */
+    @Test public void skipPages() throws Exception {
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(ROWS - 5));
+        TransactionId tid = new TransactionId();
+        assertEquals(5, scan(tid, p).size());
+        assertEquals(hf.numPages(), countLocked(tid));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(5, scan(tid, p).size());
+        assertEquals(1, countLocked(tid));
+        assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), hf.numPages() - 1)));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // predicates on the other field are used as well
+        tid = new TransactionId();
+        assertEquals(Collections.singletonList(0), scan(tid, new Predicate(1, Predicate.Op.EQUALS, new IntField(0))));
+        assertEquals(1, countLocked(tid));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserts widen the range of their page, and committed deletes narrow
+     * it the next time the page is read.
+     */
+    @Test public void insertAndDelete() throws Exception {
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0));
+        TransactionId tid = new TransactionId();
+        assertTrue(scan(tid, p).isEmpty());
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] {-1, 1}));
+        assertEquals(Collections.singletonList(-1), scan(tid, p));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // delete the tuple again; the page is skipped once the delete is committed
+        tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid, Collections.singletonList(p));
+        it.open();
+        Tuple t = null;
+        while (it.hasNext()) {
+            t = it.next();
+            if (p.filter(t)) {
+                break;
+            }
+        }
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        assertTrue(scan(tid, p).isEmpty());
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        assertTrue(scan(tid, p).isEmpty());
+        assertEquals(0, countLocked(tid));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
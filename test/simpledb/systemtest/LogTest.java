@@ -160,6 +160,30 @@ public class LogTest extends SimpleDbTestBase {
             throw new RuntimeException("LogTest:setBeforeImage() not called? patch failed?");
     }
 
+    @Test public void TestCheckpointRereadsPages()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+
+        // *** Test:
+        // a checkpoint truncates the log, which reads the before and
+        // after images of the update records of open transactions back
+        // in. HeapPage has several constructors; the log must still find
+        // the (HeapPageId, byte[]) one.
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 1);
+        Database.getBufferPool().flushAllPages(); // writes an update record
+        Database.getLogFile().logCheckpoint();
+        insertRow(hf1, t1, 2);
+        t1.commit();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        look(hf1, t2, 1, true);
+        look(hf1, t2, 2, true);
+        t2.commit();
+    }
+
     @Test public void TestFlushAll()
             throws IOException, DbException, TransactionAbortedException {
         setup();